@@ -0,0 +1,599 @@
+package com.varaneckas.conway;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Micro-benchmarks of the hot paths, run on a plain JVM:
+ * 
+ * <ul>
+ * <li>tick - {@link Logic#tick()} on R-pentomino, acorn, Gosper glider gun
+ * and random soups of 128, 512 and 2048 cells square at 50% density, with
+ * the engine chosen by {@link EngineSelector} as in the game</li>
+ * <li>step - {@link Engine#step()} of every plain engine on a soup</li>
+ * <li>neighbors - counting of neighbors alone, the way
+ * {@link SparseEngine} scatters them into a {@link LongCountMap}</li>
+ * <li>render - {@link PixelBuffer} filled from a {@link Snapshot}, whole
+ * and by changes, as {@link Video} does it</li>
+ * <li>input - touches of a stroke through the ring of {@link Input}, and
+ * {@link Cell} objects built by {@link Logic#getCells()}</li>
+ * </ul>
+ * 
+ * Every benchmark is warmed up, so that the JIT compiler is done with it,
+ * and then run for a number of timed iterations. Work that only prepares
+ * an iteration, such as loading a pattern, is not timed. The results are
+ * printed and written to a JSON file, to be compared between runs.
+ * 
+ * Lives outside src/, so it does not end up in the game. Usage:
+ * 
+ * <pre>
+ * javac -d bin-bench -sourcepath src:bench \
+ *     bench/com/varaneckas/conway/Benchmark.java
+ * java -cp bin-bench com.varaneckas.conway.Benchmark [out=bench.json]
+ *     [filter=tick] [warmup=2000] [time=5000]
+ * </pre>
+ * 
+ * Filter keeps the benchmarks whose names contain it, warmup and time are
+ * in milliseconds per benchmark.
+ * 
+ * @author Tomas Varaneckas
+ * @see GameContext#createHeadless()
+ */
+public class Benchmark {
+	
+	/**
+	 * Iterations that are measured even if they take longer than the time
+	 * given to a benchmark.
+	 */
+	private static final int MIN_ITERATIONS = 5;
+	
+	private static final String R_PENTOMINO = "x = 3, y = 3\nb2o$2o$bo!\n";
+	
+	private static final String ACORN = "x = 7, y = 3\nbo$3bo$2o2b3o!\n";
+	
+	private static final String GOSPER_GUN = "x = 36, y = 9\n"
+			+ "24bo$22bobo$12b2o6b2o12b2o$11bo3bo4b2o12b2o$2o8bo5bo3b2o$"
+			+ "2o8bo3bob2o4bobo$10bo5bo7bo$11bo3bo$12b2o!\n";
+	
+	/**
+	 * Seed of the soups, the same for every run.
+	 */
+	private static final long SEED = 42;
+	
+	/**
+	 * A timed piece of code. {@link #setUp()} runs before every iteration
+	 * and is not timed, {@link #run()} is.
+	 */
+	private abstract static class Case {
+		
+		final String name;
+		
+		/**
+		 * Operations done by a single {@link #run()}, the times are reported
+		 * per operation.
+		 */
+		final int operations;
+		
+		Case(String name, int operations) {
+			this.name = name;
+			this.operations = operations;
+		}
+		
+		void setUp() throws IOException {
+			// Nothing to prepare.
+		}
+		
+		/**
+		 * @return Anything that depends on the work, so that the compiler
+		 * can't drop it.
+		 */
+		abstract long run();
+		
+		void tearDown() {
+			// Nothing to release.
+		}
+	}
+	
+	/**
+	 * Statistics of a case, in nanoseconds per operation.
+	 */
+	private static final class Result {
+		String name;
+		int operations;
+		int iterations;
+		double mean;
+		double median;
+		double min;
+		double max;
+		double deviation;
+	}
+	
+	/**
+	 * Collects what the benchmarks return, see {@link Case#run()}.
+	 */
+	static volatile long sink;
+	
+	private final long warmupNanos;
+	private final long timeNanos;
+	private final File directory;
+	
+	private Benchmark(long warmupMillis, long timeMillis, File directory) {
+		this.warmupNanos = warmupMillis * 1000000;
+		this.timeNanos = timeMillis * 1000000;
+		this.directory = directory;
+	}
+	
+	public static void main(String[] args) throws IOException {
+		File out = new File("bench.json");
+		String filter = "";
+		long warmup = 2000;
+		long time = 5000;
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			String key = separator < 0 ? arg : arg.substring(0, separator);
+			String value = arg.substring(separator + 1);
+			if (key.equals("out")) {
+				out = new File(value);
+			} else if (key.equals("filter")) {
+				filter = value;
+			} else if (key.equals("warmup")) {
+				warmup = Long.parseLong(value);
+			} else if (key.equals("time")) {
+				time = Long.parseLong(value);
+			} else {
+				System.err.println("Usage: Benchmark [out=file.json] "
+						+ "[filter=name] [warmup=ms] [time=ms]");
+				System.exit(1);
+			}
+		}
+		
+		File directory = File.createTempFile("bench", "");
+		directory.delete();
+		directory.mkdir();
+		try {
+			new Benchmark(warmup, time, directory).run(filter, out);
+		} finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+	
+	private void run(String filter, File out) throws IOException {
+		List<Case> cases = createCases();
+		List<Result> results = new ArrayList<Result>();
+		PrintStream console = System.out;
+		for (Case c : cases) {
+			if (!c.name.contains(filter)) {
+				continue;
+			}
+			// Engines log through Utils.debug, which prints on a plain JVM.
+			// The prints would add to the times, so they are dropped.
+			System.setOut(new PrintStream(new OutputStream() {
+				@Override
+				public void write(int b) {
+					// Dropped.
+				}
+			}));
+			Result result;
+			try {
+				result = measure(c);
+			} finally {
+				System.setOut(console);
+			}
+			results.add(result);
+			console.printf(Locale.US, "%-32s %14.1f ns/op  +- %5.1f%%  "
+					+ "(%d x %d ops)%n", result.name, result.mean,
+					100 * result.deviation / result.mean, result.iterations,
+					result.operations);
+		}
+		write(results, out);
+		console.println("Results written to " + out);
+	}
+	
+	private List<Case> createCases() throws IOException {
+		List<Case> cases = new ArrayList<Case>();
+		
+		cases.add(tick("r-pentomino", pattern("r-pentomino", R_PENTOMINO),
+				1000));
+		cases.add(tick("acorn", pattern("acorn", ACORN), 1000));
+		cases.add(tick("gosper-gun", pattern("gosper-gun", GOSPER_GUN), 1000));
+		cases.add(tick("soup-128", pattern("soup-128", rle(soup(128))), 100));
+		cases.add(tick("soup-512", pattern("soup-512", rle(soup(512))), 20));
+		cases.add(tick("soup-2048", pattern("soup-2048", rle(soup(2048))),
+				5));
+		
+		for (String engine : new String[] {"sparse", "dense", "tiled",
+				"hashlife"}) {
+			cases.add(step(engine, 512, 20));
+		}
+		
+		cases.add(neighbors(128));
+		cases.add(neighbors(512));
+		
+		cases.add(render(pattern("soup-512", rle(soup(512)))));
+		
+		cases.add(touches(1000));
+		cases.add(cells(pattern("soup-128", rle(soup(128)))));
+		return cases;
+	}
+	
+	/**
+	 * Warms given case up and measures it.
+	 */
+	private Result measure(Case c) throws IOException {
+		long end = System.nanoTime() + warmupNanos;
+		do {
+			c.setUp();
+			sink += c.run();
+			c.tearDown();
+		} while (System.nanoTime() < end);
+		
+		List<Double> samples = new ArrayList<Double>();
+		end = System.nanoTime() + timeNanos;
+		do {
+			c.setUp();
+			long start = System.nanoTime();
+			sink += c.run();
+			long nanos = System.nanoTime() - start;
+			c.tearDown();
+			samples.add((double) nanos / c.operations);
+		} while (samples.size() < MIN_ITERATIONS || System.nanoTime() < end);
+		
+		double[] sorted = new double[samples.size()];
+		double sum = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			sorted[i] = samples.get(i);
+			sum += sorted[i];
+		}
+		Arrays.sort(sorted);
+		Result result = new Result();
+		result.name = c.name;
+		result.operations = c.operations;
+		result.iterations = sorted.length;
+		result.mean = sum / sorted.length;
+		result.median = sorted[sorted.length / 2];
+		result.min = sorted[0];
+		result.max = sorted[sorted.length - 1];
+		double squares = 0;
+		for (double sample : sorted) {
+			squares += (sample - result.mean) * (sample - result.mean);
+		}
+		result.deviation = Math.sqrt(squares / sorted.length);
+		return result;
+	}
+	
+	/**
+	 * Ticks of the logic, an operation is a generation. The snapshot is
+	 * taken after every tick, as {@link Video} does at full speed, so that
+	 * every tick publishes one.
+	 */
+	private static Case tick(String workload, final File pattern,
+			int generations) {
+		return new Case("tick/" + workload, generations) {
+			private GameContext context;
+			
+			@Override
+			void setUp() {
+				context = GameContext.createHeadless();
+				context.getLogic().loadPattern(pattern);
+				context.getLogic().tick();
+			}
+			
+			@Override
+			long run() {
+				Logic logic = context.getLogic();
+				for (int i = 0; i < operations; i++) {
+					logic.tick();
+					logic.getSnapshot();
+				}
+				return logic.getPopulation();
+			}
+			
+			@Override
+			void tearDown() {
+				context.getWorkers().shutdown();
+				context = null;
+			}
+		};
+	}
+	
+	/**
+	 * Steps of an engine alone, an operation is a generation.
+	 */
+	private static Case step(final String engine, int size, int generations) {
+		final long[] soup = soup(size);
+		return new Case("step/" + engine + "/soup-" + size, generations) {
+			private Engine target;
+			
+			@Override
+			void setUp() {
+				if (engine.equals("sparse")) {
+					target = new SparseEngine();
+				} else if (engine.equals("dense")) {
+					target = new DenseGrid(null);
+				} else if (engine.equals("tiled")) {
+					target = new TiledEngine();
+				} else {
+					target = new HashLife();
+				}
+				for (long cell : soup) {
+					target.setCell(LongCellSet.unpackX(cell),
+							LongCellSet.unpackY(cell));
+				}
+			}
+			
+			@Override
+			long run() {
+				for (int i = 0; i < operations; i++) {
+					target.step();
+				}
+				return target.getPopulation();
+			}
+		};
+	}
+	
+	/**
+	 * Neighbor counts of all the cells of a soup, an operation is a count
+	 * of the whole board.
+	 */
+	private static Case neighbors(int size) {
+		final long[] soup = soup(size);
+		final LongCountMap counts = new LongCountMap(soup.length * 9);
+		return new Case("neighbors/soup-" + size, 10) {
+			@Override
+			long run() {
+				for (int i = 0; i < operations; i++) {
+					counts.clear();
+					for (long cell : soup) {
+						int x = LongCellSet.unpackX(cell);
+						int y = LongCellSet.unpackY(cell);
+						counts.add(LongCellSet.pack(x - 1, y - 1), 1);
+						counts.add(LongCellSet.pack(x, y - 1), 1);
+						counts.add(LongCellSet.pack(x + 1, y - 1), 1);
+						counts.add(LongCellSet.pack(x - 1, y), 1);
+						counts.add(cell, 9);
+						counts.add(LongCellSet.pack(x + 1, y), 1);
+						counts.add(LongCellSet.pack(x - 1, y + 1), 1);
+						counts.add(LongCellSet.pack(x, y + 1), 1);
+						counts.add(LongCellSet.pack(x + 1, y + 1), 1);
+					}
+				}
+				return counts.size();
+			}
+		};
+	}
+	
+	/**
+	 * Painting of a soup into a window of its size, from scratch and by the
+	 * changes of a generation, an operation is a whole picture.
+	 */
+	private static Case render(final File pattern) {
+		final int[] palette = {0xFF000000, 0xFF00FF00};
+		final PixelBuffer pixels = new PixelBuffer();
+		final Snapshot[] snapshots = new Snapshot[2];
+		return new Case("render/soup-512", 10) {
+			@Override
+			void setUp() {
+				if (snapshots[0] != null) {
+					return;
+				}
+				GameContext context = GameContext.createHeadless();
+				Logic logic = context.getLogic();
+				logic.loadPattern(pattern);
+				logic.tick();
+				snapshots[0] = logic.getSnapshot();
+				logic.tick();
+				snapshots[1] = logic.getSnapshot();
+				context.getWorkers().shutdown();
+				pixels.setWindow(-256, -256, 512, 512);
+			}
+			
+			@Override
+			long run() {
+				long painted = 0;
+				for (int i = 0; i < operations; i++) {
+					pixels.paint(snapshots[0], palette);
+					painted += pixels.paintChanges(snapshots[1], snapshots[0],
+							palette);
+				}
+				return painted;
+			}
+		};
+	}
+	
+	/**
+	 * A stroke of touches through {@link Input}, from the touch events to
+	 * the cells that the logic picks up, an operation is a touch.
+	 */
+	private static Case touches(int count) {
+		final Input input = new Input();
+		final CellVisitor ignore = new CellVisitor() {
+			@Override
+			public void visit(int x, int y) {
+				// Only counted.
+			}
+		};
+		return new Case("input/touches", count) {
+			@Override
+			long run() {
+				for (int i = 0; i < operations; i++) {
+					input.addTouch(i * 0.7f, i * 0.3f);
+				}
+				input.flush();
+				return input.drain(ignore);
+			}
+		};
+	}
+	
+	/**
+	 * {@link Cell} objects of a soup, an operation is a list of all of
+	 * them.
+	 */
+	private static Case cells(final File pattern) {
+		final GameContext context = GameContext.createHeadless();
+		return new Case("input/cells/soup-128", 10) {
+			private boolean loaded;
+			
+			@Override
+			void setUp() {
+				if (!loaded) {
+					context.getLogic().loadPattern(pattern);
+					context.getLogic().tick();
+					context.getWorkers().shutdown();
+					loaded = true;
+				}
+			}
+			
+			@Override
+			long run() {
+				long cells = 0;
+				for (int i = 0; i < operations; i++) {
+					cells += context.getLogic().getCells().size();
+				}
+				return cells;
+			}
+		};
+	}
+	
+	/**
+	 * @return Cells of a square soup of given size at 50% density, centered
+	 * on 0,0, sorted. The same on every run.
+	 */
+	private static long[] soup(int size) {
+		Random random = new Random(SEED + size);
+		long[] cells = new long[size * size];
+		int count = 0;
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				if (random.nextBoolean()) {
+					cells[count++] = LongCellSet.pack(x - size / 2,
+							y - size / 2);
+				}
+			}
+		}
+		cells = Arrays.copyOf(cells, count);
+		Arrays.sort(cells);
+		return cells;
+	}
+	
+	/**
+	 * @return Given cells in the RLE format, a line per row.
+	 */
+	private static String rle(long[] cells) {
+		int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+		int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+		for (long cell : cells) {
+			left = Math.min(left, LongCellSet.unpackX(cell));
+			right = Math.max(right, LongCellSet.unpackX(cell));
+			top = Math.min(top, LongCellSet.unpackY(cell));
+			bottom = Math.max(bottom, LongCellSet.unpackY(cell));
+		}
+		int width = right - left + 1;
+		int height = bottom - top + 1;
+		boolean[] alive = new boolean[width * height];
+		for (long cell : cells) {
+			alive[(LongCellSet.unpackY(cell) - top) * width
+					+ LongCellSet.unpackX(cell) - left] = true;
+		}
+		
+		StringBuilder text = new StringBuilder();
+		text.append("x = ").append(width).append(", y = ").append(height)
+				.append('\n');
+		for (int y = 0; y < height; y++) {
+			int x = 0;
+			while (x < width) {
+				boolean state = alive[y * width + x];
+				int run = 1;
+				while (x + run < width && alive[y * width + x + run] == state) {
+					run++;
+				}
+				if (state || x + run < width) {
+					if (run > 1) {
+						text.append(run);
+					}
+					text.append(state ? 'o' : 'b');
+				}
+				x += run;
+			}
+			text.append(y == height - 1 ? "!\n" : "$\n");
+		}
+		return text.toString();
+	}
+	
+	/**
+	 * Writes given pattern into the temporary directory.
+	 */
+	private File pattern(String name, String rle) throws IOException {
+		File file = new File(directory, name + ".rle");
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write(rle);
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+	
+	private static void write(List<Result> results, File out)
+			throws IOException {
+		SimpleDateFormat format = new SimpleDateFormat(
+				"yyyy-MM-dd'T'HH:mm:ssZ", Locale.US);
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"date\": ").append(quote(format.format(new Date())))
+				.append(",\n");
+		json.append("  \"java\": ")
+				.append(quote(System.getProperty("java.version")))
+				.append(",\n");
+		json.append("  \"os\": ").append(quote(System.getProperty("os.name")
+				+ " " + System.getProperty("os.arch"))).append(",\n");
+		json.append("  \"cores\": ")
+				.append(Runtime.getRuntime().availableProcessors())
+				.append(",\n");
+		json.append("  \"unit\": \"ns/op\",\n");
+		json.append("  \"results\": [");
+		for (int i = 0; i < results.size(); i++) {
+			Result result = results.get(i);
+			json.append(i == 0 ? "\n" : ",\n");
+			json.append("    {\"name\": ").append(quote(result.name));
+			json.append(String.format(Locale.US, ", \"operations\": %d, "
+					+ "\"iterations\": %d, \"mean\": %.2f, \"median\": %.2f, "
+					+ "\"min\": %.2f, \"max\": %.2f, \"deviation\": %.2f}",
+					result.operations, result.iterations, result.mean,
+					result.median, result.min, result.max, result.deviation));
+		}
+		json.append("\n  ]\n}\n");
+		
+		Writer writer = new FileWriter(out);
+		try {
+			writer.write(json.toString());
+		} finally {
+			writer.close();
+		}
+	}
+	
+	private static String quote(String text) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\') {
+				quoted.append('\\');
+			}
+			quoted.append(c < ' ' ? ' ' : c);
+		}
+		return quoted.append('"').toString();
+	}
+}
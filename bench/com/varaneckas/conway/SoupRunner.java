@@ -0,0 +1,556 @@
+package com.varaneckas.conway;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs random soups without Android, i.e. on a build server, for capacity
+ * testing and for catching regressions in the engines.
+ * 
+ * Every soup is a 16 x 16 square of cells that are alive with probability
+ * 1/2, drawn from {@link Random} with the number of the soup as the seed,
+ * so the same soups come out on every machine. A soup runs until it
+ * stabilizes or hits the generation cap, and then the objects left over
+ * are counted. Soups are spread across threads, one soup per thread at a
+ * time, so every core is busy.
+ * 
+ * Lives outside src/, so it does not end up in the game. Usage:
+ * 
+ * <pre>
+ * javac -d bin-bench -sourcepath src:bench \
+ *     bench/com/varaneckas/conway/SoupRunner.java
+ * java -cp bin-bench com.varaneckas.conway.SoupRunner [soups=10000] 
+ *     [seed=1] [threads=cores] [cap=20000] [engine=TILED]
+ * </pre>
+ * 
+ * Engine is SPARSE, DENSE or TILED. The engines are created right here
+ * rather than by {@link EngineType}, which needs a {@link GameContext}, so
+ * nothing that needs Android is loaded.
+ * 
+ * @author Tomas Varaneckas
+ */
+public class SoupRunner {
+	
+	/**
+	 * Size of the side of a soup.
+	 */
+	private static final int SOUP_SIZE = 16;
+	
+	/**
+	 * Longest period of a cycle that counts as stable, and that objects
+	 * are checked for.
+	 */
+	private static final int MAX_PERIOD = CycleDetector.MAX_PERIOD;
+	
+	/**
+	 * Generations that the population has to repeat with the same period
+	 * before a soup counts as stable. Gliders leaving a soup keep the board
+	 * from ever repeating exactly, but not its population.
+	 */
+	private static final int STABLE_GENERATIONS = 2 * MAX_PERIOD;
+	
+	/**
+	 * Name of the objects that were not found to repeat in
+	 * {@link #MAX_PERIOD} generations.
+	 */
+	private static final String UNKNOWN = "unknown";
+	
+	/**
+	 * Names of common objects, by {@link #canonical(long[])} form.
+	 */
+	private static final Map<String, String> NAMES =
+			new HashMap<String, String>();
+	
+	static {
+		name("block", "oo", "oo");
+		name("beehive", ".oo.", "o..o", ".oo.");
+		name("loaf", ".oo.", "o..o", ".o.o", "..o.");
+		name("boat", "oo.", "o.o", ".o.");
+		name("ship", "oo.", "o.o", ".oo");
+		name("tub", ".o.", "o.o", ".o.");
+		name("pond", ".oo.", "o..o", "o..o", ".oo.");
+		name("long boat", "oo..", "o.o.", ".o.o", "..o.");
+		name("barge", ".o..", "o.o.", ".o.o", "..o.");
+		name("mango", ".oo..", "o..o.", ".o..o", "..oo.");
+		name("eater", "oo..", "o.o.", "..o.", "..oo");
+		name("blinker", "ooo");
+		name("toad", ".ooo", "ooo.");
+		name("beacon", "oo..", "oo..", "..oo", "..oo");
+		name("glider", ".o.", "..o", "ooo");
+		name("lightweight spaceship", ".o..o", "o....", "o...o", "oooo.");
+	}
+	
+	/**
+	 * Result of a single soup.
+	 */
+	private static final class Soup {
+		
+		long generations;
+		
+		long population;
+		
+		boolean stable;
+		
+		/**
+		 * Leftover objects by name.
+		 */
+		final Map<String, Integer> objects = new HashMap<String, Integer>();
+	}
+	
+	private final int soups;
+	private final long seed;
+	private final int threads;
+	private final int cap;
+	private final String engine;
+	
+	/* Totals, guarded by this. */
+	private final Map<String, Long> census = new HashMap<String, Long>();
+	private long generations;
+	private long population;
+	private long minPopulation = Long.MAX_VALUE;
+	private long maxPopulation;
+	private int stable;
+	private int done;
+	
+	/**
+	 * @param soups Number of soups to run.
+	 * @param seed Seed of the first soup, the others follow.
+	 * @param threads Number of threads.
+	 * @param cap Generation to stop the soups that don't stabilize at.
+	 * @param engine SPARSE, DENSE or TILED, like {@link EngineType}.
+	 */
+	public SoupRunner(int soups, long seed, int threads, int cap,
+			String engine) {
+		if (soups < 1 || threads < 1 || cap < 1) {
+			throw new IllegalArgumentException("Invalid soup run: " + soups
+					+ " soups, " + threads + " threads, cap " + cap);
+		}
+		if (!engine.equals("SPARSE") && !engine.equals("DENSE")
+				&& !engine.equals("TILED")) {
+			throw new IllegalArgumentException("Unsupported engine: " + engine);
+		}
+		this.soups = soups;
+		this.seed = seed;
+		this.threads = threads;
+		this.cap = cap;
+		this.engine = engine;
+	}
+	
+	public static void main(String[] args) throws InterruptedException {
+		int soups = 10000;
+		long seed = 1;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int cap = 20000;
+		String engine = "TILED";
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			String key = separator < 0 ? arg : arg.substring(0, separator);
+			String value = arg.substring(separator + 1);
+			if (key.equals("soups")) {
+				soups = Integer.parseInt(value);
+			} else if (key.equals("seed")) {
+				seed = Long.parseLong(value);
+			} else if (key.equals("threads")) {
+				threads = Integer.parseInt(value);
+			} else if (key.equals("cap")) {
+				cap = Integer.parseInt(value);
+			} else if (key.equals("engine")) {
+				engine = value.toUpperCase();
+			} else {
+				System.err.println("Usage: SoupRunner [soups=N] [seed=N] "
+						+ "[threads=N] [cap=N] [engine=SPARSE|DENSE|TILED]");
+				System.exit(1);
+			}
+		}
+		new SoupRunner(soups, seed, threads, cap, engine).run();
+	}
+	
+	/**
+	 * Runs all the soups and prints the report.
+	 */
+	public void run() throws InterruptedException {
+		System.out.printf("Running %d soups from seed %d on %d threads, "
+				+ "%s engine, cap %d%n", soups, seed, threads, engine, cap);
+		long start = System.nanoTime();
+		
+		final AtomicInteger next = new AtomicInteger();
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Engine engine = createEngine();
+					int soup;
+					while ((soup = next.getAndIncrement()) < soups) {
+						if (engine instanceof DenseGrid) {
+							// Grows after escaping gliders and never shrinks.
+							engine = createEngine();
+						}
+						add(runSoup(engine, seed + soup));
+					}
+				}
+			}, "Soup " + i);
+			workers[i].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		
+		report(System.nanoTime() - start);
+	}
+	
+	private Engine createEngine() {
+		if (engine.equals("SPARSE")) {
+			return new SparseEngine();
+		} else if (engine.equals("DENSE")) {
+			return new DenseGrid(null);
+		}
+		return new TiledEngine();
+	}
+	
+	/**
+	 * Runs a single soup on given engine, which is cleared first.
+	 */
+	Soup runSoup(Engine engine, long seed) {
+		engine.clear();
+		Random random = new Random(seed);
+		for (int y = 0; y < SOUP_SIZE; y++) {
+			for (int x = 0; x < SOUP_SIZE; x++) {
+				if (random.nextBoolean()) {
+					engine.setCell(x, y);
+				}
+			}
+		}
+		
+		Soup soup = new Soup();
+		CycleDetector cycles = new CycleDetector();
+		long[] populations = new long[MAX_PERIOD + 1];
+		int[] repeats = new int[MAX_PERIOD + 1];
+		HashedEngine hashed = (HashedEngine) engine;
+		
+		for (int generation = 1; generation <= cap; generation++) {
+			engine.step();
+			soup.generations = generation;
+			
+			// Exact repeats first, they catch still lifes right away.
+			if (cycles.record(generation, hashed.getHash())) {
+				soup.stable = true;
+				break;
+			}
+			
+			// Repeats of the population for every period, in a row.
+			long population = engine.getPopulation();
+			boolean settled = false;
+			for (int period = 1; period < generation && period <= MAX_PERIOD;
+					period++) {
+				long before = populations[(generation - period)
+						% populations.length];
+				repeats[period] = before == population ? repeats[period] + 1
+						: 0;
+				settled |= repeats[period] >= STABLE_GENERATIONS;
+			}
+			populations[generation % populations.length] = population;
+			if (settled) {
+				soup.stable = true;
+				break;
+			}
+		}
+		
+		soup.population = engine.getPopulation();
+		census(engine, soup.objects);
+		return soup;
+	}
+	
+	private synchronized void add(Soup soup) {
+		generations += soup.generations;
+		population += soup.population;
+		minPopulation = Math.min(minPopulation, soup.population);
+		maxPopulation = Math.max(maxPopulation, soup.population);
+		if (soup.stable) {
+			stable++;
+		}
+		for (Map.Entry<String, Integer> object : soup.objects.entrySet()) {
+			Long count = census.get(object.getKey());
+			census.put(object.getKey(), (count == null ? 0 : count)
+					+ object.getValue());
+		}
+		done++;
+		if (done % 1000 == 0) {
+			Utils.debug(this, "%d soups done", done);
+		}
+	}
+	
+	private synchronized void report(long nanos) {
+		double seconds = nanos / 1e9;
+		System.out.printf("Soups: %d in %.2f s, %.1f soups/s%n", done,
+				seconds, done / seconds);
+		System.out.printf("Generations: %d, %.0f generations/s%n",
+				generations, generations / seconds);
+		System.out.printf("Stabilized: %d, capped: %d%n", stable,
+				done - stable);
+		System.out.printf("Final population: min %d, mean %.1f, max %d%n",
+				minPopulation, (double) population / done, maxPopulation);
+		
+		List<Map.Entry<String, Long>> objects =
+				new ArrayList<Map.Entry<String, Long>>(census.entrySet());
+		Collections.sort(objects, new Comparator<Map.Entry<String, Long>>() {
+			@Override
+			public int compare(Map.Entry<String, Long> a,
+					Map.Entry<String, Long> b) {
+				if (!a.getValue().equals(b.getValue())) {
+					return b.getValue() > a.getValue() ? 1 : -1;
+				}
+				return a.getKey().compareTo(b.getKey());
+			}
+		});
+		
+		// Same soups give the same census, on any machine and any number of
+		// threads, so the checksum shows a regression at a glance.
+		long checksum = 0;
+		System.out.printf("Census: %d kinds of objects%n", objects.size());
+		for (Map.Entry<String, Long> object : objects) {
+			System.out.printf("%10d %s%n", object.getValue(), object.getKey());
+			checksum = checksum * 31 + object.getKey().hashCode();
+			checksum = checksum * 31 + object.getValue();
+		}
+		System.out.printf("Census checksum: %016x%n", checksum);
+	}
+	
+	/**
+	 * Splits the cells of given engine into objects and counts them by
+	 * name. Cells up to 2 apart belong to the same object, so objects that
+	 * touch each other count as one.
+	 */
+	static void census(Engine engine, Map<String, Integer> objects) {
+		final long[] cells = new long[(int) engine.getPopulation()];
+		final int[] count = new int[1];
+		engine.visit(new CellVisitor() {
+			@Override
+			public void visit(int x, int y) {
+				cells[count[0]++] = LongCellSet.pack(x, y);
+			}
+		});
+		
+		// Union-find over the cells, with the index of every cell plus one
+		// in a map.
+		LongCountMap index = new LongCountMap(cells.length);
+		for (int i = 0; i < cells.length; i++) {
+			index.add(cells[i], i + 1);
+		}
+		int[] parent = new int[cells.length];
+		for (int i = 0; i < cells.length; i++) {
+			parent[i] = i;
+		}
+		for (int i = 0; i < cells.length; i++) {
+			int x = LongCellSet.unpackX(cells[i]);
+			int y = LongCellSet.unpackY(cells[i]);
+			for (int dy = -2; dy <= 2; dy++) {
+				for (int dx = -2; dx <= 2; dx++) {
+					int j = index.get(LongCellSet.pack(x + dx, y + dy)) - 1;
+					if (j > i) {
+						parent[root(parent, j)] = root(parent, i);
+					}
+				}
+			}
+		}
+		
+		Map<Integer, List<Long>> groups = new HashMap<Integer, List<Long>>();
+		for (int i = 0; i < cells.length; i++) {
+			Integer root = root(parent, i);
+			List<Long> group = groups.get(root);
+			if (group == null) {
+				group = new ArrayList<Long>();
+				groups.put(root, group);
+			}
+			group.add(cells[i]);
+		}
+		for (List<Long> group : groups.values()) {
+			long[] object = new long[group.size()];
+			for (int i = 0; i < object.length; i++) {
+				object[i] = group.get(i);
+			}
+			Arrays.sort(object);
+			String name = classify(object);
+			Integer seen = objects.get(name);
+			objects.put(name, seen == null ? 1 : seen + 1);
+		}
+	}
+	
+	private static int root(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+	
+	/**
+	 * Runs an object on its own to find out what it is. Still lifes are
+	 * named "xs" and the number of cells, oscillators "xp" and the period,
+	 * spaceships "xq" and the period, followed by a hash of the shape,
+	 * unless the object has a name.
+	 * 
+	 * @param cells Sorted cells of the object.
+	 */
+	static String classify(long[] cells) {
+		SparseEngine engine = new SparseEngine();
+		for (long cell : cells) {
+			engine.setCell(LongCellSet.unpackX(cell), LongCellSet.unpackY(cell));
+		}
+		String first = shape(cells);
+		String canonical = canonical(cells);
+		int period = 0;
+		long[] phase = cells;
+		for (int generation = 1; generation <= MAX_PERIOD; generation++) {
+			engine.step();
+			phase = cells(engine);
+			if (phase.length == 0) {
+				return UNKNOWN;
+			}
+			if (shape(phase).equals(first)) {
+				period = generation;
+				break;
+			}
+			String form = canonical(phase);
+			if (form.compareTo(canonical) < 0) {
+				canonical = form;
+			}
+		}
+		if (period == 0) {
+			return UNKNOWN;
+		}
+		String name = NAMES.get(canonical);
+		if (name != null) {
+			return name;
+		}
+		String prefix;
+		if (phase[0] != cells[0]) {
+			prefix = "xq" + period;
+		} else if (period > 1) {
+			prefix = "xp" + period;
+		} else {
+			prefix = "xs" + cells.length;
+		}
+		return prefix + "_" + Integer.toHexString(canonical.hashCode());
+	}
+	
+	/**
+	 * @return Sorted cells of given engine.
+	 */
+	private static long[] cells(Engine engine) {
+		final long[] cells = new long[(int) engine.getPopulation()];
+		final int[] count = new int[1];
+		engine.visit(new CellVisitor() {
+			@Override
+			public void visit(int x, int y) {
+				cells[count[0]++] = LongCellSet.pack(x, y);
+			}
+		});
+		Arrays.sort(cells);
+		return cells;
+	}
+	
+	/**
+	 * @return Given cells moved to the corner, as text. Equal for the same
+	 * object anywhere on the board.
+	 */
+	private static String shape(long[] cells) {
+		return transform(cells, 1, 0, 0, 1);
+	}
+	
+	/**
+	 * @return The smallest {@link #shape(long[])} of given cells among all
+	 * their rotations and reflections.
+	 */
+	private static String canonical(long[] cells) {
+		String best = null;
+		for (int t = 0; t < 8; t++) {
+			int a = (t & 1) == 0 ? 1 : -1;
+			int d = (t & 2) == 0 ? 1 : -1;
+			String form = (t & 4) == 0 ? transform(cells, a, 0, 0, d)
+					: transform(cells, 0, a, d, 0);
+			if (best == null || form.compareTo(best) < 0) {
+				best = form;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Maps every cell x,y to ax + by, cx + dy, moves the result to the
+	 * corner and lists it in sorted order.
+	 */
+	private static String transform(long[] cells, int a, int b, int c,
+			int d) {
+		long[] moved = new long[cells.length];
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+		for (int i = 0; i < cells.length; i++) {
+			int x = LongCellSet.unpackX(cells[i]);
+			int y = LongCellSet.unpackY(cells[i]);
+			int tx = a * x + b * y;
+			int ty = c * x + d * y;
+			minX = Math.min(minX, tx);
+			minY = Math.min(minY, ty);
+			moved[i] = LongCellSet.pack(tx, ty);
+		}
+		for (int i = 0; i < moved.length; i++) {
+			moved[i] = LongCellSet.pack(LongCellSet.unpackX(moved[i]) - minX,
+					LongCellSet.unpackY(moved[i]) - minY);
+		}
+		Arrays.sort(moved);
+		StringBuilder text = new StringBuilder();
+		for (long cell : moved) {
+			text.append(LongCellSet.unpackX(cell)).append(',')
+					.append(LongCellSet.unpackY(cell)).append(' ');
+		}
+		return text.toString();
+	}
+	
+	/**
+	 * Registers a name for the object drawn in given rows, "o" for a
+	 * living cell. Oscillators and spaceships can be drawn in any phase.
+	 */
+	private static void name(String name, String ... rows) {
+		List<Long> cells = new ArrayList<Long>();
+		for (int y = 0; y < rows.length; y++) {
+			for (int x = 0; x < rows[y].length(); x++) {
+				if (rows[y].charAt(x) == 'o') {
+					cells.add(LongCellSet.pack(x, y));
+				}
+			}
+		}
+		long[] object = new long[cells.size()];
+		for (int i = 0; i < object.length; i++) {
+			object[i] = cells.get(i);
+		}
+		Arrays.sort(object);
+		
+		// Same as classify(), the canonical form over all the phases.
+		SparseEngine engine = new SparseEngine();
+		for (long cell : object) {
+			engine.setCell(LongCellSet.unpackX(cell),
+					LongCellSet.unpackY(cell));
+		}
+		String first = shape(object);
+		String canonical = canonical(object);
+		for (int generation = 1; generation <= MAX_PERIOD; generation++) {
+			engine.step();
+			long[] phase = cells(engine);
+			if (shape(phase).equals(first)) {
+				break;
+			}
+			String form = canonical(phase);
+			if (form.compareTo(canonical) < 0) {
+				canonical = form;
+			}
+		}
+		NAMES.put(canonical, name);
+	}
+}
@@ -0,0 +1,409 @@
+package com.varaneckas.conway;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary copy of the board, so that it survives the process being
+ * killed while the game is in the background.
+ * 
+ * The file starts with a header: magic number, format version, generation,
+ * rule, torus size, bounding box of the cells and their number. The cells
+ * follow in one of two encodings, whichever is smaller:
+ * 
+ * Bitset - the bounding box row by row, one bit per cell, 64 cells per
+ * <code>long</code>. Used for dense boards.
+ * 
+ * Deltas - the packed cells (see {@link LongCellSet#pack(int, int)}) in
+ * sorted order, each written as a variable length difference from the
+ * previous one. Cells of the same column differ by a small number, so a
+ * cell usually takes a byte or two. Used for sparse boards.
+ * 
+ * Dying cells of a {@link StateRule} are listed after that with their
+ * states. The file ends with a CRC32 of everything before it, which is
+ * checked before anything gets written into the engine.
+ * 
+ * @author Tomas Varaneckas
+ * @see Logic#saveBoard(File)
+ * @see Logic#restoreBoard(File)
+ */
+public final class BoardFile {
+	
+	/**
+	 * "GOLB" in ASCII.
+	 */
+	private static final int MAGIC = 0x474F4C42;
+	
+	private static final int VERSION = 1;
+	
+	/* Cell encodings */
+	private static final int BITSET = 0;
+	private static final int DELTAS = 1;
+	
+	/**
+	 * Bitset is used when it takes less than this many bytes per cell.
+	 */
+	private static final int BITSET_BYTES_PER_CELL = 2;
+	
+	private final long generation;
+	
+	private final String rule;
+	
+	private final int torusWidth, torusHeight;
+	
+	private final int cells;
+	
+	/**
+	 * Contents of the file, positioned at the cells.
+	 */
+	private final ByteBuffer in;
+	
+	private final int encoding;
+	
+	/**
+	 * Bounding box of the cells.
+	 */
+	private final int left, top, width, height;
+	
+	private BoardFile(ByteBuffer in) throws IOException {
+		if (in.getInt() != MAGIC || in.get() != VERSION) {
+			throw new IOException("Not a board file");
+		}
+		encoding = in.get();
+		if (encoding != BITSET && encoding != DELTAS) {
+			throw new IOException("Unknown encoding: " + encoding);
+		}
+		generation = in.getLong();
+		rule = readUTF(in);
+		torusWidth = in.getInt();
+		torusHeight = in.getInt();
+		left = in.getInt();
+		top = in.getInt();
+		width = in.getInt();
+		height = in.getInt();
+		cells = in.getInt();
+		this.in = in;
+	}
+	
+	/**
+	 * Writes given snapshot into a file. The file is written under a
+	 * temporary name first and then renamed, so that a crash in the middle
+	 * does not destroy the previous copy.
+	 * 
+	 * @param rule The rule in any notation {@link Rule} or
+	 * {@link StateRule} can parse.
+	 * @param torusWidth Size of the torus, 0 for an unbounded world.
+	 * @param torusHeight Size of the torus, 0 for an unbounded world.
+	 */
+	public static void save(File file, Snapshot snapshot, String rule,
+			int torusWidth, int torusHeight) throws IOException {
+		int population = snapshot.getPopulation();
+		int left = snapshot.getLeft();
+		int top = snapshot.getTop();
+		int width = population == 0 ? 0
+				: snapshot.getRight() - left + 1;
+		int height = population == 0 ? 0
+				: snapshot.getBottom() - top + 1;
+		int encoding = snapshot.getArea() / 8
+				< (long) population * BITSET_BYTES_PER_CELL ? BITSET : DELTAS;
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+				64 + population * BITSET_BYTES_PER_CELL);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeByte(encoding);
+		out.writeLong(snapshot.getGeneration());
+		out.writeUTF(rule);
+		out.writeInt(torusWidth);
+		out.writeInt(torusHeight);
+		out.writeInt(left);
+		out.writeInt(top);
+		out.writeInt(width);
+		out.writeInt(height);
+		out.writeInt(population);
+		
+		CellWriter writer = new CellWriter(out, encoding, left, top, width,
+				height);
+		snapshot.visit(writer);
+		writer.finish();
+		
+		CRC32 crc = new CRC32();
+		byte[] content = bytes.toByteArray();
+		crc.update(content);
+		out.writeInt((int) crc.getValue());
+		out.flush();
+		
+		File temporary = new File(file.getPath() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(temporary);
+		try {
+			bytes.writeTo(stream);
+			stream.getFD().sync();
+		} finally {
+			stream.close();
+		}
+		if (!temporary.renameTo(file)) {
+			throw new IOException("Can't rename " + temporary + " to " + file);
+		}
+	}
+	
+	/**
+	 * Writes cells in the encoding of the file, and collects the dying
+	 * ones to be written after them.
+	 */
+	private static final class CellWriter implements StateVisitor {
+		
+		private final DataOutputStream out;
+		private final int encoding;
+		private final int left, top, width, height;
+		
+		/**
+		 * Bitset of the bounding box, for {@link BoardFile#BITSET}.
+		 */
+		private final long[] bits;
+		private final int words;
+		
+		/**
+		 * Previous packed cell, for {@link BoardFile#DELTAS}.
+		 */
+		private long previous;
+		
+		/**
+		 * Dying cells and their states.
+		 */
+		private long[] dying = new long[0];
+		private byte[] states = new byte[0];
+		private int dyingCount;
+		
+		private IOException error;
+		
+		CellWriter(DataOutputStream out, int encoding, int left, int top,
+				int width, int height) {
+			this.out = out;
+			this.encoding = encoding;
+			this.left = left;
+			this.top = top;
+			this.width = width;
+			this.height = height;
+			words = (width + 63) >>> 6;
+			bits = encoding == BITSET ? new long[words * height] : null;
+		}
+		
+		@Override
+		public void visit(int x, int y) {
+			long cell = LongCellSet.pack(x, y);
+			if (encoding == BITSET) {
+				int column = x - left;
+				bits[(y - top) * words + (column >>> 6)] |= 1L << (column & 63);
+			} else if (error == null) {
+				try {
+					writeVarLong(out, cell - previous);
+				} catch (IOException e) {
+					error = e;
+				}
+			}
+			previous = cell;
+		}
+		
+		@Override
+		public void visit(int x, int y, int state) {
+			visit(x, y);
+			if (state == 1) {
+				return;
+			}
+			if (dyingCount == dying.length) {
+				int capacity = Math.max(16, dyingCount * 2);
+				long[] moreCells = new long[capacity];
+				byte[] moreStates = new byte[capacity];
+				System.arraycopy(dying, 0, moreCells, 0, dyingCount);
+				System.arraycopy(states, 0, moreStates, 0, dyingCount);
+				dying = moreCells;
+				states = moreStates;
+			}
+			dying[dyingCount] = LongCellSet.pack(x, y);
+			states[dyingCount++] = (byte) state;
+		}
+		
+		void finish() throws IOException {
+			if (error != null) {
+				throw error;
+			}
+			if (encoding == BITSET) {
+				for (long word : bits) {
+					out.writeLong(word);
+				}
+			}
+			out.writeInt(dyingCount);
+			for (int i = 0; i < dyingCount; i++) {
+				out.writeLong(dying[i]);
+				out.writeByte(states[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Reads a file written by {@link #save(File, Snapshot, String, int, int)}
+	 * and checks it. The cells are not decoded until
+	 * {@link #restore(Engine)}, so that the rule and the torus size can be
+	 * applied first, and the cells go straight into the right engine.
+	 * 
+	 * @throws IOException if the file can't be read, or it's damaged.
+	 */
+	public static BoardFile read(File file) throws IOException {
+		ByteBuffer in;
+		FileInputStream stream = new FileInputStream(file);
+		try {
+			FileChannel channel = stream.getChannel();
+			long size = channel.size();
+			if (size < 8 || size > Integer.MAX_VALUE) {
+				throw new IOException("Invalid board file size: " + size);
+			}
+			in = ByteBuffer.allocate((int) size);
+			while (in.hasRemaining() && channel.read(in) >= 0) {
+				// Keep reading.
+			}
+			in.flip();
+		} finally {
+			stream.close();
+		}
+		
+		CRC32 crc = new CRC32();
+		crc.update(in.array(), 0, in.limit() - 4);
+		if ((int) crc.getValue() != in.getInt(in.limit() - 4)) {
+			throw new IOException("Board file is damaged: " + file);
+		}
+		return new BoardFile(in);
+	}
+	
+	/**
+	 * Puts the cells into given engine, which should be empty. Dense rows go
+	 * to {@link DenseGrid#setRun(int, int, int)} a run at a time, dying
+	 * cells keep their states on a {@link StateGrid} and are alive on the
+	 * other engines.
+	 */
+	public void restore(Engine engine) {
+		ByteBuffer in = this.in.duplicate();
+		DenseGrid dense = engine instanceof DenseGrid ? (DenseGrid) engine
+				: null;
+		if (encoding == BITSET) {
+			int words = (width + 63) >>> 6;
+			for (int y = top; y < top + height; y++) {
+				for (int k = 0; k < words; k++) {
+					long word = in.getLong();
+					int x = left + (k << 6);
+					while (word != 0) {
+						int from = Long.numberOfTrailingZeros(word);
+						int to = Long.numberOfTrailingZeros(~(word >>> from))
+								+ from;
+						if (to > 64) {
+							to = 64;
+						}
+						setRun(engine, dense, x + from, y, to - from);
+						word &= to == 64 ? 0 : -1L << to;
+					}
+				}
+			}
+		} else {
+			long cell = 0;
+			for (int i = 0; i < cells; i++) {
+				cell += readVarLong(in);
+				engine.setCell(LongCellSet.unpackX(cell),
+						LongCellSet.unpackY(cell));
+			}
+		}
+		
+		int dying = in.getInt();
+		if (!(engine instanceof StateGrid)) {
+			return;
+		}
+		StateGrid states = (StateGrid) engine;
+		for (int i = 0; i < dying; i++) {
+			long cell = in.getLong();
+			int state = in.get() & 0xFF;
+			states.setState(LongCellSet.unpackX(cell),
+					LongCellSet.unpackY(cell), state);
+		}
+	}
+	
+	private static void setRun(Engine engine, DenseGrid dense, int x, int y,
+			int length) {
+		if (dense != null) {
+			dense.setRun(x, y, length);
+		} else {
+			for (int i = 0; i < length; i++) {
+				engine.setCell(x + i, y);
+			}
+		}
+	}
+	
+	/**
+	 * Writes a value 7 bits at a time, lowest first. The top bit of every
+	 * byte tells whether more bytes follow.
+	 */
+	private static void writeVarLong(DataOutputStream out, long value)
+			throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+	
+	private static long readVarLong(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+	
+	/**
+	 * Reads a string written with {@link DataOutputStream#writeUTF(String)}.
+	 * Rules are plain ASCII.
+	 */
+	private static String readUTF(ByteBuffer in) throws IOException {
+		int length = in.getShort() & 0xFFFF;
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+	
+	public long getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * @return The rule the board was saved with.
+	 */
+	public String getRule() {
+		return rule;
+	}
+	
+	/**
+	 * @return Size of the torus, 0 for an unbounded world.
+	 */
+	public int getTorusWidth() {
+		return torusWidth;
+	}
+	
+	public int getTorusHeight() {
+		return torusHeight;
+	}
+	
+	/**
+	 * @return Number of cells, including the dying ones.
+	 */
+	public int getCells() {
+		return cells;
+	}
+}
@@ -0,0 +1,176 @@
+package com.varaneckas.conway;
+
+import java.util.Random;
+
+/**
+ * Shape that every touch draws, centered on the touched cell: a single
+ * cell, a pattern such as a glider, or a randomly filled disc.
+ * 
+ * Brushes are compiled to a bitmask once, a row of 64 bit words per row of
+ * the shape, and stamped on the board a word at a time, see
+ * {@link BulkEngine}. A stamp costs a few word writes however many cells
+ * it has, so painting a large area costs about as much as a single step.
+ * 
+ * @author Tomas Varaneckas
+ * @see Input#setBrush(Brush)
+ */
+public class Brush {
+	
+	/**
+	 * A single cell, the default.
+	 */
+	public static final Brush DOT = new Brush("dot", false, "o");
+	
+	public static final Brush GLIDER = new Brush("glider", false,
+			".o.",
+			"..o",
+			"ooo");
+	
+	/**
+	 * Lightweight spaceship.
+	 */
+	public static final Brush LWSS = new Brush("lwss", false,
+			".o..o",
+			"o....",
+			"o...o",
+			"oooo.");
+	
+	public static final Brush GOSPER_GUN = new Brush("gosper gun", false,
+			"........................o...........",
+			"......................o.o...........",
+			"............oo......oo............oo",
+			"...........o...o....oo............oo",
+			"oo........o.....o...oo..............",
+			"oo........o...o.oo....o.o...........",
+			"..........o.....o.......o...........",
+			"...........o...o....................",
+			"............oo......................");
+	
+	private final String name;
+	
+	private final int width;
+	
+	private final int height;
+	
+	/**
+	 * Words of the mask per row.
+	 */
+	private final int words;
+	
+	/**
+	 * Cells of the shape, row after row, the leftmost cell of a word in its
+	 * lowest bit.
+	 */
+	private final long[] mask;
+	
+	/**
+	 * True to bring only a random half of the mask to life with every
+	 * stamp.
+	 */
+	private final boolean random;
+	
+	/**
+	 * @param rows Rows of the shape, "o" for a cell.
+	 */
+	private Brush(String name, boolean random, String ... rows) {
+		this.name = name;
+		this.random = random;
+		int width = 0;
+		for (String row : rows) {
+			width = Math.max(width, row.length());
+		}
+		this.width = width;
+		height = rows.length;
+		words = (width + 63) >>> 6;
+		mask = new long[words * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < rows[y].length(); x++) {
+				if (rows[y].charAt(x) == 'o') {
+					mask[y * words + (x >>> 6)] |= 1L << (x & 63);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @param radius Radius of the disc in cells, 0 for a single cell.
+	 * @return Brush that fills a disc with cells at random, half of them on
+	 * average, with every stamp different.
+	 */
+	public static Brush random(int radius) {
+		if (radius < 0) {
+			throw new IllegalArgumentException("Invalid radius: " + radius);
+		}
+		String[] rows = new String[radius * 2 + 1];
+		StringBuilder row = new StringBuilder();
+		for (int y = -radius; y <= radius; y++) {
+			row.setLength(0);
+			for (int x = -radius; x <= radius; x++) {
+				row.append(x * x + y * y <= radius * radius ? 'o' : '.');
+			}
+			rows[y + radius] = row.toString();
+		}
+		return new Brush("random " + radius, true, rows);
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getHeight() {
+		return height;
+	}
+	
+	/**
+	 * @return Distance between the stamps of a stroke, so that patterns
+	 * don't run into each other and discs don't pile up.
+	 */
+	public int getSpacing() {
+		if (random) {
+			return Math.max(1, width / 2);
+		}
+		return width == 1 && height == 1 ? 1 : Math.max(width, height) + 2;
+	}
+	
+	/**
+	 * Brings the cells of the brush to life around given cell.
+	 * 
+	 * @param random Source of the cells of a random brush.
+	 */
+	public void stamp(Engine engine, int x, int y, Random random) {
+		int left = x - width / 2;
+		int top = y - height / 2;
+		BulkEngine bulk = engine instanceof BulkEngine
+				? (BulkEngine) engine : null;
+		for (int row = 0; row < height; row++) {
+			for (int k = 0; k < words; k++) {
+				long bits = mask[row * words + k];
+				if (this.random) {
+					bits &= random.nextLong();
+				}
+				if (bits == 0) {
+					continue;
+				}
+				int column = left + (k << 6);
+				if (bulk != null) {
+					bulk.setCells(column, top + row, bits);
+					continue;
+				}
+				while (bits != 0) {
+					engine.setCell(column + Long.numberOfTrailingZeros(bits),
+							top + row);
+					bits &= bits - 1;
+				}
+			}
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "Brush [" + name + "]";
+	}
+}
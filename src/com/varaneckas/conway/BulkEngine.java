@@ -0,0 +1,22 @@
+package com.varaneckas.conway;
+
+/**
+ * {@link Engine} that brings up to 64 cells of a row to life with a single
+ * OR of a word, instead of a call of {@link #setCell(int, int)} for every
+ * cell. {@link Brush} stamps go through this when the engine has it.
+ * 
+ * @author Tomas Varaneckas
+ * @see Brush#stamp(Engine, int, int, java.util.Random)
+ */
+public interface BulkEngine extends Engine {
+	
+	/**
+	 * Brings cells of a row to life. The board grows if needed.
+	 * 
+	 * @param x Coordinate of the cell of the lowest bit.
+	 * @param y Coordinate of the row.
+	 * @param bits Cells to bring to life, bit i for the cell at x + i.
+	 */
+	void setCells(int x, int y, long bits);
+
+}
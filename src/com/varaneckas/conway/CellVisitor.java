@@ -0,0 +1,14 @@
+package com.varaneckas.conway;
+
+/**
+ * Receives living cells from an {@link Engine}. Cells are passed as plain
+ * coordinates, so that no {@link Cell} objects have to be created.
+ * 
+ * @author Tomas Varaneckas
+ * @see Engine#visit(CellVisitor)
+ */
+public interface CellVisitor {
+	
+	void visit(int x, int y);
+
+}
@@ -0,0 +1,23 @@
+package com.varaneckas.conway;
+
+/**
+ * {@link Engine} that counts the cells that are born and die in a step,
+ * while it is looking at the changed cells anyway. Engines that don't
+ * implement this have no births and deaths in {@link Metrics}.
+ * 
+ * @author Tomas Varaneckas
+ * @see Metrics
+ */
+public interface CountingEngine extends Engine {
+	
+	/**
+	 * @return Cells that were born in the last step.
+	 */
+	long getBirths();
+	
+	/**
+	 * @return Cells that died in the last step.
+	 */
+	long getDeaths();
+
+}
@@ -0,0 +1,34 @@
+package com.varaneckas.conway;
+
+/**
+ * What {@link Logic} does when the board settles into a still life or an
+ * oscillator, see {@link CycleDetector}.
+ * 
+ * @author Tomas Varaneckas
+ * @see Logic#setCycleAction(CycleAction)
+ */
+public enum CycleAction {
+	
+	/**
+	 * Cycles are not looked for.
+	 */
+	OFF,
+	
+	/**
+	 * Cycles are reported by {@link Logic#getCyclePeriod()}, the game goes
+	 * on as usual.
+	 */
+	DETECT,
+	
+	/**
+	 * The engine stops, and the generations of the cycle are replayed from
+	 * snapshots, which costs next to nothing.
+	 */
+	REPLAY,
+	
+	/**
+	 * The game is paused.
+	 */
+	PAUSE
+
+}
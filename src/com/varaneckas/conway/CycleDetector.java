@@ -0,0 +1,199 @@
+package com.varaneckas.conway;
+
+/**
+ * Notices when the board settles into a still life or an oscillator, so
+ * that {@link Logic} can stop burning the battery on it.
+ * 
+ * Hashes of the last {@link #MAX_PERIOD} generations are kept in a small
+ * ring. A board that comes back after P generations has the hash it had P
+ * generations ago, so a cycle of period P is found P generations after it
+ * started. Hashes come from {@link HashedEngine}, which updates them on
+ * births and deaths only.
+ * 
+ * To replay the cycle, the snapshots of its generations are captured while
+ * it runs once more. The cycle is only trusted if the board really comes
+ * back to the first captured snapshot, so hash collisions can't freeze the
+ * game on a wrong board.
+ * 
+ * Recording and capturing happen on the main loop thread, the period and
+ * the start of the cycle can be read from any.
+ * 
+ * @author Tomas Varaneckas
+ * @see CycleAction
+ */
+public class CycleDetector {
+	
+	/**
+	 * Longest period that is detected.
+	 */
+	public static final int MAX_PERIOD = 64;
+	
+	/**
+	 * Visitor for comparing snapshots without looking at the differences.
+	 */
+	private static final CellVisitor IGNORE = new CellVisitor() {
+		@Override
+		public void visit(int x, int y) {
+			// Only counted.
+		}
+	};
+	
+	/**
+	 * Ring of the recent hashes and their generations.
+	 */
+	private final long[] hashes = new long[MAX_PERIOD];
+	private final long[] generations = new long[MAX_PERIOD];
+	private int next;
+	private int count;
+	
+	/**
+	 * Period of the cycle, 0 if there is none.
+	 */
+	private volatile int period;
+	
+	/**
+	 * First generation of the cycle, -1 if there is none.
+	 */
+	private volatile long start = -1;
+	
+	/**
+	 * Snapshots of the generations of the cycle, by phase.
+	 */
+	private Snapshot[] phases;
+	private int captured;
+	
+	/**
+	 * Living cells of the generations of the cycle, by phase.
+	 */
+	private volatile long[] populations;
+	
+	private volatile boolean replaying;
+	
+	/**
+	 * Forgets the hashes and the cycle. Must be called whenever the board
+	 * changes in other ways than by a step, or the engine changes.
+	 */
+	public void reset() {
+		next = 0;
+		count = 0;
+		period = 0;
+		start = -1;
+		phases = null;
+		populations = null;
+		captured = 0;
+		replaying = false;
+	}
+	
+	/**
+	 * Looks for given hash among the recent ones and remembers it.
+	 * 
+	 * @param generation Generation that was just calculated.
+	 * @param hash Hash of its cells.
+	 * @return true if a cycle was found with this generation.
+	 */
+	public boolean record(long generation, long hash) {
+		boolean found = false;
+		if (period == 0) {
+			// Newest first, so that the shortest period wins.
+			for (int i = 1; i <= count; i++) {
+				int slot = (next - i + MAX_PERIOD) % MAX_PERIOD;
+				if (hashes[slot] == hash && generations[slot] < generation) {
+					start = generations[slot];
+					period = (int) (generation - start);
+					found = true;
+					break;
+				}
+			}
+		}
+		hashes[next] = hash;
+		generations[next] = generation;
+		next = (next + 1) % MAX_PERIOD;
+		count = Math.min(count + 1, MAX_PERIOD);
+		return found;
+	}
+	
+	/**
+	 * @return true if a cycle was found, but it can't be replayed yet.
+	 */
+	public boolean isCapturing() {
+		return period > 0 && !replaying;
+	}
+	
+	/**
+	 * Takes the snapshot of the next generation of the cycle. Once all of
+	 * them are there, the next one must be equal to the first, otherwise
+	 * the cycle is forgotten.
+	 * 
+	 * @param population Living cells of the generation, dying ones are 
+	 * included in the snapshot but not here.
+	 * @return true if the cycle can be replayed from now on.
+	 */
+	public boolean capture(Snapshot snapshot, long population) {
+		if (phases == null) {
+			phases = new Snapshot[period];
+			populations = new long[period];
+		}
+		int phase = phase(snapshot.getGeneration());
+		if (captured < period) {
+			phases[phase] = snapshot;
+			populations[phase] = population;
+			captured++;
+			return false;
+		}
+		if (snapshot.visitChanges(phases[phase], IGNORE, IGNORE) == 0) {
+			replaying = true;
+		} else {
+			Utils.debug(this, "Cycle of period %d did not repeat", period);
+			reset();
+		}
+		return replaying;
+	}
+	
+	/**
+	 * @return true if the cycle has been captured and verified, see
+	 * {@link #getPhase(long)}.
+	 */
+	public boolean isReplaying() {
+		return replaying;
+	}
+	
+	/**
+	 * @return Cells of given generation of the cycle, which must be after
+	 * its start.
+	 */
+	public Snapshot getPhase(long generation) {
+		return phases[phase(generation)];
+	}
+	
+	/**
+	 * @return Living cells of given generation of the cycle, or -1 if it's
+	 * not being replayed. Can be called from any thread.
+	 */
+	public long getPopulation(long generation) {
+		long[] populations = this.populations;
+		if (!replaying || populations == null) {
+			return -1;
+		}
+		return populations[(int) ((generation - start) % populations.length)];
+	}
+	
+	private int phase(long generation) {
+		return (int) ((generation - start) % period);
+	}
+	
+	/**
+	 * @return Period of the cycle, 1 for a still life, or 0 if no cycle
+	 * was found.
+	 */
+	public int getPeriod() {
+		return period;
+	}
+	
+	/**
+	 * @return Generation where the cycle started, or -1 if no cycle was
+	 * found.
+	 */
+	public long getStart() {
+		return start;
+	}
+}
@@ -0,0 +1,498 @@
+package com.varaneckas.conway;
+
+import java.util.Arrays;
+
+/**
+ * Bit-packed board for dense populations. Every row is stored as a run of
+ * <code>long</code> words, one bit per cell, so a single bitwise operation
+ * processes 64 cells at once.
+ * 
+ * Next generation is calculated with a bit-sliced adder: the 8 neighbor
+ * bits of every cell are summed in parallel into separate "ones", "twos",
+ * "fours" and "eights" words, and Conway's rules are then applied to the
+ * resulting count with a couple of logical operations, see
+ * {@link Rule#apply(long, long, long, long, long)}.
+ * 
+ * The board covers a rectangle of the unbounded world and grows whenever
+ * cells get next to its edge, so that nothing is ever cut off. Growth 
+ * happens in steps of at least half the size, so it is rare.
+ * 
+ * Rows only depend on the current generation, so the board can be split into
+ * bands that are calculated by {@link Workers} in parallel.
+ * 
+ * @author Tomas Varaneckas
+ * @see EngineType#DENSE
+ */
+public class DenseGrid implements HashedEngine, CountingEngine, 
+		BulkEngine {
+	
+	/**
+	 * Size of a board that is created empty.
+	 */
+	private static final int INITIAL_SIZE = 64;
+	
+	/**
+	 * Smallest number of rows to add when growing vertically.
+	 */
+	private static final int MIN_GROWTH_ROWS = 16;
+	
+	/**
+	 * World coordinates of the top left cell of the board.
+	 */
+	private int left, top;
+	
+	private int width;
+	private int height;
+	
+	/**
+	 * Number of <code>long</code> words in a single row.
+	 */
+	private int words;
+	
+	/**
+	 * Mask that clears unused bits of the last word in a row.
+	 */
+	private long lastWordMask;
+	
+	/**
+	 * Current generation. Row y occupies words from y * {@link #words} to
+	 * (y + 1) * {@link #words}.
+	 */
+	private long[] current;
+	
+	/**
+	 * Buffer for the next generation, swapped with {@link #current} after
+	 * every step.
+	 */
+	private long[] next;
+	
+	private Rule rule = Rule.CONWAY;
+	
+	/**
+	 * {@link Zobrist} hash of the living cells, a word at a time. The left
+	 * edge of the board is always a multiple of 64, so word k of a row is
+	 * column (left / 64) + k of the world.
+	 */
+	private long hash;
+	
+	/**
+	 * Cells born and died in the last step, summed up from the bands.
+	 */
+	private long births, deaths;
+	
+	/**
+	 * Threads to split the step between, or null to calculate everything on
+	 * the calling thread.
+	 */
+	private final Workers workers;
+	
+	/**
+	 * Calculates a band of rows, see {@link Workers}.
+	 */
+	private final Workers.Task band = new Workers.Task() {
+		@Override
+		public void run(int from, int to) {
+			evolve(from, to);
+		}
+	};
+	
+	public DenseGrid(Workers workers) {
+		this(INITIAL_SIZE, INITIAL_SIZE, workers);
+	}
+	
+	public DenseGrid(int width, int height) {
+		this(width, height, null);
+	}
+	
+	/**
+	 * Creates a board with the top left corner at 0,0. It will still grow
+	 * when needed.
+	 */
+	public DenseGrid(int width, int height, Workers workers) {
+		this.workers = workers;
+		this.width = width;
+		this.height = height;
+		words = (width + 63) >>> 6;
+		int tail = width & 63;
+		lastWordMask = tail == 0 ? -1L : (1L << tail) - 1;
+		current = new long[words * height];
+		next = new long[words * height];
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getHeight() {
+		return height;
+	}
+	
+	/**
+	 * @return World X coordinate of the leftmost column of the board.
+	 */
+	public int getLeft() {
+		return left;
+	}
+	
+	/**
+	 * @return World Y coordinate of the topmost row of the board.
+	 */
+	public int getTop() {
+		return top;
+	}
+	
+	/**
+	 * @return Number of cells the board covers.
+	 */
+	public long getArea() {
+		return (long) width * height;
+	}
+	
+	/**
+	 * Brings the cell at given coordinates to life. The board grows if the
+	 * cell is outside of it.
+	 */
+	@Override
+	public void setCell(int x, int y) {
+		long dx = (long) x - left;
+		long dy = (long) y - top;
+		if (dx < 0 || dy < 0 || dx >= width || dy >= height) {
+			int west = dx < 0 ? (int) ((-dx + 63) >>> 6) : 0;
+			int east = dx >= width ? (int) ((dx - width + 64) >>> 6) : 0;
+			int north = dy < 0 ? (int) -dy : 0;
+			int south = dy >= height ? (int) (dy - height + 1) : 0;
+			grow(west, north, east, south);
+			dx = (long) x - left;
+			dy = (long) y - top;
+		}
+		set((int) dy, (int) (dx >>> 6), 1L << (dx & 63));
+	}
+	
+	/**
+	 * Brings given cells of a word to life, updating the hash.
+	 */
+	private void set(int y, int k, long bits) {
+		int i = y * words + k;
+		long old = current[i];
+		long word = old | bits;
+		if (word != old) {
+			current[i] = word;
+			int column = (left >> 6) + k;
+			hash ^= Zobrist.word(column, top + y, old) 
+					^ Zobrist.word(column, top + y, word);
+		}
+	}
+	
+	/**
+	 * Brings a run of cells on a single row to life, a whole word at a
+	 * time. The board grows if the run does not fit.
+	 * 
+	 * @param x Coordinates of the leftmost cell of the run.
+	 * @param y Coordinates of the leftmost cell of the run.
+	 * @param length Number of cells in the run.
+	 */
+	public void setRun(int x, int y, int length) {
+		if (length <= 0) {
+			return;
+		}
+		// Grows the board to fit both ends.
+		setCell(x, y);
+		setCell(x + length - 1, y);
+		int from = x - left;
+		int to = from + length;
+		while (from < to) {
+			int bit = from & 63;
+			int count = Math.min(64 - bit, to - from);
+			long mask = count == 64 ? -1L : ((1L << count) - 1) << bit;
+			set(y - top, from >>> 6, mask);
+			from += count;
+		}
+	}
+	
+	/**
+	 * Brings cells of a row to life with at most two word writes. The 
+	 * board grows if the cells don't fit.
+	 */
+	@Override
+	public void setCells(int x, int y, long bits) {
+		if (bits == 0) {
+			return;
+		}
+		int low = Long.numberOfTrailingZeros(bits);
+		bits >>>= low;
+		x += low;
+		// Grows the board to fit both ends.
+		setCell(x, y);
+		setCell(x + 63 - Long.numberOfLeadingZeros(bits), y);
+		int from = x - left;
+		int k = from >>> 6;
+		int shift = from & 63;
+		set(y - top, k, bits << shift);
+		if (shift != 0 && bits >>> (64 - shift) != 0) {
+			set(y - top, k + 1, bits >>> (64 - shift));
+		}
+	}
+	
+	/**
+	 * @return true if cell at given coordinates is alive.
+	 */
+	public boolean get(int x, int y) {
+		long dx = (long) x - left;
+		long dy = (long) y - top;
+		if (dx < 0 || dy < 0 || dx >= width || dy >= height) {
+			return false;
+		}
+		return (current[(int) dy * words + (int) (dx >>> 6)] 
+				& (1L << (dx & 63))) != 0;
+	}
+	
+	@Override
+	public void setRule(Rule rule) {
+		this.rule = rule;
+	}
+	
+	@Override
+	public long getHash() {
+		return hash;
+	}
+	
+	@Override
+	public long getBirths() {
+		return births;
+	}
+	
+	@Override
+	public long getDeaths() {
+		return deaths;
+	}
+	
+	/**
+	 * Advances the board to the next generation.
+	 */
+	@Override
+	public void step() {
+		// Cells on the edge could give birth outside of the board.
+		growToEdges();
+		
+		births = 0;
+		deaths = 0;
+		if (workers == null) {
+			evolve(0, height);
+		} else {
+			workers.run(band, height);
+		}
+		
+		long[] old = current;
+		current = next;
+		next = old;
+	}
+	
+	/**
+	 * Grows the board on every side that has living cells right on the 
+	 * edge.
+	 */
+	private void growToEdges() {
+		long[] cur = current;
+		int last = (height - 1) * words;
+		long northEdge = 0, southEdge = 0, westEdge = 0, eastEdge = 0;
+		for (int k = 0; k < words; k++) {
+			northEdge |= cur[k];
+			southEdge |= cur[last + k];
+		}
+		long eastBit = 1L << ((width - 1) & 63);
+		for (int row = 0; row <= last; row += words) {
+			westEdge |= cur[row] & 1L;
+			eastEdge |= cur[row + words - 1] & eastBit;
+		}
+		if ((northEdge | southEdge | westEdge | eastEdge) != 0) {
+			grow(westEdge != 0 ? 1 : 0, northEdge != 0 ? 1 : 0,
+					eastEdge != 0 ? 1 : 0, southEdge != 0 ? 1 : 0);
+		}
+	}
+	
+	/**
+	 * Adds space around the board. Every side that needs growing gets at
+	 * least half of the current size, so growing is rare. Horizontal growth
+	 * goes in whole words, so that the rows can be copied without shifting.
+	 * 
+	 * @param west Words to add on the left side, at least.
+	 * @param north Rows to add on the top side, at least.
+	 * @param east Words to add on the right side, at least.
+	 * @param south Rows to add on the bottom side, at least.
+	 */
+	private void grow(int west, int north, int east, int south) {
+		int wordStep = Math.max(1, words / 2);
+		int rowStep = Math.max(MIN_GROWTH_ROWS, height / 2);
+		west = west > 0 ? Math.max(west, wordStep) : 0;
+		east = east > 0 ? Math.max(east, wordStep) : 0;
+		north = north > 0 ? Math.max(north, rowStep) : 0;
+		south = south > 0 ? Math.max(south, rowStep) : 0;
+		
+		int newWords = words + west + east;
+		int newHeight = height + north + south;
+		long[] bigger = new long[newWords * newHeight];
+		for (int y = 0; y < height; y++) {
+			System.arraycopy(current, y * words, bigger, 
+					(y + north) * newWords + west, words);
+		}
+		
+		Utils.debug(this, "Growing from %d x %d to %d x %d", width, height,
+				newWords << 6, newHeight);
+		
+		left -= west << 6;
+		top -= north;
+		words = newWords;
+		width = newWords << 6;
+		height = newHeight;
+		lastWordMask = -1L;
+		current = bigger;
+		next = new long[bigger.length];
+	}
+	
+	/**
+	 * Calculates the next generation of rows from (inclusive) to (exclusive).
+	 * Reads only {@link #current} and writes only given rows of 
+	 * {@link #next}, so bands can run in parallel. Words that change go 
+	 * into the hash, which does not depend on the order, and their births
+	 * and deaths get counted.
+	 */
+	private void evolve(int from, int to) {
+		final long[] cur = current;
+		final long[] out = next;
+		final int words = this.words;
+		final Rule rule = this.rule;
+		final int column = left >> 6;
+		long changes = 0;
+		long born = 0, died = 0;
+		
+		for (int y = from; y < to; y++) {
+			int row = y * words;
+			int above = row - words;
+			int below = row + words;
+			boolean hasAbove = y > 0;
+			boolean hasBelow = y < height - 1;
+			
+			for (int k = 0; k < words; k++) {
+				boolean hasPrev = k > 0;
+				boolean hasNext = k < words - 1;
+				
+				// Row above
+				long a = 0, aPrev = 0, aNext = 0;
+				if (hasAbove) {
+					a = cur[above + k];
+					aPrev = hasPrev ? cur[above + k - 1] : 0;
+					aNext = hasNext ? cur[above + k + 1] : 0;
+				}
+				
+				// Current row
+				long b = cur[row + k];
+				long bPrev = hasPrev ? cur[row + k - 1] : 0;
+				long bNext = hasNext ? cur[row + k + 1] : 0;
+				
+				// Row below
+				long c = 0, cPrev = 0, cNext = 0;
+				if (hasBelow) {
+					c = cur[below + k];
+					cPrev = hasPrev ? cur[below + k - 1] : 0;
+					cNext = hasNext ? cur[below + k + 1] : 0;
+				}
+				
+				long alive = evolve(rule, aPrev, a, aNext, bPrev, b, bNext, 
+						cPrev, c, cNext);
+				
+				if (!hasNext) {
+					alive &= lastWordMask;
+				}
+				out[row + k] = alive;
+				if (alive != b) {
+					changes ^= Zobrist.word(column + k, top + y, b)
+							^ Zobrist.word(column + k, top + y, alive);
+					born += Long.bitCount(alive & ~b);
+					died += Long.bitCount(b & ~alive);
+				}
+			}
+		}
+		
+		synchronized (band) {
+			hash ^= changes;
+			births += born;
+			deaths += died;
+		}
+	}
+	
+	/**
+	 * Calculates the next generation of a single word. Takes the word with
+	 * the words around it: a* is the row above, b* is the current row, c* 
+	 * is the row below, *Prev and *Next are the words to the west and east.
+	 */
+	static long evolve(Rule rule, long aPrev, long a, long aNext,
+			long bPrev, long b, long bNext, 
+			long cPrev, long c, long cNext) {
+		// Neighbors to the west (x - 1) and east (x + 1), aligned
+		// with the cell they belong to.
+		long aW = (a << 1) | (aPrev >>> 63);
+		long aE = (a >>> 1) | (aNext << 63);
+		long bW = (b << 1) | (bPrev >>> 63);
+		long bE = (b >>> 1) | (bNext << 63);
+		long cW = (c << 1) | (cPrev >>> 63);
+		long cE = (c >>> 1) | (cNext << 63);
+		
+		// Sum of the row above: aW + a + aE
+		long aOnes = aW ^ a ^ aE;
+		long aTwos = (aW & a) | (aE & (aW ^ a));
+		
+		// Sum of the row below: cW + c + cE
+		long cOnes = cW ^ c ^ cE;
+		long cTwos = (cW & c) | (cE & (cW ^ c));
+		
+		// Sum of the current row without the cell itself: bW + bE
+		long bOnes = bW ^ bE;
+		long bTwos = bW & bE;
+		
+		// Add up the ones
+		long ones = aOnes ^ bOnes ^ cOnes;
+		long onesCarry = (aOnes & bOnes) | (cOnes & (aOnes ^ bOnes));
+		
+		// Add up the twos, including the carry from ones
+		long twosSum = aTwos ^ bTwos ^ cTwos;
+		long twosCarry = (aTwos & bTwos) | (cTwos & (aTwos ^ bTwos));
+		long twos = twosSum ^ onesCarry;
+		long foursCarry = twosSum & onesCarry;
+		long fours = twosCarry ^ foursCarry;
+		long eights = twosCarry & foursCarry;
+		
+		return rule.apply(ones, twos, fours, eights, b);
+	}
+	
+	/**
+	 * Counts the living cells.
+	 */
+	@Override
+	public long getPopulation() {
+		long population = 0;
+		for (long word : current) {
+			population += Long.bitCount(word);
+		}
+		return population;
+	}
+	
+	@Override
+	public void visit(CellVisitor visitor) {
+		for (int y = 0; y < height; y++) {
+			for (int k = 0; k < words; k++) {
+				long word = current[y * words + k];
+				while (word != 0) {
+					int bit = Long.numberOfTrailingZeros(word);
+					visitor.visit(left + (k << 6) + bit, top + y);
+					word &= word - 1;
+				}
+			}
+		}
+	}
+	
+	@Override
+	public void clear() {
+		Arrays.fill(current, 0);
+		hash = 0;
+	}
+}
@@ -0,0 +1,46 @@
+package com.varaneckas.conway;
+
+/**
+ * Simulation engine - a way of storing the cells and calculating the next
+ * generation. Different engines are fast for different boards, so
+ * {@link Logic} can swap them on the fly with help of
+ * {@link EngineSelector}.
+ * 
+ * Engines are not thread safe, they are used from the main loop only.
+ * 
+ * @author Tomas Varaneckas
+ */
+public interface Engine {
+	
+	/**
+	 * Brings the cell at given coordinates to life.
+	 */
+	void setCell(int x, int y);
+	
+	/**
+	 * Advances to the next generation.
+	 */
+	void step();
+	
+	/**
+	 * Passes every living cell to given visitor.
+	 */
+	void visit(CellVisitor visitor);
+	
+	/**
+	 * @return Number of living cells.
+	 */
+	long getPopulation();
+	
+	/**
+	 * Kills all the cells.
+	 */
+	void clear();
+
+	/**
+	 * Changes the rule that the next steps follow. Engines start with
+	 * {@link Rule#CONWAY}.
+	 */
+	void setRule(Rule rule);
+
+}
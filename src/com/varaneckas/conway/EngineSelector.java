@@ -0,0 +1,159 @@
+package com.varaneckas.conway;
+
+/**
+ * Picks the cheapest {@link Engine} for the current board. Every engine
+ * type is modeled as "cost of a single unit", where unit is either a living
+ * cell or a cell of the board area (see {@link EngineType#scalesWithArea()}).
+ * 
+ * Unit cost of the running engine is measured on every tick, the other
+ * engines keep their last known cost (or a rough initial guess). When
+ * another engine is predicted to be considerably cheaper, it gets selected
+ * and {@link Logic} migrates the cells to it.
+ * 
+ * @author Tomas Varaneckas
+ */
+public class EngineSelector {
+	
+	/**
+	 * Ticks to wait after a switch before considering another one. Keeps the
+	 * engines from flip-flopping around the break-even point.
+	 */
+	private static final int COOLDOWN_TICKS = 25;
+	
+	/**
+	 * Another engine must be predicted to be at least this much cheaper
+	 * than the current one.
+	 */
+	private static final double HYSTERESIS = 0.6;
+	
+	/**
+	 * Weight of the latest measurement in the moving average of unit cost.
+	 */
+	private static final double SMOOTHING = 0.2;
+	
+	/**
+	 * {@link EngineType#values()} makes a copy on every call, this one 
+	 * doesn't.
+	 */
+	private static final EngineType[] TYPES = EngineType.values();
+	
+	/**
+	 * Nanoseconds per unit for each {@link EngineType}.
+	 */
+	private final double[] unitCost = new double[TYPES.length];
+	
+	/**
+	 * Engine type forced by user, or null for automatic selection.
+	 */
+	private volatile EngineType pinned;
+	
+	private int cooldown;
+	
+	/**
+	 * Population divided by area, as of the last tick.
+	 */
+	private volatile double density;
+	
+	public EngineSelector() {
+		// Initial guesses, refined as soon as engines run.
+		unitCost[EngineType.SPARSE.ordinal()] = 200;
+		unitCost[EngineType.DENSE.ordinal()] = 1;
+		unitCost[EngineType.TILED.ordinal()] = 100;
+		unitCost[EngineType.HASHLIFE.ordinal()] = 5000;
+		unitCost[EngineType.TORUS.ordinal()] = 1;
+		unitCost[EngineType.STATES.ordinal()] = 10;
+	}
+	
+	/**
+	 * Forces given engine type, or turns automatic selection back on.
+	 * 
+	 * @param pinned Engine type to use, null for automatic.
+	 */
+	public void setPinned(EngineType pinned) {
+		this.pinned = pinned;
+	}
+	
+	public EngineType getPinned() {
+		return pinned;
+	}
+	
+	public double getDensity() {
+		return density;
+	}
+	
+	/**
+	 * @return Known cost of a single unit for given engine, in nanoseconds.
+	 */
+	public double getUnitCost(EngineType type) {
+		return unitCost[type.ordinal()];
+	}
+	
+	/**
+	 * Records the cost of a single step.
+	 * 
+	 * @param type Engine type that did the step.
+	 * @param nanos Duration of the step.
+	 * @param population Living cells before the step.
+	 * @param area Area of the board in cells.
+	 */
+	public void record(EngineType type, long nanos, long population,
+			long area) {
+		long units = units(type, population, area);
+		double cost = (double) nanos / units;
+		int i = type.ordinal();
+		unitCost[i] = unitCost[i] * (1 - SMOOTHING) + cost * SMOOTHING;
+		density = area > 0 ? (double) population / area : 0;
+	}
+	
+	/**
+	 * Decides which engine should run the next step.
+	 * 
+	 * @param current Engine type that holds the cells now.
+	 * @param population Living cells.
+	 * @param area Area of the board in cells.
+	 * @return Engine type to use, current one if no switch is needed.
+	 */
+	public EngineType select(EngineType current, long population, long area) {
+		EngineType forced = pinned;
+		if (forced != null) {
+			return forced;
+		}
+		if (cooldown > 0) {
+			cooldown--;
+			if (current.isAutomatic()) {
+				return current;
+			}
+		}
+		
+		double currentCost = predict(current, population, area);
+		EngineType best = current.isAutomatic() ? current : null;
+		double bestCost = best == null ? Double.MAX_VALUE
+				: currentCost * HYSTERESIS;
+		for (EngineType type : TYPES) {
+			if (type == current || !type.isAutomatic()) {
+				continue;
+			}
+			double cost = predict(type, population, area);
+			if (cost < bestCost) {
+				best = type;
+				bestCost = cost;
+			}
+		}
+		
+		if (best != current) {
+			Utils.debug(this, "Switching %s -> %s, density %.4f, "
+					+ "predicted cost %.0f -> %.0f ns", current, best,
+					density, currentCost, bestCost);
+			cooldown = COOLDOWN_TICKS;
+		}
+		return best;
+	}
+	
+	private double predict(EngineType type, long population, long area) {
+		return unitCost[type.ordinal()] * units(type, population, area);
+	}
+	
+	private static long units(EngineType type, long population, long area) {
+		return Math.max(1, type.scalesWithArea() ? area : population);
+	}
+}
@@ -0,0 +1,108 @@
+package com.varaneckas.conway;
+
+/**
+ * Available {@link Engine} implementations. To plug in a new engine, add
+ * a constant here and tell {@link EngineSelector} what its cost depends on.
+ * 
+ * @author Tomas Varaneckas
+ */
+public enum EngineType {
+	
+	/**
+	 * {@link SparseEngine}, cost grows with population. Best for a few
+	 * scattered cells.
+	 */
+	SPARSE(true, false) {
+		@Override
+		public Engine create(GameContext context) {
+			return new SparseEngine();
+		}
+	},
+	
+	/**
+	 * {@link DenseGrid} covering the living cells, cost grows with area.
+	 * Best for boards that are filled with cells.
+	 */
+	DENSE(true, true) {
+		@Override
+		public Engine create(GameContext context) {
+			return new DenseGrid(context.getWorkers());
+		}
+	},
+	
+	/**
+	 * {@link TiledEngine}, cost grows with activity. Best for boards that
+	 * have mostly settled down. Cost is modeled per living cell, which is
+	 * low as long as most of them are stable.
+	 */
+	TILED(true, false) {
+		@Override
+		public Engine create(GameContext context) {
+			return new TiledEngine();
+		}
+	},
+	
+	/**
+	 * {@link HashLife}, best for far jumps. Single generation steps are
+	 * slow, so it is never picked automatically.
+	 */
+	HASHLIFE(false, false) {
+		@Override
+		public Engine create(GameContext context) {
+			return new HashLife();
+		}
+	},
+	
+	/**
+	 * {@link TorusGrid} of the size set with 
+	 * {@link Logic#setTorus(int, int)}. Used for as long as the world is a
+	 * torus, never picked otherwise.
+	 */
+	TORUS(false, true) {
+		@Override
+		public Engine create(GameContext context) {
+			Logic logic = context.getLogic();
+			return new TorusGrid(logic.getTorusWidth(),
+					logic.getTorusHeight(), context.getWorkers());
+		}
+	},
+	
+	/**
+	 * {@link StateGrid}, runs the rules set with
+	 * {@link Logic#setRule(StateRule)}. Used for as long as such a rule is
+	 * in effect, never picked otherwise.
+	 */
+	STATES(false, true) {
+		@Override
+		public Engine create(GameContext context) {
+			return new StateGrid(context.getWorkers());
+		}
+	};
+	
+	private final boolean automatic;
+	private final boolean scalesWithArea;
+	
+	private EngineType(boolean automatic, boolean scalesWithArea) {
+		this.automatic = automatic;
+		this.scalesWithArea = scalesWithArea;
+	}
+	
+	/**
+	 * Creates a new empty engine of this type.
+	 */
+	public abstract Engine create(GameContext context);
+	
+	/**
+	 * @return true if {@link EngineSelector} may pick this type on its own.
+	 */
+	public boolean isAutomatic() {
+		return automatic;
+	}
+	
+	/**
+	 * @return true if cost of a step depends on area rather than population.
+	 */
+	public boolean scalesWithArea() {
+		return scalesWithArea;
+	}
+}
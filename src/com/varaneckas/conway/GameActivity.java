@@ -1,7 +1,16 @@
 package com.varaneckas.conway;
 
+import java.io.File;
+import java.io.IOException;
+
 import android.app.Activity;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
 import android.os.Bundle;
+import android.util.Log;
 
 /**
  * This is the starting point where you should begin to analyze the code. Before
@@ -23,6 +32,44 @@ public class GameActivity extends Activity {
 	 */
 	private GameContext gameContext;
 	
+	/**
+	 * Battery level in percent below which warp mode backs off, unless the
+	 * device is plugged in.
+	 */
+	private static final int LOW_BATTERY = 15;
+	
+	/**
+	 * Battery temperature in tenths of a degree Celsius above which warp 
+	 * mode backs off.
+	 */
+	private static final int HOT_BATTERY = 450;
+	
+	/**
+	 * Name of the file in the private storage of the app that keeps the 
+	 * board while the game is in the background.
+	 * @see BoardFile
+	 */
+	private static final String BOARD_FILE = "board.bin";
+	
+	/**
+	 * Tells {@link WarpGovernor} when the device is low on battery or
+	 * running hot.
+	 */
+	private final BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+			int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+			int plugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+			int temperature = intent.getIntExtra(
+					BatteryManager.EXTRA_TEMPERATURE, 0);
+			boolean low = plugged == 0 && level >= 0 && scale > 0 
+					&& level * 100 / scale <= LOW_BATTERY;
+			gameContext.getGameLoop().getGovernor().setConstrained(
+					low || temperature >= HOT_BATTERY);
+		}
+	};
+	
     @Override
     public void onCreate(Bundle savedInstanceState) {
     	
@@ -36,6 +83,14 @@ public class GameActivity extends Activity {
         // Get the instance of GameContext when main activity gets created.
         gameContext = GameContext.getInstance();
         
+        // A fresh game context means that the process was killed, bring
+        // back the board that was saved when we were paused.
+        Logic logic = gameContext.getLogic();
+        File board = getBoardFile();
+        if (logic.getGeneration() == 0 && board.exists()) {
+        	logic.restoreBoard(board);
+        }
+        
         // Create the SurfaceView driven GameView where we will be 
         // drawing on
         GameView gameView = new GameView(this);
@@ -61,13 +116,46 @@ public class GameActivity extends Activity {
     protected void onPause() {
     	Utils.debug(this, "onPause()");
     	super.onPause();
+    	unregisterReceiver(batteryReceiver);
     	gameContext.setState(State.PAUSED);
+    	saveBoard();
+    }
+    
+    /**
+     * Saves the board on a background thread, as the process may be killed
+     * any time after the activity is paused.
+     */
+    private void saveBoard() {
+    	final Logic logic = gameContext.getLogic();
+    	if (logic.isRestoring()) {
+    		// The board in the file has not been brought back yet, saving
+    		// now would overwrite it with an empty one.
+    		return;
+    	}
+    	final File file = getBoardFile();
+    	new Thread(new Runnable() {
+    		@Override
+    		public void run() {
+    			try {
+    				logic.saveBoard(file);
+    			} catch (IOException e) {
+    				Log.e(GameActivity.class.getSimpleName(), 
+    						"Failed to save the board", e);
+    			}
+    		}
+    	}, "Saver").start();
+    }
+    
+    private File getBoardFile() {
+    	return new File(getFilesDir(), BOARD_FILE);
     }
     
     @Override
     protected void onResume() {
     	Utils.debug(this, "onResume()");
     	super.onResume();
+    	registerReceiver(batteryReceiver, 
+    			new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
     	gameContext.setState(State.RUNNING);
     }
 }
\ No newline at end of file
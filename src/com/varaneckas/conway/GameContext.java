@@ -23,7 +23,7 @@ public class GameContext {
 	/**
 	 * The game state. {@link MainLoop} switches it's logic according to it. 
 	 */
-	private State state;
+	private volatile State state;
 	
 	/**
 	 * The main game loop. See it's documentation for more details.
@@ -46,13 +46,28 @@ public class GameContext {
 	 */
 	private final Input input;
 	
+	/**
+	 * Threads that share the heavy calculations between processor cores.
+	 */
+	private final Workers workers;
+	
+	/**
+	 * Timings of the main loop and counters of the board.
+	 */
+	private final Metrics metrics;
+	
 	/**
 	 * Private constructor - use {@link #create()} to get the game context.
+	 * 
+	 * @param screen false to leave out {@link Video} and {@link MainLoop},
+	 * which need Android.
 	 */
-	private GameContext() {
+	private GameContext(boolean screen) {
 		state = State.RUNNING;
-		video = new Video(this);
-		gameLoop = new MainLoop(this);
+		workers = new Workers();
+		metrics = new Metrics();
+		video = screen ? new Video(this) : null;
+		gameLoop = screen ? new MainLoop(this) : null;
 		logic = new Logic(this);
 		input = new Input();
 	}
@@ -65,10 +80,19 @@ public class GameContext {
 	 */
 	public static GameContext getInstance() {
 		if (instance == null) {
-			instance = new GameContext();
+			instance = new GameContext(true);
 		}
 		return instance;
 	}
+	
+	/**
+	 * Creates a context of its own with {@link Logic} and {@link Input}, but
+	 * without {@link Video} and {@link MainLoop}, so that the logic can be
+	 * ticked on a plain JVM, i.e. by the benchmarks in bench/.
+	 */
+	static GameContext createHeadless() {
+		return new GameContext(false);
+	}
 
 	/**
 	 * Changes the game state. Becomes effective in next main loop cycle.
@@ -100,4 +124,12 @@ public class GameContext {
 	public Input getInput() {
 		return input;
 	}
+	
+	public Workers getWorkers() {
+		return workers;
+	}
+	
+	public Metrics getMetrics() {
+		return metrics;
+	}
 }
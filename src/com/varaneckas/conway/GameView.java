@@ -33,6 +33,19 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
 	 */
 	private Video video;
 	
+	/**
+	 * True while two or more fingers move the {@link Viewport}. Drawing
+	 * stays off until all fingers are released.
+	 */
+	private boolean gesture;
+	
+	/**
+	 * Center of the fingers, distance between them and their number, as of
+	 * the previous gesture event.
+	 */
+	private float gestureX, gestureY, gestureSpan;
+	private int gesturePointers;
+	
 	public GameView(Context context) {
 		super(context);
 		
@@ -48,22 +61,84 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
 	
 	@Override
 	public boolean onTouchEvent(MotionEvent event) {
+		int action = event.getAction() & MotionEvent.ACTION_MASK;
 		
-		// While finger is down on screen, we will gather input
-		if (event.getAction() != MotionEvent.ACTION_UP) {
-			// Adjust event coordinates according to our scale.
-			gameContext.getInput().addTouch(
-					event.getX() / Video.SCALE,  
-					event.getY() / Video.SCALE, 
-					event.getPressure());
+		// Second finger turns drawing into moving the viewport.
+		if (action == MotionEvent.ACTION_POINTER_DOWN || gesture) {
+			return onGesture(event, action);
+		}
+		
+		// While finger is down on screen, we will gather input. Fast moves
+		// come batched, the positions in between are in the history of
+		// the event.
+		Input input = gameContext.getInput();
+		Viewport viewport = video.getViewport();
+		for (int i = 0; i < event.getHistorySize(); i++) {
+			// Adjust event coordinates according to our viewport.
+			input.addTouch(viewport.toCellX(event.getHistoricalX(i)), 
+					viewport.toCellY(event.getHistoricalY(i)));
+		}
+		if (action != MotionEvent.ACTION_UP) {
+			input.addTouch(viewport.toCellX(event.getX()), 
+					viewport.toCellY(event.getY()));
 		} else {
 			// When finger is released, input will be flushed into Logic.
-			gameContext.getInput().flush();
+			input.flush();
 		}
 		
 		return true;
 	}
 	
+	/**
+	 * Pans the viewport with the center of the fingers and zooms it with
+	 * the distance between them.
+	 */
+	private boolean onGesture(MotionEvent event, int action) {
+		if (action == MotionEvent.ACTION_UP 
+				|| action == MotionEvent.ACTION_CANCEL) {
+			gesture = false;
+			return true;
+		}
+		
+		int pointers = event.getPointerCount();
+		if (action == MotionEvent.ACTION_POINTER_UP) {
+			// Start over with the fingers that are left, but without the one
+			// that is going up.
+			pointers = 0;
+		}
+		float x = 0, y = 0;
+		for (int i = 0; i < pointers; i++) {
+			x += event.getX(i);
+			y += event.getY(i);
+		}
+		if (pointers > 0) {
+			x /= pointers;
+			y /= pointers;
+		}
+		float span = pointers > 1 ? (float) Math.hypot(
+				event.getX(0) - event.getX(1), 
+				event.getY(0) - event.getY(1)) : 0;
+		
+		if (!gesture) {
+			// Whatever the first finger has drawn was not meant to be drawn.
+			gameContext.getInput().discard();
+			gesture = true;
+		} else if (action == MotionEvent.ACTION_MOVE 
+				&& pointers == gesturePointers) {
+			Viewport viewport = video.getViewport();
+			viewport.pan(x - gestureX, y - gestureY);
+			if (span > 0 && gestureSpan > 0) {
+				viewport.zoom(span / gestureSpan, x, y);
+			}
+		}
+		
+		gestureX = x;
+		gestureY = y;
+		gestureSpan = span;
+		gesturePointers = pointers;
+		return true;
+	}
+	
 	/**
 	 * The view will need game context to pass itself to video renderer, 
 	 * register new input events and start the main loop when canvas are ready.
@@ -95,6 +170,9 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
 	public void surfaceCreated(SurfaceHolder holder) {
 		Utils.debug(this, "Surface created");
 		
+		// Whatever was drawn on the old surface is gone.
+		video.invalidate();
+		
 		if (!gameRunning) {
 			// At this point we can start drawing on our GameView, so let's 
 			// start the main loop.
@@ -0,0 +1,889 @@
+package com.varaneckas.conway;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bill Gosper's HashLife algorithm. The universe is a quadtree where equal
+ * subtrees are shared: every {@link Node} is created through
+ * {@link #node(Node, Node, Node, Node)} which looks it up in a hash table
+ * first, so the same square of cells always ends up as the same object.
+ * 
+ * Because nodes are canonical, the future of a node can be calculated once
+ * and remembered in the node itself. Repeating patterns (guns, breeders,
+ * oscillators) are made of the same nodes over and over again, which lets
+ * this algorithm advance such patterns by billions of generations in a
+ * fraction of a second.
+ * 
+ * The node cache is bounded by {@link #maxNodes}, or by twice the nodes
+ * that survived the last collection if that is more. When it gets full,
+ * nodes that are not reachable from the current universe are dropped and
+ * all the remembered results are forgotten. A single step can fill the 
+ * cache too, so it is checked while the step runs: a step that fills it is
+ * abandoned, and done again as two steps half as long after a collection.
+ * 
+ * The universe is unbounded, coordinates may be negative.
+ * 
+ * More reading: http://www.drdobbs.com/jvm/an-algorithm-for-compressing-space-and-t/184406478
+ * 
+ * @author Tomas Varaneckas
+ * @see EngineType#HASHLIFE
+ */
+public class HashLife implements Engine {
+	
+	/**
+	 * Square of 2^level x 2^level cells. Level 0 nodes are single cells.
+	 */
+	static final class Node {
+		final Node nw, ne, sw, se;
+		final int level;
+		final long population;
+		final int hash;
+		
+		/**
+		 * Next node in the same hash table bucket.
+		 */
+		Node chain;
+		
+		/**
+		 * Remembered center of this node, advanced by 2^{@link #resultLog}
+		 * generations.
+		 */
+		Node result;
+		int resultLog;
+		
+		/**
+		 * Garbage collection mark.
+		 */
+		int mark;
+		
+		/** Leaf constructor. */
+		Node(boolean alive) {
+			nw = ne = sw = se = null;
+			level = 0;
+			population = alive ? 1 : 0;
+			hash = alive ? 1 : 0;
+		}
+		
+		Node(Node nw, Node ne, Node sw, Node se, int hash) {
+			this.nw = nw;
+			this.ne = ne;
+			this.sw = sw;
+			this.se = se;
+			this.level = nw.level + 1;
+			this.population = nw.population + ne.population
+					+ sw.population + se.population;
+			this.hash = hash;
+		}
+	}
+	
+	/**
+	 * Default limit of nodes kept in cache. A node takes about 60 bytes, so
+	 * this caps the cache at around 60 MB.
+	 */
+	public static final int DEFAULT_MAX_NODES = 1000000;
+	
+	/**
+	 * Longest jump of {@link #advance(long)}. Cells set with 
+	 * <code>int</code> coordinates can't get far enough in that many
+	 * generations for the universe to outgrow {@link #MAX_LEVEL}.
+	 */
+	public static final long MAX_GENERATIONS = 1L << 56;
+	
+	private static final int MAX_LOG = 56;
+	
+	/**
+	 * Deepest universe whose coordinates still fit into a <code>long</code>.
+	 */
+	static final int MAX_LEVEL = 62;
+	
+	/**
+	 * Thrown from {@link HashLife#node(Node, Node, Node, Node)} when a step
+	 * fills the cache. There's one instance without a stack trace, as it's
+	 * thrown when memory is short.
+	 */
+	private static final class CacheFull extends RuntimeException {
+		
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		public Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+	
+	private static final CacheFull CACHE_FULL = new CacheFull();
+	
+	private static final Node DEAD = new Node(false);
+	private static final Node ALIVE = new Node(true);
+	
+	/**
+	 * Hash table of canonical nodes.
+	 */
+	private Node[] table = new Node[1 << 16];
+	
+	/**
+	 * Number of nodes in {@link #table}.
+	 */
+	private int size;
+	
+	/**
+	 * When {@link #size} goes over this, {@link #collectGarbage()} runs.
+	 */
+	private final int maxNodes;
+	
+	/**
+	 * Nodes that survived the last {@link #collectGarbage()}. The cache is
+	 * not collected again until it has doubled, or a universe that fills
+	 * most of it would be collected over and over for nothing.
+	 */
+	private int liveNodes;
+	
+	/**
+	 * {@link #size} that abandons the running {@link #step(int)}, or
+	 * {@link Integer#MAX_VALUE} outside of a step.
+	 */
+	private int stepLimit = Integer.MAX_VALUE;
+	
+	/**
+	 * Empty nodes by level.
+	 */
+	private final List<Node> empty = new ArrayList<Node>();
+	
+	/**
+	 * The universe. Covers coordinates from -2^(level-1) to 2^(level-1) on
+	 * both axes.
+	 */
+	private Node root;
+	
+	/**
+	 * Generations this universe has been advanced by.
+	 */
+	private long generation;
+	
+	private int markEpoch;
+	
+	private Rule rule = Rule.CONWAY;
+	
+	public HashLife() {
+		this(DEFAULT_MAX_NODES);
+	}
+	
+	public HashLife(int maxNodes) {
+		this.maxNodes = maxNodes;
+		empty.add(DEAD);
+		root = empty(3);
+	}
+	
+	public long getGeneration() {
+		return generation;
+	}
+	
+	@Override
+	public long getPopulation() {
+		return root.population;
+	}
+	
+	/**
+	 * @return Number of nodes currently held in cache.
+	 */
+	public int getCacheSize() {
+		return size;
+	}
+	
+	/**
+	 * Finds the smallest rectangle that holds all the living cells. Only
+	 * nodes with living cells are entered, so this takes about as long as
+	 * visiting the cells, however far apart they are.
+	 * 
+	 * @return Left, top, right and bottom coordinates of the rectangle,
+	 * inclusive, or null if there are no living cells.
+	 */
+	public long[] getBounds() {
+		return getBounds(root);
+	}
+	
+	/**
+	 * @return Bounds of the cells of given universe, as in
+	 * {@link #getBounds()}.
+	 */
+	static long[] getBounds(Node root) {
+		if (root.population == 0) {
+			return null;
+		}
+		long half = half(root);
+		return new long[] {
+				-half + edge(root, WEST),
+				-half + edge(root, NORTH),
+				half - 1 - edge(root, EAST),
+				half - 1 - edge(root, SOUTH) };
+	}
+	
+	/**
+	 * Brings the cell at given coordinates to life. Every call leaves a 
+	 * path of replaced nodes behind, so the cache is collected when it gets
+	 * full, i.e. while a large pattern is being loaded.
+	 */
+	@Override
+	public void setCell(int x, int y) {
+		collectIfFull();
+		while (!contains(root, x, y)) {
+			expandRoot();
+		}
+		long half = half(root);
+		root = set(root, x + half, y + half);
+	}
+	
+	/**
+	 * @return true if the cell at given coordinates is alive.
+	 */
+	public boolean get(int x, int y) {
+		if (!contains(root, x, y)) {
+			return false;
+		}
+		long half = half(root);
+		long cx = x + half;
+		long cy = y + half;
+		Node node = root;
+		while (node.level > 0 && node.population > 0) {
+			long quarter = half(node);
+			boolean east = cx >= quarter;
+			boolean south = cy >= quarter;
+			if (east) {
+				cx -= quarter;
+			}
+			if (south) {
+				cy -= quarter;
+			}
+			node = south ? (east ? node.se : node.sw)
+					: (east ? node.ne : node.nw);
+		}
+		return node == ALIVE;
+	}
+	
+	/**
+	 * Changes the rule. Remembered results were calculated with the old 
+	 * one, so they are all forgotten, but the nodes are kept.
+	 */
+	@Override
+	public void setRule(Rule rule) {
+		if (rule.equals(this.rule)) {
+			return;
+		}
+		this.rule = rule;
+		for (Node node : table) {
+			for (; node != null; node = node.chain) {
+				node.result = null;
+			}
+		}
+	}
+	
+	/**
+	 * Advances the universe by a single generation.
+	 */
+	@Override
+	public void step() {
+		advance(1);
+	}
+	
+	/**
+	 * Advances the universe to given generation. Going back in time is not
+	 * possible.
+	 * 
+	 * @param target Generation to jump to.
+	 */
+	public void jumpTo(long target) {
+		if (target < generation) {
+			throw new IllegalArgumentException("Can't jump back from "
+					+ generation + " to " + target);
+		}
+		advance(target - generation);
+	}
+	
+	/**
+	 * Advances the universe by given amount of generations. The amount is
+	 * split into powers of two, and each of them is a single memoized
+	 * {@link #step(int)}.
+	 * 
+	 * @param generations From 0 to {@link #MAX_GENERATIONS}.
+	 */
+	public void advance(long generations) {
+		if (generations < 0 || generations > MAX_GENERATIONS) {
+			throw new IllegalArgumentException("Can't advance by " 
+					+ generations + " generations");
+		}
+		for (int log = 0; generations != 0; log++, generations >>>= 1) {
+			if ((generations & 1) != 0) {
+				step(log);
+			}
+		}
+	}
+	
+	/**
+	 * Advances the universe by 2^log generations in one go.
+	 */
+	public void step(int log) {
+		if (log < 0 || log > MAX_LOG) {
+			throw new IllegalArgumentException("Can't advance by 2^" + log
+					+ " generations");
+		}
+		collectIfFull();
+		while (root.level < log + 3 || !isPadded(root)) {
+			expandRoot();
+		}
+		// Single generations can't be split, they run to the end.
+		stepLimit = log == 0 ? Integer.MAX_VALUE
+				: (int) Math.min(Integer.MAX_VALUE,
+						Math.max(maxNodes, 2L * liveNodes));
+		try {
+			// Successor is half the size, pad it back so it keeps the center.
+			root = expand(successor(root, log));
+		} catch (CacheFull e) {
+			Utils.debug(this, "Node cache filled up by a step of 2^%d, "
+					+ "splitting it", log);
+			collectGarbage();
+			step(log - 1);
+			step(log - 1);
+			return;
+		} finally {
+			stepLimit = Integer.MAX_VALUE;
+		}
+		generation += 1L << log;
+	}
+	
+	/**
+	 * Visits all the living cells that fit into <code>int</code>
+	 * coordinates.
+	 */
+	@Override
+	public void visit(CellVisitor visitor) {
+		visit(visitor, Integer.MIN_VALUE, Integer.MIN_VALUE,
+				1L << 32, 1L << 32);
+	}
+	
+	/**
+	 * Visits living cells that fall into given rectangle.
+	 */
+	public void visit(CellVisitor visitor,
+			long left, long top, long width, long height) {
+		long half = half(root);
+		visit(root, -half, -half,
+				left, top, left + width, top + height, visitor);
+	}
+	
+	/**
+	 * Visits living cells of given universe, centered on 0,0 the way 
+	 * {@link #getRoot()} is.
+	 */
+	static void visit(Node root, CellVisitor visitor) {
+		long half = half(root);
+		visit(root, -half, -half, Integer.MIN_VALUE, Integer.MIN_VALUE,
+				1L << 31, 1L << 31, visitor);
+	}
+	
+	/**
+	 * Drops all the cells. Node cache is kept, so remembered results can be
+	 * reused by the next pattern.
+	 */
+	@Override
+	public void clear() {
+		root = empty(3);
+		generation = 0;
+	}
+	
+	/* Building blocks for loading macrocell patterns, see PatternLoader. */
+	
+	/**
+	 * @return Canonical node of 8 x 8 cells. Bit y * 8 + x of given bits 
+	 * tells whether the cell at x,y is alive.
+	 */
+	Node leaf(long bits) {
+		return square(bits, 0, 0, 3);
+	}
+	
+	private Node square(long bits, int x, int y, int level) {
+		if (level == 0) {
+			return ((bits >>> (y * 8 + x)) & 1) != 0 ? ALIVE : DEAD;
+		}
+		int half = 1 << (level - 1);
+		return node(square(bits, x, y, level - 1),
+				square(bits, x + half, y, level - 1),
+				square(bits, x, y + half, level - 1),
+				square(bits, x + half, y + half, level - 1));
+	}
+	
+	/**
+	 * @return Canonical node with given children, which must all be of the
+	 * same level.
+	 */
+	Node branch(Node nw, Node ne, Node sw, Node se) {
+		if (nw.level != ne.level || nw.level != sw.level 
+				|| nw.level != se.level) {
+			throw new IllegalArgumentException("Children of different levels");
+		}
+		return node(nw, ne, sw, se);
+	}
+	
+	/**
+	 * @return Empty node of given level.
+	 */
+	Node emptyNode(int level) {
+		return empty(level);
+	}
+	
+	/**
+	 * Replaces the 8 x 8 square with given top left corner with a leaf.
+	 * Much faster than setting the cells one by one, as the path to the
+	 * square is only rebuilt once.
+	 * 
+	 * @param x Coordinates of the top left cell, a multiple of 8.
+	 * @param y Coordinates of the top left cell, a multiple of 8.
+	 * @param bits Cells of the square, as in {@link #leaf(long)}. The leaf
+	 * is built after the cache is collected, so that it is not dropped.
+	 */
+	void setLeaf(int x, int y, long bits) {
+		collectIfFull();
+		Node leaf = leaf(bits);
+		while (root.level < 4 || !contains(root, x, y)) {
+			expandRoot();
+		}
+		long half = half(root);
+		root = put(root, x + half, y + half, leaf);
+	}
+	
+	/**
+	 * Returns a copy of the node with given child of a lower level at given 
+	 * coordinates, relative to the top left corner of the node.
+	 */
+	private Node put(Node node, long x, long y, Node child) {
+		if (node.level == child.level) {
+			return child;
+		}
+		long half = half(node);
+		boolean east = x >= half;
+		boolean south = y >= half;
+		long qx = east ? x - half : x;
+		long qy = south ? y - half : y;
+		if (south) {
+			if (east) {
+				return node(node.nw, node.ne, node.sw, 
+						put(node.se, qx, qy, child));
+			}
+			return node(node.nw, node.ne, put(node.sw, qx, qy, child), 
+					node.se);
+		}
+		if (east) {
+			return node(node.nw, put(node.ne, qx, qy, child), node.sw, 
+					node.se);
+		}
+		return node(put(node.nw, qx, qy, child), node.ne, node.sw, node.se);
+	}
+	
+	/**
+	 * Replaces the universe with given node, centered on 0,0, and resets
+	 * the generation.
+	 */
+	/**
+	 * @return The universe as it is now. Nodes never change, so it can be
+	 * read on any thread, see {@link #visit(Node, CellVisitor)}.
+	 */
+	Node getRoot() {
+		return root;
+	}
+	
+	void setRoot(Node root) {
+		if (root.level < 3) {
+			throw new IllegalArgumentException("Root is too small");
+		}
+		this.root = root;
+		generation = 0;
+	}
+	
+	/**
+	 * Runs {@link #collectGarbage()} if the cache has outgrown both 
+	 * {@link #maxNodes} and twice the nodes left by the last collection.
+	 */
+	private void collectIfFull() {
+		if (size > Math.max(maxNodes, 2L * liveNodes)) {
+			collectGarbage();
+		}
+	}
+	
+	/**
+	 * Drops all the nodes that are not part of current universe and forgets
+	 * all remembered results, so that they can be garbage collected.
+	 */
+	public void collectGarbage() {
+		int before = size;
+		int epoch = ++markEpoch;
+		mark(root, epoch);
+		for (Node node : empty) {
+			mark(node, epoch);
+		}
+		
+		Node[] old = table;
+		table = new Node[old.length];
+		size = 0;
+		for (Node bucket : old) {
+			Node node = bucket;
+			while (node != null) {
+				Node next = node.chain;
+				node.result = null;
+				if (node.mark == epoch) {
+					int index = node.hash & (table.length - 1);
+					node.chain = table[index];
+					table[index] = node;
+					size++;
+				}
+				node = next;
+			}
+		}
+		liveNodes = size;
+		Utils.debug(this, "Node cache collected: %d -> %d", before, size);
+	}
+	
+	private void mark(Node node, int epoch) {
+		if (node.level == 0 || node.mark == epoch) {
+			return;
+		}
+		node.mark = epoch;
+		mark(node.nw, epoch);
+		mark(node.ne, epoch);
+		mark(node.sw, epoch);
+		mark(node.se, epoch);
+	}
+	
+	/**
+	 * Returns the canonical node with given children.
+	 */
+	private Node node(Node nw, Node ne, Node sw, Node se) {
+		int hash = hash(nw, ne, sw, se);
+		int index = hash & (table.length - 1);
+		for (Node node = table[index]; node != null; node = node.chain) {
+			if (node.nw == nw && node.ne == ne
+					&& node.sw == sw && node.se == se) {
+				return node;
+			}
+		}
+		Node node = new Node(nw, ne, sw, se, hash);
+		node.chain = table[index];
+		table[index] = node;
+		if (++size > table.length * 3 / 4) {
+			grow();
+		}
+		if (size > stepLimit) {
+			throw CACHE_FULL;
+		}
+		return node;
+	}
+	
+	private static int hash(Node nw, Node ne, Node sw, Node se) {
+		int hash = nw.hash;
+		hash = hash * 31 + ne.hash;
+		hash = hash * 31 + sw.hash;
+		hash = hash * 31 + se.hash;
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+	
+	private void grow() {
+		Node[] old = table;
+		table = new Node[old.length * 2];
+		for (Node bucket : old) {
+			Node node = bucket;
+			while (node != null) {
+				Node next = node.chain;
+				int index = node.hash & (table.length - 1);
+				node.chain = table[index];
+				table[index] = node;
+				node = next;
+			}
+		}
+	}
+	
+	private Node empty(int level) {
+		while (empty.size() <= level) {
+			Node e = empty.get(empty.size() - 1);
+			empty.add(node(e, e, e, e));
+		}
+		return empty.get(level);
+	}
+	
+	/**
+	 * Doubles the size of the universe. Only the root is replaced, so the 
+	 * universe stays intact if it is too large already.
+	 * 
+	 * @throws IllegalStateException if the universe would outgrow
+	 * {@link #MAX_LEVEL}.
+	 */
+	private void expandRoot() {
+		if (root.level >= MAX_LEVEL) {
+			throw new IllegalStateException("Universe is too large");
+		}
+		root = expand(root);
+	}
+	
+	/**
+	 * Wraps the node into an empty border, doubling its size but keeping it
+	 * centered.
+	 */
+	private Node expand(Node node) {
+		Node e = empty(node.level - 1);
+		return node(
+				node(e, e, e, node.nw),
+				node(e, e, node.ne, e),
+				node(e, node.sw, e, e),
+				node(node.se, e, e, e));
+	}
+	
+	/**
+	 * Checks if all the cells are in the central quarter of the node, so that
+	 * whatever happens during 2^(level-3) generations stays in the result.
+	 */
+	private static boolean isPadded(Node node) {
+		return node.nw.population == node.nw.se.se.population
+				&& node.ne.population == node.ne.sw.sw.population
+				&& node.sw.population == node.sw.ne.ne.population
+				&& node.se.population == node.se.nw.nw.population;
+	}
+	
+	private static long half(Node node) {
+		return 1L << (node.level - 1);
+	}
+	
+	/* Sides of a node, see edge(Node, int). */
+	private static final int WEST = 0;
+	private static final int EAST = 1;
+	private static final int NORTH = 2;
+	private static final int SOUTH = 3;
+	
+	/**
+	 * @return Distance from given side of the node to the closest living
+	 * cell, or -1 if the node is empty.
+	 */
+	private static long edge(Node node, int side) {
+		if (node.population == 0) {
+			return -1;
+		}
+		if (node.level == 0) {
+			return 0;
+		}
+		Node near1, near2, far1, far2;
+		switch (side) {
+		case WEST:
+			near1 = node.nw;
+			near2 = node.sw;
+			far1 = node.ne;
+			far2 = node.se;
+			break;
+		case EAST:
+			near1 = node.ne;
+			near2 = node.se;
+			far1 = node.nw;
+			far2 = node.sw;
+			break;
+		case NORTH:
+			near1 = node.nw;
+			near2 = node.ne;
+			far1 = node.sw;
+			far2 = node.se;
+			break;
+		default:
+			near1 = node.sw;
+			near2 = node.se;
+			far1 = node.nw;
+			far2 = node.ne;
+			break;
+		}
+		long near = closer(edge(near1, side), edge(near2, side));
+		if (near >= 0) {
+			return near;
+		}
+		return half(node) + closer(edge(far1, side), edge(far2, side));
+	}
+	
+	/**
+	 * @return The smaller of two distances, where -1 means none.
+	 */
+	private static long closer(long a, long b) {
+		if (a < 0) {
+			return b;
+		}
+		if (b < 0) {
+			return a;
+		}
+		return Math.min(a, b);
+	}
+	
+	private static boolean contains(Node root, int x, int y) {
+		long half = half(root);
+		return x >= -half && x < half && y >= -half && y < half;
+	}
+	
+	/**
+	 * Returns a copy of the node with the cell at given coordinates alive.
+	 * Coordinates are relative to the top left corner of the node.
+	 */
+	private Node set(Node node, long x, long y) {
+		if (node.level == 0) {
+			return ALIVE;
+		}
+		long half = half(node);
+		boolean east = x >= half;
+		boolean south = y >= half;
+		long qx = east ? x - half : x;
+		long qy = south ? y - half : y;
+		if (south) {
+			if (east) {
+				return node(node.nw, node.ne, node.sw, set(node.se, qx, qy));
+			}
+			return node(node.nw, node.ne, set(node.sw, qx, qy), node.se);
+		}
+		if (east) {
+			return node(node.nw, set(node.ne, qx, qy), node.sw, node.se);
+		}
+		return node(set(node.nw, qx, qy), node.ne, node.sw, node.se);
+	}
+	
+	/**
+	 * Visits living cells of given node. Only the cells within the
+	 * [left, right) x [top, bottom) rectangle are visited.
+	 */
+	private static void visit(Node node, long x, long y,
+			long left, long top, long right, long bottom,
+			CellVisitor visitor) {
+		if (node.population == 0) {
+			return;
+		}
+		long size = 1L << node.level;
+		if (x >= right || y >= bottom || x + size <= left || y + size <= top) {
+			return;
+		}
+		if (node.level == 0) {
+			visitor.visit((int) x, (int) y);
+			return;
+		}
+		long half = size / 2;
+		visit(node.nw, x, y, left, top, right, bottom, visitor);
+		visit(node.ne, x + half, y, left, top, right, bottom, visitor);
+		visit(node.sw, x, y + half, left, top, right, bottom, visitor);
+		visit(node.se, x + half, y + half, left, top, right, bottom, visitor);
+	}
+	
+	/**
+	 * The heart of HashLife. Returns the center of the node (half of its
+	 * size) advanced by 2^log generations, where log is at most level - 2.
+	 */
+	private Node successor(Node node, int log) {
+		if (node.population == 0) {
+			return empty(node.level - 1);
+		}
+		if (node.result != null && node.resultLog == log) {
+			return node.result;
+		}
+		
+		Node result;
+		if (node.level == 2) {
+			result = slowStep(node);
+		} else {
+			// Nine overlapping sub-squares, each half the size of the node.
+			Node n00 = node.nw;
+			Node n01 = centerHorizontal(node.nw, node.ne);
+			Node n02 = node.ne;
+			Node n10 = centerVertical(node.nw, node.sw);
+			Node n11 = center(node);
+			Node n12 = centerVertical(node.ne, node.se);
+			Node n20 = node.sw;
+			Node n21 = centerHorizontal(node.sw, node.se);
+			Node n22 = node.se;
+			
+			// Jump length of the second half.
+			int half = log;
+			if (log == node.level - 2) {
+				// Full speed: both halves of the jump are done recursively.
+				half = log - 1;
+				n00 = successor(n00, log - 1);
+				n01 = successor(n01, log - 1);
+				n02 = successor(n02, log - 1);
+				n10 = successor(n10, log - 1);
+				n11 = successor(n11, log - 1);
+				n12 = successor(n12, log - 1);
+				n20 = successor(n20, log - 1);
+				n21 = successor(n21, log - 1);
+				n22 = successor(n22, log - 1);
+			} else {
+				// Smaller jump: first half only takes the centers, all the
+				// time is spent in the second half.
+				n00 = center(n00);
+				n01 = center(n01);
+				n02 = center(n02);
+				n10 = center(n10);
+				n11 = center(n11);
+				n12 = center(n12);
+				n20 = center(n20);
+				n21 = center(n21);
+				n22 = center(n22);
+			}
+			
+			result = node(
+					successor(node(n00, n01, n10, n11), half),
+					successor(node(n01, n02, n11, n12), half),
+					successor(node(n10, n11, n20, n21), half),
+					successor(node(n11, n12, n21, n22), half));
+		}
+		
+		node.result = result;
+		node.resultLog = log;
+		return result;
+	}
+	
+	private Node center(Node node) {
+		return node(node.nw.se, node.ne.sw, node.sw.ne, node.se.nw);
+	}
+	
+	private Node centerHorizontal(Node west, Node east) {
+		return node(west.ne, east.nw, west.se, east.sw);
+	}
+	
+	private Node centerVertical(Node north, Node south) {
+		return node(north.sw, north.se, south.nw, south.ne);
+	}
+	
+	/**
+	 * Calculates one generation of the center 2x2 cells of a 4x4 node by
+	 * counting the neighbors.
+	 */
+	private Node slowStep(Node node) {
+		int bits = 0;
+		for (int y = 0; y < 4; y++) {
+			for (int x = 0; x < 4; x++) {
+				Node quadrant = y < 2
+						? (x < 2 ? node.nw : node.ne)
+						: (x < 2 ? node.sw : node.se);
+				int qx = x & 1, qy = y & 1;
+				Node cell = qy == 0
+						? (qx == 0 ? quadrant.nw : quadrant.ne)
+						: (qx == 0 ? quadrant.sw : quadrant.se);
+				if (cell == ALIVE) {
+					bits |= 1 << (y * 4 + x);
+				}
+			}
+		}
+		return node(
+				nextCell(bits, 1, 1), nextCell(bits, 2, 1),
+				nextCell(bits, 1, 2), nextCell(bits, 2, 2));
+	}
+	
+	private Node nextCell(int bits, int x, int y) {
+		int neighbors = 0;
+		for (int j = y - 1; j <= y + 1; j++) {
+			for (int i = x - 1; i <= x + 1; i++) {
+				if ((i != x || j != y) && (bits & (1 << (j * 4 + i))) != 0) {
+					neighbors++;
+				}
+			}
+		}
+		boolean alive = (bits & (1 << (y * 4 + x))) != 0;
+		return rule.next(alive, neighbors) ? ALIVE : DEAD;
+	}
+}
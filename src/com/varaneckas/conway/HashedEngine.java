@@ -0,0 +1,20 @@
+package com.varaneckas.conway;
+
+/**
+ * {@link Engine} that keeps a {@link Zobrist} hash of its cells up to date
+ * as they are born and die, so that {@link CycleDetector} gets it for free
+ * after every step. Engines that don't implement this are hashed by
+ * visiting all their cells.
+ * 
+ * @author Tomas Varaneckas
+ * @see Logic#setCycleAction(CycleAction)
+ */
+public interface HashedEngine extends Engine {
+	
+	/**
+	 * @return Hash of the living cells. Equal boards of the same engine
+	 * type have equal hashes, wherever the engine has been.
+	 */
+	long getHash();
+
+}
@@ -0,0 +1,376 @@
+package com.varaneckas.conway;
+
+import java.util.Arrays;
+
+/**
+ * Recent generations of the board, for stepping back and scrubbing through
+ * them, see {@link Logic#jumpToGeneration(long)}.
+ * 
+ * Copying the whole board every generation would take too much memory, so
+ * every generation keeps only the cells that changed in it, together with
+ * their states in the generation before. Going back K generations costs
+ * the changes of those K generations and one rebuild of the board, no
+ * matter how many cells did not change.
+ * 
+ * Every {@link #KEYFRAME_INTERVAL} generations the whole {@link Snapshot}
+ * is kept as well. Snapshots are immutable, so that's just a reference to
+ * one that was built anyway. A rewind starts from the nearest keyframe
+ * after the target instead of the latest generation, so going far back
+ * does not replay every change since then.
+ * 
+ * Entries live in a ring buffer. The oldest ones are evicted when the
+ * memory they take goes over {@link #setLimit(long)}.
+ * 
+ * Methods are synchronized, the main loop records and rewinds while the
+ * others read the limits.
+ * 
+ * @author Tomas Varaneckas
+ * @see Logic#setHistoryLimit(long)
+ */
+public class History {
+	
+	/**
+	 * Generations between two keyframes.
+	 */
+	public static final int KEYFRAME_INTERVAL = 64;
+	
+	/**
+	 * Memory that an entry takes on top of its cells, roughly.
+	 */
+	private static final int ENTRY_OVERHEAD = 64;
+	
+	/**
+	 * One generation of the history.
+	 */
+	private static final class Entry {
+		
+		final long generation;
+		
+		/**
+		 * Packed cells that changed since the previous generation, or null
+		 * if the previous one is not known.
+		 */
+		final long[] changed;
+		
+		/**
+		 * States of the changed cells in the previous generation, 0 for
+		 * dead.
+		 */
+		final byte[] before;
+		
+		/**
+		 * The whole board of this generation, or null.
+		 */
+		final Snapshot keyframe;
+		
+		final long bytes;
+		
+		Entry(long generation, long[] changed, byte[] before,
+				Snapshot keyframe) {
+			this.generation = generation;
+			this.changed = changed;
+			this.before = before;
+			this.keyframe = keyframe;
+			long bytes = ENTRY_OVERHEAD;
+			if (changed != null) {
+				bytes += changed.length * 9L;
+			}
+			if (keyframe != null) {
+				bytes += keyframe.getPopulation() * 9L;
+			}
+			this.bytes = bytes;
+		}
+	}
+	
+	/**
+	 * Ring buffer of the entries, oldest at {@link #first}.
+	 */
+	private Entry[] entries = new Entry[KEYFRAME_INTERVAL];
+	
+	private int first;
+	
+	private int size;
+	
+	/**
+	 * Memory taken by the entries, roughly.
+	 */
+	private long bytes;
+	
+	private long limit;
+	
+	/**
+	 * The latest recorded generation.
+	 */
+	private Snapshot last;
+	
+	/**
+	 * Scratch buffers for collecting the changes of a generation.
+	 */
+	private long[] changedCells = new long[16];
+	private byte[] changedBefore = new byte[16];
+	private int changedSize;
+	
+	/**
+	 * Sets the memory that the history may take, in bytes. The oldest
+	 * entries are evicted right away if it takes more. 0 turns the history
+	 * off and forgets it.
+	 */
+	public synchronized void setLimit(long bytes) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException("Invalid limit: " + bytes);
+		}
+		limit = bytes;
+		if (bytes == 0) {
+			clear();
+		} else {
+			evict();
+		}
+	}
+	
+	public synchronized long getLimit() {
+		return limit;
+	}
+	
+	/**
+	 * @return true if generations should be recorded.
+	 */
+	public synchronized boolean isEnabled() {
+		return limit > 0;
+	}
+	
+	/**
+	 * @return Memory taken by the history, roughly, in bytes.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+	
+	/**
+	 * @return The oldest generation that can be rewound to, or -1 if there
+	 * is none.
+	 */
+	public synchronized long getOldestGeneration() {
+		if (size == 0) {
+			return -1;
+		}
+		Entry oldest = entries[first];
+		return oldest.changed == null ? oldest.generation
+				: oldest.generation - 1;
+	}
+	
+	/**
+	 * Adds given generation to the history. If it does not follow the
+	 * latest recorded one, i.e. after a jump or a pattern load, the history
+	 * starts over from it.
+	 */
+	public synchronized void record(final Snapshot snapshot) {
+		long generation = snapshot.getGeneration();
+		final Snapshot previous = last;
+		if (previous == null || generation != previous.getGeneration() + 1) {
+			clear();
+			add(new Entry(generation, null, null, snapshot));
+			last = snapshot;
+			return;
+		}
+		
+		changedSize = 0;
+		snapshot.visitChanges(previous, new StateVisitor() {
+			@Override
+			public void visit(int x, int y) {
+				change(x, y, previous.getState(x, y));
+			}
+			
+			@Override
+			public void visit(int x, int y, int state) {
+				visit(x, y);
+			}
+		}, new CellVisitor() {
+			@Override
+			public void visit(int x, int y) {
+				change(x, y, previous.getState(x, y));
+			}
+		});
+		long[] changed = new long[changedSize];
+		byte[] before = new byte[changedSize];
+		System.arraycopy(changedCells, 0, changed, 0, changedSize);
+		System.arraycopy(changedBefore, 0, before, 0, changedSize);
+		
+		boolean keyframe = generation % KEYFRAME_INTERVAL == 0;
+		add(new Entry(generation, changed, before,
+				keyframe ? snapshot : null));
+		last = snapshot;
+	}
+	
+	private void change(int x, int y, int before) {
+		if (changedSize == changedCells.length) {
+			long[] moreCells = new long[changedSize * 2];
+			byte[] moreBefore = new byte[changedSize * 2];
+			System.arraycopy(changedCells, 0, moreCells, 0, changedSize);
+			System.arraycopy(changedBefore, 0, moreBefore, 0, changedSize);
+			changedCells = moreCells;
+			changedBefore = moreBefore;
+		}
+		changedCells[changedSize] = LongCellSet.pack(x, y);
+		changedBefore[changedSize++] = (byte) before;
+	}
+	
+	private void add(Entry entry) {
+		if (size == entries.length) {
+			Entry[] bigger = new Entry[size * 2];
+			for (int i = 0; i < size; i++) {
+				bigger[i] = entries[(first + i) % entries.length];
+			}
+			entries = bigger;
+			first = 0;
+		}
+		entries[(first + size) % entries.length] = entry;
+		size++;
+		bytes += entry.bytes;
+		evict();
+	}
+	
+	/**
+	 * Drops the oldest entries until the history fits the limit. The
+	 * latest one is always kept.
+	 */
+	private void evict() {
+		while (bytes > limit && size > 1) {
+			bytes -= entries[first].bytes;
+			entries[first] = null;
+			first = (first + 1) % entries.length;
+			size--;
+		}
+	}
+	
+	/**
+	 * Builds the board of given generation from the history, and forgets
+	 * the generations after it, as they will be calculated again.
+	 * 
+	 * @param generation Generation to go back to. Generations older than
+	 * {@link #getOldestGeneration()} are not known, the oldest one is
+	 * rebuilt instead.
+	 * @return The board of the generation, or null if the history is empty.
+	 */
+	public synchronized Snapshot rewind(long generation) {
+		if (size == 0) {
+			return null;
+		}
+		generation = Math.max(generation, getOldestGeneration());
+		if (generation >= last.getGeneration()) {
+			return last;
+		}
+		
+		// Start from the nearest keyframe at or after the target.
+		Snapshot start = last;
+		int startIndex = size - 1;
+		for (int i = 0; i < size; i++) {
+			Entry entry = entries[(first + i) % entries.length];
+			if (entry.generation >= generation && entry.keyframe != null) {
+				start = entry.keyframe;
+				startIndex = i;
+				break;
+			}
+		}
+		
+		// Walk back from the start. The first change of a cell on the way
+		// back is the newest, so it's overwritten by the older ones.
+		// States are stored plus one, so that 0 means no change.
+		int changes = 0;
+		for (int i = 0; i <= startIndex; i++) {
+			Entry entry = entries[(first + i) % entries.length];
+			if (entry.generation > generation) {
+				changes += entry.changed.length;
+			}
+		}
+		final LongCountMap states = new LongCountMap(changes);
+		for (int i = startIndex; i >= 0; i--) {
+			Entry entry = entries[(first + i) % entries.length];
+			if (entry.generation <= generation) {
+				break;
+			}
+			long[] changed = entry.changed;
+			byte[] before = entry.before;
+			for (int j = 0; j < changed.length; j++) {
+				long cell = changed[j];
+				states.add(cell, (before[j] & 0xFF) + 1 - states.get(cell));
+			}
+		}
+		
+		Snapshot snapshot = start.getGeneration() == generation ? start
+				: apply(start, states, generation);
+		
+		// Forget the generations after the target.
+		while (size > 0) {
+			Entry newest = entries[(first + size - 1) % entries.length];
+			if (newest.generation <= generation) {
+				break;
+			}
+			bytes -= newest.bytes;
+			entries[(first + size - 1) % entries.length] = null;
+			size--;
+		}
+		if (size == 0) {
+			add(new Entry(generation, null, null, snapshot));
+		}
+		last = snapshot;
+		return snapshot;
+	}
+	
+	/**
+	 * @return Given board with given states put over it.
+	 */
+	private static Snapshot apply(Snapshot start, final LongCountMap states,
+			long generation) {
+		final long[] cells = new long[start.getPopulation() + states.size()];
+		final int[] count = new int[1];
+		start.visit(new StateVisitor() {
+			@Override
+			public void visit(int x, int y) {
+				visit(x, y, 1);
+			}
+			
+			@Override
+			public void visit(int x, int y, int state) {
+				long cell = LongCellSet.pack(x, y);
+				if (states.get(cell) == 0) {
+					cells[count[0]++] = cell;
+				}
+			}
+		});
+		int size = count[0];
+		for (int slot = 0; slot < states.capacity(); slot++) {
+			long cell = states.keyAt(slot);
+			if (cell != LongCellSet.EMPTY && states.valueAt(slot) > 1) {
+				cells[size++] = cell;
+			}
+		}
+		long[] sorted = new long[size];
+		System.arraycopy(cells, 0, sorted, 0, size);
+		Arrays.sort(sorted);
+		
+		byte[] cellStates = new byte[size];
+		boolean dying = false;
+		for (int i = 0; i < size; i++) {
+			long cell = sorted[i];
+			int state = states.get(cell) - 1;
+			if (state < 0) {
+				state = start.getState(LongCellSet.unpackX(cell),
+						LongCellSet.unpackY(cell));
+			}
+			cellStates[i] = (byte) state;
+			dying |= state != 1;
+		}
+		return new Snapshot(0, generation, sorted, dying ? cellStates : null);
+	}
+	
+	/**
+	 * Forgets all the generations.
+	 */
+	public synchronized void clear() {
+		Arrays.fill(entries, null);
+		first = 0;
+		size = 0;
+		bytes = 0;
+		last = null;
+	}
+}
@@ -1,74 +1,214 @@
 package com.varaneckas.conway;
 
-import java.util.HashSet;
-import java.util.Set;
-
 /**
- * Handles screen {@link Touch} events. Buffers them in {@link #unprocessed} set and provides
- * a {@link #flush()} operation to promote the touches to the {@link #processed}
- * set.
+ * Handles screen touches. Every touch is a cell, packed with
+ * {@link LongCellSet#pack(int, int)} into a preallocated ring, so taking
+ * in a touch allocates nothing, however fast the finger moves. Touches of
+ * a stroke are joined by lines, and the game logic stamps the
+ * {@link Brush} on every cell of the lines.
+ * 
+ * The ring is read and written without locks. Touches of the stroke that
+ * is being drawn are unprocessed (finger was not yet released),
+ * {@link #flush()} hands them over to the game logic, {@link #discard()}
+ * drops them. Three positions split the ring:
  * 
- * {@link #processed} set gets cleaned up upon retrieval, so that it won't get
- * processed twice.
+ * <pre>
+ * tail ... flushed  - processed, waiting for {@link #drain(CellVisitor)}
+ * flushed ... stroke - never, the stroke starts right after a flush
+ * stroke ... head   - unprocessed, see {@link #visitUnprocessed(CellVisitor)}
+ * </pre>
  * 
- * This class should be thread safe.
+ * There must be a single producer, the UI thread, which adds, flushes and
+ * discards, and a single consumer, the simulation thread, which drains.
+ * Any thread may look at the unprocessed touches. Slots are only reused
+ * after the consumer has drained them, and positions are volatile and
+ * written after the slots, so readers always see whole touches.
  * 
  * @author Tomas Varaneckas
  */
 public class Input {
 	
 	/**
-	 * Contains {@link Touch} events that were not yet processed (finger was not
-	 * yet released).
+	 * Number of touches the ring holds, a power of two. Touches that don't
+	 * fit are dropped until the logic drains the ring.
+	 */
+	private static final int CAPACITY = 1 << 14;
+	
+	private static final int MASK = CAPACITY - 1;
+	
+	private final long[] ring = new long[CAPACITY];
+	
+	/**
+	 * Position of the next touch. Written by the producer.
+	 */
+	private volatile long head;
+	
+	/**
+	 * Position of the first touch of the stroke. Written by the producer.
+	 */
+	private volatile long stroke;
+	
+	/**
+	 * Position after the last flushed touch. Written by the producer.
+	 */
+	private volatile long flushed;
+	
+	/**
+	 * Position of the next touch to drain. Written by the consumer.
+	 */
+	private volatile long tail;
+	
+	/**
+	 * Touches dropped because the ring was full, reported on flush.
+	 * Producer only.
 	 */
-	private Set<Touch> unprocessed = new HashSet<Touch>();
+	private int dropped;
+	
+	private volatile Brush brush = Brush.DOT;
 	
 	/**
-	 * Contains {@link Touch} events that are ready for pickup by the game 
-	 * logic.
+	 * Adds a touch to the stroke. Cells between the previous touch and this
+	 * one are added too, along a line, as far apart as the spacing of the
+	 * brush. A finger that rests on the same cell adds nothing.
+	 * 
+	 * @param x Cell coordinate X.
+	 * @param y Cell coordinate Y.
 	 */
-	private Set<Touch> processed = new HashSet<Touch>();
+	public void addTouch(float x, float y) {
+		int toX = Math.round(x);
+		int toY = Math.round(y);
+		long head = this.head;
+		if (head == stroke) {
+			add(toX, toY);
+			return;
+		}
+		
+		// Bresenham's line from the previous touch, which is drawn already.
+		long last = ring[(int) (head - 1) & MASK];
+		int lastX = LongCellSet.unpackX(last);
+		int lastY = LongCellSet.unpackY(last);
+		int dx = Math.abs(toX - lastX);
+		int dy = -Math.abs(toY - lastY);
+		int stepX = lastX < toX ? 1 : -1;
+		int stepY = lastY < toY ? 1 : -1;
+		int error = dx + dy;
+		int spacing = brush.getSpacing();
+		int cx = lastX, cy = lastY;
+		while (cx != toX || cy != toY) {
+			int error2 = 2 * error;
+			if (error2 >= dy) {
+				error += dy;
+				cx += stepX;
+			}
+			if (error2 <= dx) {
+				error += dx;
+				cy += stepY;
+			}
+			if (Math.max(Math.abs(cx - lastX), Math.abs(cy - lastY))
+					>= spacing) {
+				if (!add(cx, cy)) {
+					return;
+				}
+				lastX = cx;
+				lastY = cy;
+			}
+		}
+	}
 	
 	/**
-	 * Builds and adds a new {@link Touch} event to the {@link #unprocessed}
-	 * event buffer.
+	 * Puts a cell into the ring.
 	 * 
-	 * @param x Event coordinate X.
-	 * @param y Event coordinate Y.
-	 * @param pressure Pressure of the finger.
+	 * @return false if the ring is full.
+	 */
+	private boolean add(int x, int y) {
+		long head = this.head;
+		if (head - tail >= CAPACITY) {
+			dropped++;
+			return false;
+		}
+		ring[(int) head & MASK] = LongCellSet.pack(x, y);
+		this.head = head + 1;
+		return true;
+	}
+	
+	/**
+	 * Sets the shape that touches draw. Applies to the touches that the
+	 * game logic has not picked up yet, too.
 	 */
-	public void addTouch(float x, float y, float pressure) {
-		synchronized (unprocessed) {
-			unprocessed.add(new Touch(x, y, pressure));
+	public void setBrush(Brush brush) {
+		if (brush == null) {
+			throw new IllegalArgumentException("Brush is required");
 		}
+		Utils.debug(this, "Setting brush to %s", brush.getName());
+		this.brush = brush;
+	}
+	
+	public Brush getBrush() {
+		return brush;
 	}
 	
+	/**
+	 * Hands the touches of the stroke over to the game logic.
+	 */
 	public void flush() {
-		synchronized (unprocessed) {
-			synchronized (processed) {
-				processed = new HashSet<Touch>(unprocessed);
-			}
-			unprocessed.clear();
+		long head = this.head;
+		flushed = head;
+		stroke = head;
+		if (dropped > 0) {
+			Utils.debug(this, "Dropped %d touches, input is full", dropped);
+			dropped = 0;
 		}
 	}
 	
-	public Set<Touch> getUnprocessed() {
-		synchronized (unprocessed) {
-			return new HashSet<Touch>(unprocessed);
+	/**
+	 * Drops the unprocessed touches, i.e. when they turn out to be a part
+	 * of a gesture.
+	 */
+	public void discard() {
+		head = stroke;
+	}
+	
+	/**
+	 * Passes the unprocessed touches to given visitor, without locking or
+	 * copying anything. Touches that come in meanwhile may or may not be
+	 * visited.
+	 */
+	public void visitUnprocessed(CellVisitor visitor) {
+		long[] ring = this.ring;
+		long head = this.head;
+		for (long i = stroke; i < head; i++) {
+			long cell = ring[(int) i & MASK];
+			visitor.visit(LongCellSet.unpackX(cell),
+					LongCellSet.unpackY(cell));
 		}
 	}
 	
 	/**
-	 * Gets the latest {@link Touch} events that are ready for logic 
-	 * manipulation.
+	 * Cheap check that lets the game logic skip {@link #drain(CellVisitor)}
+	 * when there is nothing to process.
+	 * 
+	 * @return true if there are touches ready for pickup.
+	 */
+	public boolean hasProcessed() {
+		return tail != flushed;
+	}
+	
+	/**
+	 * Passes the touches that are ready for logic manipulation to given
+	 * visitor and frees their room in the ring. Consumer only.
 	 * 
-	 * @return Set of {@link Touch} events.
+	 * @return Number of visited touches.
 	 */
-	public Set<Touch> getProcessed() {
-		synchronized (processed) {
-			Set<Touch> response = new HashSet<Touch>(processed);
-			processed.clear();
-			return response;
+	public int drain(CellVisitor visitor) {
+		long[] ring = this.ring;
+		long tail = this.tail;
+		long end = flushed;
+		for (long i = tail; i < end; i++) {
+			long cell = ring[(int) i & MASK];
+			visitor.visit(LongCellSet.unpackX(cell),
+					LongCellSet.unpackY(cell));
 		}
+		this.tail = end;
+		return (int) (end - tail);
 	}
 }
@@ -0,0 +1,127 @@
+package com.varaneckas.conway;
+
+/**
+ * Distribution of durations in nanoseconds, for percentiles of the phases
+ * of the main loop, see {@link Metrics}.
+ * 
+ * Buckets are fixed and allocated up front: every power of two is split
+ * into {@link #SUB_BUCKETS} equal parts, so a duration is known within
+ * 1/8 of its value, from a nanosecond up to centuries. Recording only
+ * finds the bucket with a few shifts and increments it, without
+ * allocating or locking, so it can stay on in the game.
+ * 
+ * Every histogram must be recorded to from a single thread. It can be
+ * read from any, the readings may only lag behind by a few durations.
+ * 
+ * @author Tomas Varaneckas
+ */
+public class LatencyHistogram {
+	
+	/**
+	 * Bits of a duration below its highest bit that pick the bucket.
+	 */
+	private static final int SUB_BITS = 3;
+	
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	
+	/**
+	 * Enough buckets for any positive long.
+	 */
+	private static final int BUCKETS = (64 - SUB_BITS) << SUB_BITS;
+	
+	private final long[] counts = new long[BUCKETS];
+	
+	/**
+	 * Written last, so that readers see the buckets of the durations they
+	 * count.
+	 */
+	private volatile long count;
+	
+	private volatile long total;
+	
+	private volatile long max;
+	
+	/**
+	 * Adds a duration. Negative durations count as 0.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts[bucket(nanos)]++;
+		total += nanos;
+		if (nanos > max) {
+			max = nanos;
+		}
+		count++;
+	}
+	
+	/**
+	 * @return Number of recorded durations.
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	/**
+	 * @return Average duration, 0 if none was recorded.
+	 */
+	public long getMean() {
+		long count = this.count;
+		return count == 0 ? 0 : total / count;
+	}
+	
+	/**
+	 * @return Longest duration, 0 if none was recorded.
+	 */
+	public long getMax() {
+		return max;
+	}
+	
+	/**
+	 * @param fraction Part of the durations, i.e. 0.99 for the 99th
+	 * percentile.
+	 * @return Duration that given part of the durations don't exceed,
+	 * rounded up to the end of its bucket. 0 if none was recorded.
+	 */
+	public long getPercentile(double fraction) {
+		long count = this.count;
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(lowest(i + 1) - 1, max);
+			}
+		}
+		return max;
+	}
+	
+	/**
+	 * @return Bucket of given duration. The first {@link #SUB_BUCKETS}
+	 * hold a nanosecond each, the following ones get twice as wide with
+	 * every {@link #SUB_BUCKETS}.
+	 */
+	static int bucket(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BITS;
+		return ((shift + 1) << SUB_BITS)
+				+ (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+	}
+	
+	/**
+	 * @return Shortest duration of given bucket.
+	 */
+	static long lowest(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = (bucket >>> SUB_BITS) - 1;
+		return (long) (SUB_BUCKETS | (bucket & (SUB_BUCKETS - 1))) << shift;
+	}
+}
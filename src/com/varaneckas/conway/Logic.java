@@ -1,233 +1,1429 @@
 package com.varaneckas.conway;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * The most interesting part of the game. Contains the implementation of 
+ * The most interesting part of the game. Contains the implementation of
  * Conway's Game of Life. The game mechanics are described here:
  * http://en.wikipedia.org/wiki/Conway's_Game_of_Life
  * 
+ * Other Life-like rules can be played too, see {@link #setRule(Rule)}, and
+ * so can the rules with dying states or large neighborhoods, see
+ * {@link #setRule(StateRule)}.
+ * 
+ * The cells live in an {@link Engine}. No single engine is fast for every
+ * board, so {@link EngineSelector} measures the ticks and the cells are
+ * moved to a cheaper engine when the board changes, i.e. when a few gliders
+ * turn into a dense soup and back.
+ * 
+ * Engines keep their generations in preallocated buffers that swap roles
+ * on every step, and their scratch structures are cleared rather than 
+ * recreated, so once the buffers have grown to fit the board, a regular 
+ * {@link #tick()} does not allocate anything. That goes for the sparse,
+ * dense, tiled and torus engines, see <code>AllocationTest</code>.
+ * {@link HashLife} creates nodes as it meets new patterns, and touches, 
+ * jumps, loads, migrations, cycle replays and the {@link History} 
+ * allocate too.
+ * 
+ * The world is unbounded, unless it is turned into a torus with
+ * {@link #setTorus(int, int)}. What part of it is visible is up to
+ * {@link Viewport}, which has no effect on the simulation.
+ * 
+ * Engines are only touched from the main loop thread. Everyone else reads
+ * the cells from an immutable {@link Snapshot}, see {@link #getSnapshot()}.
+ * 
  * @author Tomas Varaneckas
  */
 public class Logic {
-
+	
 	private GameContext context;
 	
 	/**
-	 * A simple cache for cell neighbor count. Cleaned up after each tick.
-	 * Gives immense performance benefit compared to uncached version.
+	 * Decides which {@link Engine} should hold the cells.
 	 */
-	private volatile Map<Cell, Integer> neighborMap = 
-			new HashMap<Cell, Integer>();
+	private final EngineSelector selector = new EngineSelector();
 	
 	/**
-	 * Set of all the cells. Initial capacity and load factor should give
-	 * better performance for our situation.
-	 * 
-	 * {@link HashSet} is chosen because of frequent calls to 
-	 * {@link Collection#contains(Object)} operation - if you would switch this
-	 * implementation to {@link ArrayList}, there would be an immense
-	 * performance degrade. This illustrates the importance of the most suitable
-	 * implementation - you should study the Collections Framework well:
-	 * http://docs.oracle.com/javase/6/docs/technotes/guides/collections/reference.html
+	 * The engine that currently holds the cells.
+	 */
+	private volatile Engine engine;
+	
+	/**
+	 * Type of {@link #engine}.
+	 */
+	private volatile EngineType engineType;
+	
+	/**
+	 * Used for jumping far into the future. Kept between jumps, because its
+	 * node cache remembers the results of previous jumps.
+	 * @see #jumpToGeneration(long)
+	 */
+	private HashLife hashLife;
+	
+	/**
+	 * {@link HashLife} with more cells than this is not migrated to another
+	 * engine, which would have to hold every one of them.
+	 */
+	private static final long MAX_MIGRATED_CELLS = 1 << 20;
+	
+	/**
+	 * Grids that cover the whole board, such as {@link DenseGrid}, only
+	 * take cells from {@link HashLife} whose bounding box has at most this
+	 * many cells. Far jumps scatter the cells far and wide.
+	 */
+	private static final long MAX_MIGRATED_AREA = 1L << 22;
+	
+	/**
+	 * Size of the square around 0,0 that snapshots of {@link HashLife} 
+	 * cover when there is no screen to take the visible window from.
+	 */
+	private static final int HEADLESS_WINDOW = 4096;
+	
+	/**
+	 * {@link Viewport#getVersion()} of the window that the last snapshot of
+	 * {@link HashLife} covers.
+	 */
+	private long windowVersion = -1;
+	
+	/**
+	 * Recent generations, for going back with 
+	 * {@link #jumpToGeneration(long)}. Off until 
+	 * {@link #setHistoryLimit(long)} is called.
+	 */
+	private final History history = new History();
+	
+	/**
+	 * Notices when the board starts repeating itself.
+	 * @see #setCycleAction(CycleAction)
+	 */
+	private final CycleDetector cycles = new CycleDetector();
+	
+	private volatile CycleAction cycleAction = CycleAction.REPLAY;
+	
+	/**
+	 * Generation requested with {@link #jumpToGeneration(long)}, or -1.
+	 */
+	private volatile long jumpTarget = -1;
+	
+	/**
+	 * Generation that a jump on {@link TorusGrid} or {@link StateGrid} is
+	 * stepping towards, or -1. Those can't use {@link HashLife}, so their
+	 * jumps are spread over several ticks.
+	 */
+	private volatile long steppedTarget = -1;
+	
+	/**
+	 * Set by {@link #cancelJump()}, cleared by the next {@link #tick()}.
+	 */
+	private volatile boolean jumpCancelled;
+	
+	/**
+	 * How long a tick may step towards {@link #steppedTarget}.
+	 */
+	private static final long JUMP_SLICE_NANOS = 100 * 1000000L;
+	
+	/**
+	 * Pattern file requested with {@link #loadPattern(File)}, or null.
+	 */
+	private volatile File pendingPattern;
+	
+	/**
+	 * Board file requested with {@link #restoreBoard(File)}, or null. Stays
+	 * set until the restored board is published.
+	 */
+	private volatile File pendingBoard;
+	
+	/**
+	 * Keeps {@link #saveBoard(File)} calls from writing the same file at
+	 * once.
+	 */
+	private final Object saveLock = new Object();
+	
+	/**
+	 * Number of the current generation.
+	 */
+	private volatile long generation;
+	
+	/**
+	 * The rule that the next ticks follow.
+	 * @see #setRule(Rule)
+	 */
+	private volatile Rule rule = Rule.CONWAY;
+	
+	/**
+	 * The rule that {@link #engine} has been told about.
+	 */
+	private Rule engineRule = Rule.CONWAY;
+	
+	/**
+	 * Rule with dying states or a large neighborhood that the next ticks 
+	 * follow instead of {@link #rule}, or null.
+	 * @see #setRule(StateRule)
+	 */
+	private volatile StateRule stateRule;
+	
+	/**
+	 * The state rule that {@link #engine} has been told about.
+	 */
+	private StateRule engineStateRule;
+	
+	/**
+	 * Size of the torus, 0 for an unbounded world.
+	 * @see #setTorus(int, int)
+	 */
+	private volatile int torusWidth, torusHeight;
+	
+	/**
+	 * {@link DenseGrid} that covers this many times more cells than the
+	 * bounding box of the population gets rebuilt.
+	 */
+	private static final int DENSE_WASTE = 4;
+	
+	/**
+	 * {@link DenseGrid} smaller than this is never rebuilt.
+	 */
+	private static final long DENSE_COMPACT_AREA = 256 * 256;
+	
+	/**
+	 * The latest published generation. Readers get it without locking.
+	 */
+	private final AtomicReference<Snapshot> snapshot = 
+			new AtomicReference<Snapshot>(Snapshot.EMPTY);
+	
+	/**
+	 * True when {@link #snapshot} has been read since it was published.
+	 */
+	private volatile boolean snapshotTaken = true;
+	
+	/**
+	 * True when the engine holds cells that are newer than {@link #snapshot}.
 	 */
-	private volatile Collection<Cell> cells = new HashSet<Cell>(3000, 0.2f);
+	private boolean snapshotStale;
+	
+	/**
+	 * Scratch buffer for building snapshots.
+	 */
+	private long[] snapshotCells = new long[0];
+	
+	private int snapshotSize;
+	
+	/**
+	 * Scratch map of the dying cells of a snapshot to their states.
+	 */
+	private final LongCountMap snapshotStates = new LongCountMap(16);
+	
+	private final StateVisitor snapshotCollector = new StateVisitor() {
+		@Override
+		public void visit(int x, int y) {
+			if (snapshotSize == snapshotCells.length) {
+				long[] bigger = new long[Math.max(16, snapshotSize * 2)];
+				System.arraycopy(snapshotCells, 0, bigger, 0, snapshotSize);
+				snapshotCells = bigger;
+			}
+			snapshotCells[snapshotSize++] = LongCellSet.pack(x, y);
+		}
+		
+		@Override
+		public void visit(int x, int y, int state) {
+			visit(x, y);
+			if (state != 1) {
+				snapshotStates.add(LongCellSet.pack(x, y), state);
+			}
+		}
+	};
+	
+	/**
+	 * Hash of the cells visited by {@link #hasher} so far.
+	 */
+	private long visitedHash;
+	
+	/**
+	 * Hashes engines that don't keep a hash of their own, see 
+	 * {@link #hash(Engine)}.
+	 */
+	private final StateVisitor hasher = new StateVisitor() {
+		@Override
+		public void visit(int x, int y) {
+			visitedHash ^= Zobrist.cell(x, y);
+		}
+		
+		@Override
+		public void visit(int x, int y, int state) {
+			visitedHash ^= Zobrist.cell(x, y, state);
+		}
+	};
+	
+	/**
+	 * Source of the cells of random brushes.
+	 */
+	private final Random random = new Random();
+	
+	/**
+	 * Stamps the brush of {@link Input} on every touch drained from it, in
+	 * the current engine.
+	 */
+	private final CellVisitor touchWriter = new CellVisitor() {
+		@Override
+		public void visit(int x, int y) {
+			context.getInput().getBrush().stamp(engine, x, y, random);
+		}
+	};
 	
 	public Logic(GameContext context) {
 		this.context = context;
+		engineType = EngineType.SPARSE;
+		engine = engineType.create(context);
 	}
-
+	
 	/**
-	 * Advances to the next generation of cells.
-	 * Reads the processed used input and seeds the cells with it before 
-	 * running the logic.
+	 * Forces given {@link Engine} type. The cells are moved to it on the
+	 * next {@link #tick()}.
+	 * 
+	 * @param type Engine type, or null to let {@link EngineSelector} decide.
 	 */
-	public void tick() {
-		
-		// Materialize user touches into cells.
-		Set<Touch> touches = context.getInput().getProcessed();
-		for (Touch touch : touches) {
-			cells.add(new Cell(touch.x, touch.y));
+	public void setEngineType(EngineType type) {
+		if (type == EngineType.TORUS) {
+			throw new IllegalArgumentException(
+					"Torus is chosen with setTorus()");
 		}
-		
-		doLogic();
+		if (type == EngineType.STATES) {
+			throw new IllegalArgumentException(
+					"State grid is chosen with setRule(StateRule)");
+		}
+		Utils.debug(this, "Setting engine type to %s",
+				type == null ? "automatic" : type);
+		selector.setPinned(type);
+	}
+	
+	/**
+	 * Changes the rule of the game. Becomes effective on the next 
+	 * {@link #tick()}, the game does not have to be stopped.
+	 * 
+	 * @param rule New rule, i.e. <code>Rule.parse("B36/S23")</code>.
+	 */
+	public void setRule(Rule rule) {
+		if (rule == null) {
+			throw new IllegalArgumentException("Rule is null");
+		}
+		Utils.debug(this, "Setting rule to %s", rule);
+		synchronized (this) {
+			this.rule = rule;
+			stateRule = null;
+		}
+	}
+	
+	/**
+	 * Switches to a Generations or a Larger than Life rule. The cells are
+	 * moved to a {@link StateGrid} on the next {@link #tick()}, and stay
+	 * there until a Life-like rule is set with {@link #setRule(Rule)}.
+	 * Engine selection is off in the meantime.
+	 * 
+	 * @param rule New rule, i.e. <code>StateRule.parse("B2/S/C3")</code>.
+	 * @throws IllegalStateException if the world is a torus.
+	 */
+	public void setRule(StateRule rule) {
+		if (rule == null) {
+			throw new IllegalArgumentException("Rule is null");
+		}
+		Utils.debug(this, "Setting rule to %s", rule);
+		synchronized (this) {
+			if (isTorus()) {
+				throw new IllegalStateException(
+						"State rules can not run on a torus");
+			}
+			stateRule = rule;
+		}
+	}
+	
+	public Rule getRule() {
+		return rule;
+	}
+	
+	/**
+	 * @return The state rule that is in effect, or null if the game follows
+	 * a Life-like {@link #getRule()}.
+	 */
+	public StateRule getStateRule() {
+		return stateRule;
+	}
+	
+	/**
+	 * @return Number of cell states of the current rule, 2 for Life-like
+	 * rules.
+	 */
+	public int getStates() {
+		StateRule rule = stateRule;
+		return rule == null ? 2 : rule.getStates();
+	}
+	
+	/**
+	 * Turns the world into a torus of given size: cells that leave it on
+	 * one side come back on the opposite one. Cells are moved into a 
+	 * {@link TorusGrid} on the next {@link #tick()}, wrapping the ones that
+	 * are outside. Engine selection is off while the world is a torus.
+	 * 
+	 * @param width Width in cells, 0 to make the world unbounded again.
+	 * @param height Height in cells, 0 to make the world unbounded again.
+	 * @throws IllegalStateException if a state rule is in effect.
+	 */
+	public void setTorus(int width, int height) {
+		if (width < 0 || height < 0 || (width == 0) != (height == 0)) {
+			throw new IllegalArgumentException("Invalid torus size: "
+					+ width + " x " + height);
+		}
+		Utils.debug(this, "Setting torus size to %d x %d", width, height);
+		synchronized (this) {
+			if (width > 0 && stateRule != null) {
+				throw new IllegalStateException(
+						"State rules can not run on a torus");
+			}
+			torusWidth = width;
+			torusHeight = height;
+		}
+	}
+	
+	public synchronized int getTorusWidth() {
+		return torusWidth;
+	}
+	
+	public synchronized int getTorusHeight() {
+		return torusHeight;
+	}
+	
+	/**
+	 * @return true if the world wraps around.
+	 */
+	public boolean isTorus() {
+		return torusWidth > 0;
+	}
+	
+	public EngineType getEngineType() {
+		return engineType;
+	}
+	
+	/**
+	 * @return The engine that currently holds the cells. For monitoring 
+	 * only, it must not be modified from outside of the main loop.
+	 */
+	public Engine getEngine() {
+		return engine;
+	}
+	
+	public EngineSelector getSelector() {
+		return selector;
+	}
+	
+	/**
+	 * Requests a jump to given generation. The jump happens instead of the
+	 * next {@link #tick()}. Jumps ahead are calculated by {@link HashLife},
+	 * so even billions of generations ahead are reachable for repetitive 
+	 * patterns. Jumps back are rebuilt from the {@link History}, if it's
+	 * on.
+	 * 
+	 * The cells stay in {@link HashLife} after a jump, and only the visible
+	 * ones are published. They move to another engine once there are few
+	 * enough of them, and into a grid once they are close enough together,
+	 * until then engine types, torus and state rules wait.
+	 * 
+	 * A torus or a state rule can't be jumped over, its generations are
+	 * stepped through one by one, a slice of time per tick, until the
+	 * target is reached or {@link #cancelJump()} is called. Expect that to
+	 * take a while for millions of generations.
+	 * 
+	 * @param generation Generation to jump to, up to 
+	 * {@link HashLife#MAX_GENERATIONS}. Generations older than 
+	 * {@link #getOldestGeneration()} are not known, jumps back to them stop
+	 * at the oldest one.
+	 */
+	public void jumpToGeneration(long generation) {
+		if (generation < 0 || generation > HashLife.MAX_GENERATIONS) {
+			throw new IllegalArgumentException("Can't jump to generation "
+					+ generation);
+		}
+		Utils.debug(this, "Jump to generation %d requested", generation);
+		jumpTarget = generation;
+	}
+	
+	/**
+	 * Stops a jump that is being stepped through at the generation it has
+	 * reached, see {@link #jumpToGeneration(long)}.
+	 */
+	public void cancelJump() {
+		jumpTarget = -1;
+		jumpCancelled = true;
+	}
+	
+	/**
+	 * @return true while a jump is being stepped through.
+	 */
+	public boolean isJumping() {
+		return steppedTarget >= 0;
+	}
+	
+	/**
+	 * Turns on recording of the recent generations, so that the game can
+	 * step back with {@link #jumpToGeneration(long)}. Recording makes every
+	 * tick build a {@link Snapshot}, so it costs time and allocations.
+	 * 
+	 * Generations spent in {@link HashLife} after a far jump are not
+	 * recorded, jumps back from them go to the generations before the jump.
+	 * 
+	 * @param bytes Memory that the history may take, the oldest generations
+	 * are forgotten when it takes more. 0 turns the history off.
+	 */
+	public void setHistoryLimit(long bytes) {
+		Utils.debug(this, "Setting history limit to %d bytes", bytes);
+		history.setLimit(bytes);
+	}
+	
+	/**
+	 * @return The oldest generation that can be jumped back to, or -1 if
+	 * the history is off or empty.
+	 */
+	public long getOldestGeneration() {
+		return history.getOldestGeneration();
+	}
+	
+	/**
+	 * Chooses what happens when the board settles into a still life or an
+	 * oscillator of period up to {@link CycleDetector#MAX_PERIOD}. By
+	 * default the cycle is replayed from snapshots and the engine rests.
+	 */
+	public void setCycleAction(CycleAction action) {
+		if (action == null) {
+			throw new IllegalArgumentException("Cycle action is null");
+		}
+		Utils.debug(this, "Setting cycle action to %s", action);
+		cycleAction = action;
+	}
+	
+	public CycleAction getCycleAction() {
+		return cycleAction;
 	}
 	
 	/**
-	 * The main logic that implements Conway's Game of Life.
+	 * @return Period of the cycle the board is in, 1 for a still life, or 0
+	 * if it's not known to be in one.
+	 */
+	public int getCyclePeriod() {
+		return cycles.getPeriod();
+	}
+	
+	/**
+	 * @return Generation where the current cycle started, or -1.
+	 */
+	public long getCycleStart() {
+		return cycles.getStart();
+	}
+	
+	/**
+	 * Requests loading of an RLE or macrocell pattern file, see 
+	 * {@link PatternLoader}. The load happens instead of the next 
+	 * {@link #tick()}: the board is cleared, the pattern is put into the
+	 * current engine around 0,0, and the rule of the file is applied if it
+	 * has one.
+	 */
+	public void loadPattern(File file) {
+		Utils.debug(this, "Loading of %s requested", file);
+		pendingPattern = file;
+	}
+	
+	/**
+	 * Saves the latest published generation into a {@link BoardFile}, 
+	 * together with the rule and the torus size. Snapshots are immutable,
+	 * so this can run on any thread while the game goes on.
 	 * 
-	 * So far this is the slowest method in town. Feel free to optimize it.
-	 * You are also welcome to contribute the optimizations back to the source.
+	 * Does nothing while a board is being restored, the published 
+	 * generation is not the one of the board yet, see 
+	 * {@link #isRestoring()}.
+	 * 
+	 * @throws IOException if the file can't be written, or the board lives
+	 * in {@link HashLife} and is too large for the file.
 	 */
-	private void doLogic() {
+	public void saveBoard(File file) throws IOException {
+		if (isRestoring()) {
+			Utils.debug(this, "Not saving to %s while restoring", file);
+			return;
+		}
 		long start = System.currentTimeMillis();
+		Snapshot snapshot = this.snapshot.get();
+		if (snapshot.getUniverse() != null) {
+			// The snapshot only has the visible part of the board.
+			snapshot = getWholeBoard(snapshot);
+		}
+		StateRule stateRule = this.stateRule;
+		String rule = stateRule != null ? stateRule.toString() 
+				: this.rule.toString();
+		int width, height;
+		synchronized (this) {
+			width = torusWidth;
+			height = torusHeight;
+		}
+		synchronized (saveLock) {
+			BoardFile.save(file, snapshot, rule, width, height);
+		}
+		Utils.debug(this, "Saving generation %d, %d cells, took: %s",
+				snapshot.getGeneration(), snapshot.getPopulation(), 
+				System.currentTimeMillis() - start);
+	}
+	
+	/**
+	 * @return Snapshot of all the cells of the {@link HashLife} universe
+	 * behind given one.
+	 * @throws IOException if there are more cells than other engines hold,
+	 * or they lie beyond int coordinates.
+	 */
+	private static Snapshot getWholeBoard(Snapshot visible) 
+			throws IOException {
+		HashLife.Node universe = visible.getUniverse();
+		long population = universe.population;
+		if (population > MAX_MIGRATED_CELLS 
+				|| !fitsInts(HashLife.getBounds(universe))) {
+			throw new IOException("Board of " + population 
+					+ " cells is too large to save");
+		}
+		final long[] cells = new long[(int) population];
+		HashLife.visit(universe, new CellVisitor() {
+			private int count;
+			
+			@Override
+			public void visit(int x, int y) {
+				cells[count++] = LongCellSet.pack(x, y);
+			}
+		});
+		Arrays.sort(cells);
+		return new Snapshot(visible.getVersion(), visible.getGeneration(),
+				cells);
+	}
+	
+	/**
+	 * Requests restoring of a board saved with {@link #saveBoard(File)}. It
+	 * happens instead of the next {@link #tick()}, and brings back the 
+	 * generation, the rule and the torus size too.
+	 */
+	public void restoreBoard(File file) {
+		Utils.debug(this, "Restoring of %s requested", file);
+		pendingBoard = file;
+	}
+	
+	/**
+	 * @return true from {@link #restoreBoard(File)} until the restored
+	 * board is published.
+	 */
+	public boolean isRestoring() {
+		return pendingBoard != null;
+	}
+	
+	public long getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * Advances to the next generation of cells.
+	 * Reads the processed used input and seeds the cells with it before
+	 * running the logic.
+	 */
+	public void tick() {
 		
-		// Cells that will die during this generation
-		Collection<Cell> toRemove = new HashSet<Cell>();
-		// Cells that will be born during this generation
-		Collection<Cell> toAdd = new HashSet<Cell>();
+		File pattern = pendingPattern;
+		if (pattern != null) {
+			pendingPattern = null;
+			steppedTarget = -1;
+			load(pattern);
+			return;
+		}
 		
-		// New cell generation. Begins with a copy of the old one.
-		Collection<Cell> newCells = new HashSet<Cell>(cells);
+		File board = pendingBoard;
+		if (board != null) {
+			steppedTarget = -1;
+			try {
+				restore(board);
+			} finally {
+				if (pendingBoard == board) {
+					pendingBoard = null;
+				}
+			}
+			return;
+		}
 		
-		// Runs through all the cells and applies the game rules on them.
-		for (Cell cell : newCells) {
-			
-			// We will need the neighbor count for every cell
-			int neighbors = countNeighbors(cell, newCells);
-			
-			// Rule 1 through 3
-			if (neighbors < 2 || neighbors > 3) {
-				toRemove.add(cell);
+		if (jumpCancelled) {
+			jumpCancelled = false;
+			steppedTarget = -1;
+		}
+		
+		long target = jumpTarget;
+		if (target >= 0) {
+			jumpTarget = -1;
+			steppedTarget = -1;
+			if (target > generation && cycles.isReplaying()) {
+				// The future of a cycle is known.
+				generation = target;
+				count();
+				record();
+				publish(true);
+				return;
 			}
-			
-			// Rule 4
-			if (neighbors > 0) {
-				collectNearbyRessurectionCandidates(cell, newCells, toAdd);
+			if (target > generation) {
+				jump(target);
+				return;
+			}
+			if (target < generation && history.isEnabled()) {
+				rewind(target);
+				return;
+			}
+		}
+		
+		if (steppedTarget >= 0) {
+			stepTowards();
+			return;
+		}
+		
+		if (cycles.isReplaying()) {
+			if (isCycleIntact()) {
+				generation++;
+				count();
+				record();
+				publish(false);
+				return;
 			}
+			leaveCycle();
 		}
 		
-		// Kill the death sentenced cells
-		newCells.removeAll(toRemove);
+		Engine engine = prepareEngine();
+		applyRule(engine);
 		
-		// Do some babies
-		newCells.addAll(toAdd);
+		// Materialize user touches into cells.
+		Metrics metrics = context.getMetrics();
+		if (context.getInput().hasProcessed()) {
+			long inputStart = System.nanoTime();
+			context.getInput().drain(touchWriter);
+			cycles.reset();
+			metrics.record(Metrics.Phase.INPUT, System.nanoTime() - inputStart);
+		}
 		
-		// Cleanup the cache so the calculations will not go wrong during the
-		// next tick.
-		neighborMap = new HashMap<Cell, Integer>();
+		long population = engine.getPopulation();
+		long start = System.nanoTime();
 		
-		// Replace the generation
-		cells = newCells;
+		engine.step();
+		generation++;
+		count(engine, population);
+		record();
+		detectCycle(engine);
+		publish(false);
 		
-		// Do some profiling. 
-		long end = System.currentTimeMillis();
-		long delta = end - start;
-		if (delta > MainLoop.MIN_TICK_TIME) {
+		// Do some profiling.
+		long delta = System.nanoTime() - start;
+		selector.record(engineType, delta, population, getArea());
+		if (delta / 1000000 > MainLoop.MIN_TICK_TIME) {
 			// Print the time only when it's slower than our target rate.
-			Utils.debug(this, "Game logic took: %s", (end - start));
+			Utils.debug(this, "Game logic took: %s (%s, %d cells)",
+					delta / 1000000, engineType, population);
 		}
 	}
 	
 	/**
-	 * Calculates the count of neighbors for given cell.
+	 * Asks {@link #selector} which engine should run the next step and moves
+	 * the cells if it's not the current one. Torus and state rules have 
+	 * engines of their own.
 	 */
-	private int countNeighbors(Cell cell, Collection<Cell> cells) {
-		
-		// See if there is a cached value
-		if (neighborMap.containsKey(cell)) {
-			// FIXME For some weird reasons sometimes this map becomes null.
-			return neighborMap.get(cell);
+	private Engine prepareEngine() {
+		long area = snapshot.get().getArea();
+		if (engine instanceof HashLife) {
+			// Its snapshots only cover the visible window.
+			area = getMigratedArea((HashLife) engine);
+			if (area < 0) {
+				// Far jumps leave boards that no other engine could hold.
+				return engine;
+			}
+		}
+		if (isTorus()) {
+			if (engineType != EngineType.TORUS || isOutdated(engine)) {
+				migrate(EngineType.TORUS);
+			}
+			return engine;
+		}
+		if (stateRule != null) {
+			if ((engineType != EngineType.STATES || isOutdated(engine))
+					&& canMigrate(EngineType.STATES, area)) {
+				migrate(EngineType.STATES);
+			}
+			return engine;
 		}
 		
-		// No cache, let's do the hard work.
-		
-		// Initial neighbor count
-		int count = 0;
-		
-		int x = cell.getX();
-		int y = cell.getY();
+		EngineType wanted = selector.select(engineType,
+				engine.getPopulation(), area);
+		if ((wanted != engineType || isOutdated(engine))
+				&& canMigrate(wanted, area)) {
+			migrate(wanted);
+		}
+		return engine;
+	}
+	
+	/**
+	 * @return Area of the bounding box of the cells in {@link HashLife}, or
+	 * -1 if there are too many cells or they lie beyond the int coordinates
+	 * that other engines take.
+	 */
+	private long getMigratedArea(HashLife universe) {
+		if (universe.getPopulation() > MAX_MIGRATED_CELLS) {
+			return -1;
+		}
+		long[] bounds = universe.getBounds();
+		if (bounds == null) {
+			return 0;
+		}
+		if (!fitsInts(bounds)) {
+			return -1;
+		}
+		long width = bounds[2] - bounds[0] + 1;
+		long height = bounds[3] - bounds[1] + 1;
+		return width > Long.MAX_VALUE / height ? Long.MAX_VALUE 
+				: width * height;
+	}
+	
+	/**
+	 * @param bounds Bounds from {@link HashLife#getBounds()}, or null.
+	 * @return true if the cells within given bounds have int coordinates.
+	 */
+	private static boolean fitsInts(long[] bounds) {
+		return bounds == null
+				|| bounds[0] >= Integer.MIN_VALUE 
+				&& bounds[1] >= Integer.MIN_VALUE
+				&& bounds[2] <= Integer.MAX_VALUE 
+				&& bounds[3] <= Integer.MAX_VALUE;
+	}
+	
+	/**
+	 * Cells leave {@link HashLife} for an engine that grows with the area
+	 * only if they fit into {@link #MAX_MIGRATED_AREA}, the torus has a 
+	 * size of its own.
+	 */
+	private boolean canMigrate(EngineType type, long area) {
+		return !(engine instanceof HashLife) || type == EngineType.TORUS
+				|| !type.scalesWithArea() || area <= MAX_MIGRATED_AREA;
+	}
+	
+	/**
+	 * Passes {@link #rule} and {@link #stateRule} to the engine if they 
+	 * have changed.
+	 */
+	private void applyRule(Engine engine) {
+		Rule rule = this.rule;
+		if (rule != engineRule) {
+			engine.setRule(rule);
+			engineRule = rule;
+			engineStateRule = null;
+			cycles.reset();
+		}
+		StateRule stateRule = this.stateRule;
+		if (stateRule != null && stateRule != engineStateRule 
+				&& engine instanceof StateGrid) {
+			((StateGrid) engine).setRule(stateRule);
+			engineStateRule = stateRule;
+			cycles.reset();
+		}
+	}
+	
+	/**
+	 * {@link DenseGrid} only grows, so it is rebuilt when the cells take a
+	 * small part of it, i.e. after a glider has left a dense area. Same goes
+	 * for {@link StateGrid}. {@link TorusGrid} is rebuilt when the torus 
+	 * gets resized.
+	 */
+	private boolean isOutdated(Engine engine) {
+		if (engine instanceof TorusGrid) {
+			TorusGrid torus = (TorusGrid) engine;
+			synchronized (this) {
+				return torus.getWidth() != torusWidth
+						|| torus.getHeight() != torusHeight;
+			}
+		}
+		long area;
+		if (engine instanceof DenseGrid) {
+			area = ((DenseGrid) engine).getArea();
+		} else if (engine instanceof StateGrid) {
+			area = ((StateGrid) engine).getArea();
+		} else {
+			return false;
+		}
+		return area > DENSE_COMPACT_AREA 
+				&& area > snapshot.get().getArea() * DENSE_WASTE;
+	}
+	
+	/**
+	 * Moves all the cells into a new engine of given type. Dying cells only
+	 * survive a move from one {@link StateGrid} to another.
+	 */
+	private void migrate(EngineType type) {
+		long start = System.currentTimeMillis();
 		
-		for (int i = x - 1; i <= x + 1; i++) {
-			for (int j = y - 1; j <= y + 1; j++) {
-				
-				// We don't want to run calculations on cells we won't be able 
-				// to see.
-				if (isOutOfBounds(i, y)) {
-					continue;
+		final Engine target = type.create(context);
+		target.setRule(engineRule);
+		engineStateRule = null;
+		if (target instanceof StateGrid) {
+			final StateGrid grid = (StateGrid) target;
+			engine.visit(new StateVisitor() {
+				@Override
+				public void visit(int x, int y) {
+					grid.setCell(x, y);
 				}
 				
-				// Skip the current cell (x:y).
-				if (i == x && j == y) {
-					continue;
+				@Override
+				public void visit(int x, int y, int state) {
+					grid.setState(x, y, state);
 				}
-				
-				// If cell set contains the cell in same location, it's a 
-				// valid neighbor.
-				if (cells.contains(new Cell(i, j))) {
-					count++;
+			});
+		} else {
+			engine.visit(new CellVisitor() {
+				@Override
+				public void visit(int x, int y) {
+					target.setCell(x, y);
 				}
-			}
+			});
+		}
+		engine = target;
+		engineType = type;
+		// Engines hash differently.
+		cycles.reset();
+		
+		Utils.debug(this, "Migration to %s took: %s", type,
+				System.currentTimeMillis() - start);
+	}
+	
+	/**
+	 * Loads current cells into {@link #hashLife} and advances it to given
+	 * generation. The cells stay there, bringing them back could take more
+	 * memory than there is, see {@link #prepareEngine()}.
+	 */
+	private void jump(long target) {
+		long start = System.currentTimeMillis();
+		
+		final Engine engine = this.engine;
+		applyRule(engine);
+		context.getInput().drain(touchWriter);
+		cycles.reset();
+		
+		if (engine instanceof TorusGrid || engine instanceof StateGrid) {
+			// HashLife knows nothing about wrapping or dying states, so these
+			// have to go the long way.
+			steppedTarget = target;
+			stepTowards();
+			return;
+		}
+		
+		if (engine instanceof HashLife) {
+			// No need to copy anything around.
+			((HashLife) engine).advance(target - generation);
+			generation = target;
+			count();
+			record();
+			publish(true);
+			return;
+		}
+		
+		if (hashLife == null) {
+			hashLife = new HashLife();
 		}
+		final HashLife universe = hashLife;
+		universe.setRule(engineRule);
+		universe.clear();
+		engine.visit(new CellVisitor() {
+			@Override
+			public void visit(int x, int y) {
+				universe.setCell(x, y);
+			}
+		});
 		
-		// Put the count to cache so that we don't have to recalculate it again.
-		neighborMap.put(cell, count);
+		universe.advance(target - generation);
 		
-		return count;
+		this.engine = universe;
+		engineType = EngineType.HASHLIFE;
+		generation = target;
+		count();
+		record();
+		publish(true);
+		
+		Utils.debug(this, "Jump to generation %d took: %s, %d nodes cached",
+				target, System.currentTimeMillis() - start,
+				universe.getCacheSize());
 	}
-
+	
 	/**
-	 * According to Conway's Game of Life rule #4, if a dead cell has exactly
-	 * 3 neighbors, it must resurrect. 
-	 * 
-	 * This method works around living cells, it calculates if surrounding dead
-	 * cells have 3 neighbors and if they do, those cells are registered in the
-	 * candidate collection.
+	 * Steps towards {@link #steppedTarget} for up to 
+	 * {@link #JUMP_SLICE_NANOS}, the rest is left to the following ticks.
+	 * Torus and rule changes wait until the target is reached.
 	 */
-	private void collectNearbyRessurectionCandidates(Cell cell, 
-			Collection<Cell> cells,
-			Collection<Cell> candidates) {
+	private void stepTowards() {
+		long target = steppedTarget;
+		Engine engine = this.engine;
+		applyRule(engine);
+		context.getInput().drain(touchWriter);
 		
-		int x = cell.getX();
-		int y = cell.getY();
+		long start = System.nanoTime();
+		while (generation < target 
+				&& System.nanoTime() - start < JUMP_SLICE_NANOS) {
+			engine.step();
+			generation++;
+		}
+		if (generation >= target) {
+			steppedTarget = -1;
+			Utils.debug(this, "Stepped to generation %d", target);
+		}
+		count();
+		record();
+		publish(true);
+	}
+	
+	/**
+	 * Puts the cells back the way they were in given generation, as far as
+	 * the {@link #history} remembers.
+	 */
+	private void rewind(long target) {
+		long start = System.currentTimeMillis();
+		Snapshot past = history.rewind(target);
+		if (past == null) {
+			return;
+		}
 		
-		// Travel around the cell
-		for (int i = x - 1; i <= x + 1; i++) {
-			for (int j = y - 1; j <= y + 1; j++) {
-				
-				// Skip invisible areas
-				if (isOutOfBounds(i, y)) {
-					continue;
+		Engine engine = prepareEngine();
+		applyRule(engine);
+		put(engine, past);
+		generation = past.getGeneration();
+		cycles.reset();
+		count();
+		publish(true);
+		
+		Utils.debug(this, "Rewind to generation %d took: %s, %d bytes of "
+				+ "history left", generation, 
+				System.currentTimeMillis() - start, history.getBytes());
+	}
+	
+	/**
+	 * Replaces the cells of given engine with the cells of a snapshot.
+	 */
+	private void put(final Engine engine, Snapshot cells) {
+		engine.clear();
+		if (engine instanceof StateGrid) {
+			final StateGrid states = (StateGrid) engine;
+			cells.visit(new StateVisitor() {
+				@Override
+				public void visit(int x, int y) {
+					states.setCell(x, y);
 				}
 				
-				// Skip the cell itself
-				if (i == x && j == y) {
-					continue;
+				@Override
+				public void visit(int x, int y, int state) {
+					states.setState(x, y, state);
 				}
-				
-				// Create a virtual cell
-				Cell c = new Cell(i, j);
-				
-				// Check if cell is alive or already scheduled for a 
-				// resurrection. If so, move on.
-				if (cells.contains(c) || candidates.contains(c)) {
-					continue; //Already there
-				} else {
-					int neighbours = countNeighbors(c, cells);
-					if (neighbours == 3) {
-						// Schedule virtual cell for resurrection.
-						candidates.add(c);
-					}
+			});
+		} else {
+			cells.visit(new CellVisitor() {
+				@Override
+				public void visit(int x, int y) {
+					engine.setCell(x, y);
 				}
+			});
+		}
+	}
+	
+	/**
+	 * Checks the board for a cycle after a step, and acts on it as told by
+	 * {@link #cycleAction}.
+	 */
+	private void detectCycle(Engine engine) {
+		CycleAction action = cycleAction;
+		if (action == CycleAction.OFF || engine instanceof HashLife) {
+			// HashLife can't be hashed without visiting all of its cells, 
+			// and it remembers repeating boards on its own.
+			return;
+		}
+		if (cycles.record(generation, hash(engine))) {
+			Utils.debug(this, "Cycle of period %d found at generation %d",
+					cycles.getPeriod(), cycles.getStart());
+			if (action == CycleAction.PAUSE) {
+				context.setState(State.PAUSED);
+			}
+		}
+		if (action == CycleAction.REPLAY && cycles.isCapturing()
+				&& cycles.capture(collect(0), engine.getPopulation())) {
+			Utils.debug(this, "Replaying cycle of period %d from generation "
+					+ "%d", cycles.getPeriod(), generation);
+		}
+	}
+	
+	/**
+	 * @return {@link Zobrist} hash of the cells of given engine. Engines 
+	 * that don't keep it up to date are hashed cell by cell.
+	 */
+	private long hash(Engine engine) {
+		if (engine instanceof HashedEngine) {
+			return ((HashedEngine) engine).getHash();
+		}
+		visitedHash = 0;
+		engine.visit(hasher);
+		return visitedHash;
+	}
+	
+	/**
+	 * @return true if nothing that could break the replayed cycle has
+	 * happened: no touches, and no changes of the rule or the torus.
+	 */
+	private boolean isCycleIntact() {
+		if (context.getInput().hasProcessed() || rule != engineRule
+				|| (stateRule != null && stateRule != engineStateRule)
+				|| cycleAction != CycleAction.REPLAY) {
+			return false;
+		}
+		if (engine instanceof TorusGrid) {
+			return !isOutdated(engine);
+		}
+		return !isTorus();
+	}
+	
+	/**
+	 * Stops replaying the cycle, and puts the generation it's in into the
+	 * engine, so that it can go on from there.
+	 */
+	private void leaveCycle() {
+		if (cycles.isReplaying()) {
+			put(engine, cycles.getPhase(generation));
+			Utils.debug(this, "Leaving cycle at generation %d", generation);
+		}
+		cycles.reset();
+	}
+	
+	/**
+	 * Brings the counters of {@link Metrics} up to date after a step that
+	 * started with given population. Births and deaths are only known 
+	 * when the engine counts them.
+	 */
+	private void count(Engine engine, long population) {
+		Metrics metrics = context.getMetrics();
+		if (engine instanceof CountingEngine) {
+			CountingEngine counting = (CountingEngine) engine;
+			long births = counting.getBirths();
+			long deaths = counting.getDeaths();
+			metrics.count(generation, population + births - deaths, births,
+					deaths);
+		} else {
+			metrics.count(generation, engine.getPopulation(), 0, 0);
+		}
+	}
+	
+	/**
+	 * Brings the counters of {@link Metrics} up to date after the board
+	 * has changed without a step, i.e. on a jump or a load.
+	 */
+	private void count() {
+		context.getMetrics().count(generation, getPopulation(), 0, 0);
+	}
+	
+	/**
+	 * Adds the current generation to the {@link #history}, if it's on.
+	 * Generations held by {@link HashLife} are left out, its snapshots only
+	 * cover the visible window. The history starts over once the cells
+	 * move to another engine.
+	 */
+	private void record() {
+		if (history.isEnabled() && !(engine instanceof HashLife)) {
+			history.record(collect(0));
+		}
+	}
+	
+	/**
+	 * Replaces the cells with a pattern from given file. The rule of the
+	 * file is applied before the cells are decoded, and they go straight
+	 * into a new engine of the type that the rule, the torus and the size
+	 * of the pattern call for. A file that fails to load leaves the board 
+	 * and the rule as they were.
+	 */
+	private void load(File file) {
+		Rule oldRule = rule;
+		StateRule oldStateRule = stateRule;
+		final EngineType[] type = new EngineType[1];
+		PatternLoader loader = new PatternLoader(new PatternLoader.Target() {
+			@Override
+			public Engine prepare(String rule, int width, int height,
+					boolean macrocell) {
+				if (rule != null) {
+					setRulestring(rule);
+				}
+				type[0] = getPatternType((long) width * height, macrocell);
+				return type[0].create(context);
 			}
+		});
+		try {
+			loader.load(file);
+		} catch (IOException e) {
+			Utils.debug(this, "Failed to load %s: %s", file, e);
+			synchronized (this) {
+				rule = oldRule;
+				stateRule = oldStateRule;
+			}
+			return;
+		}
+		if (loader.getEngine() != null) {
+			engine = loader.getEngine();
+			engineType = type[0];
+			// The new engine knows no rule yet.
+			engineRule = null;
+			engineStateRule = null;
+			applyRule(engine);
 		}
+		generation = 0;
+		cycles.reset();
+		count();
+		record();
+		publish(true);
 	}
 	
 	/**
-	 * Checks if given coordinates are out of visible screen. 1 cell is reserved
-	 * for padding.
-	 * @return true if coordinates are invisible, false otherwise.
+	 * @param area Area of the pattern, 0 if not known.
+	 * @param macrocell true for a macrocell file.
+	 * @return Type of the engine that a pattern should be loaded into.
 	 */
-	private boolean isOutOfBounds(int x, int y) {
+	private EngineType getPatternType(long area, boolean macrocell) {
+		if (isTorus()) {
+			return EngineType.TORUS;
+		}
+		if (stateRule != null) {
+			return EngineType.STATES;
+		}
+		if (macrocell) {
+			return EngineType.HASHLIFE;
+		}
+		if (area > MAX_MIGRATED_AREA) {
+			// Takes memory by the cells rather than by the area, the 
+			// selector moves them on once it has seen them.
+			return EngineType.SPARSE;
+		}
+		EngineType pinned = selector.getPinned();
+		if (pinned != null) {
+			return pinned;
+		}
+		return engineType.isAutomatic() ? engineType : EngineType.SPARSE;
+	}
+	
+	/**
+	 * Replaces the cells with a board from given file.
+	 */
+	private void restore(File file) {
+		long start = System.currentTimeMillis();
+		BoardFile board;
+		try {
+			board = BoardFile.read(file);
+		} catch (IOException e) {
+			Utils.debug(this, "Failed to restore %s: %s", file, e);
+			return;
+		}
+		// Rule first, state rules can't be set on a torus. Then the cells
+		// go into the engine that the rule and the torus call for.
+		engine.clear();
+		setTorus(0, 0);
+		setRulestring(board.getRule());
+		if (board.getTorusWidth() > 0) {
+			setTorus(board.getTorusWidth(), board.getTorusHeight());
+		}
+		Engine engine = prepareEngine();
+		applyRule(engine);
+		board.restore(engine);
+		generation = board.getGeneration();
+		cycles.reset();
+		count();
+		record();
+		publish(true);
+		Utils.debug(this, "Restoring generation %d, %d cells, took: %s",
+				generation, board.getCells(), 
+				System.currentTimeMillis() - start);
+	}
+	
+	/**
+	 * Sets a rule given as a rulestring of any supported family. Rules that
+	 * can't be parsed or run are logged and ignored.
+	 */
+	private void setRulestring(String rule) {
+		try {
+			setRule(Rule.parse(rule));
+			return;
+		} catch (IllegalArgumentException e) {
+			// Not a Life-like rule.
+		}
+		try {
+			setRule(StateRule.parse(rule));
+		} catch (RuntimeException e) {
+			Utils.debug(this, "Ignoring rule %s: %s", rule, e.getMessage());
+		}
+	}
+	
+	/**
+	 * @return Area the current engine works on, in cells. That's the whole
+	 * board for {@link DenseGrid}, and the bounding box of the last
+	 * published generation otherwise.
+	 */
+	private long getArea() {
+		Engine engine = this.engine;
+		if (engine instanceof DenseGrid) {
+			return ((DenseGrid) engine).getArea();
+		}
+		if (engine instanceof TorusGrid) {
+			TorusGrid torus = (TorusGrid) engine;
+			return (long) torus.getWidth() * torus.getHeight();
+		}
+		if (engine instanceof StateGrid) {
+			return ((StateGrid) engine).getArea();
+		}
+		return snapshot.get().getArea();
+	}
+	
+	/**
+	 * @return Number of living cells.
+	 */
+	public long getPopulation() {
+		if (cycles.isReplaying()) {
+			long population = cycles.getPopulation(generation);
+			if (population >= 0) {
+				return population;
+			}
+		}
+		return engine.getPopulation();
+	}
+	
+	/**
+	 * Gets the latest finished generation. Does not lock or copy anything,
+	 * so it can be called from any thread as often as needed.
+	 * 
+	 * To keep ticks from allocating, a new snapshot is only built after the
+	 * previous one has been taken, so it may lag behind the engine by the
+	 * generations that ran since the previous read.
+	 * 
+	 * @see Snapshot#getVersion()
+	 */
+	public Snapshot getSnapshot() {
+		snapshotTaken = true;
+		return snapshot.get();
+	}
+	
+	/**
+	 * Publishes the current cells as a new {@link Snapshot}, unless nobody
+	 * has read the previous one yet. Main loop thread only.
+	 * 
+	 * @param force true to publish even if the previous snapshot was not
+	 * read.
+	 */
+	private void publish(boolean force) {
+		if (!force && !snapshotTaken) {
+			snapshotStale = true;
+			return;
+		}
 		
-		if (x < -1 || y < -1 
-				|| x > context.getVideo().getMatrixWidth() + 1 
-				|| y > context.getVideo().getMatrixHeight() + 1) {
-			return true;
+		Snapshot previous = snapshot.get();
+		snapshotTaken = false;
+		snapshotStale = false;
+		snapshot.set(collect(previous.getVersion() + 1));
+	}
+	
+	/**
+	 * Builds a {@link Snapshot} of the current cells. Main loop thread only.
+	 * While a cycle is replayed, the engine is behind, and the cells come
+	 * from the cycle instead. Snapshots of {@link HashLife} only have the
+	 * visible cells.
+	 */
+	private Snapshot collect(long version) {
+		if (cycles.isReplaying()) {
+			return cycles.getPhase(generation).renumber(version, generation);
+		}
+		snapshotSize = 0;
+		Engine engine = this.engine;
+		if (engine instanceof HashLife) {
+			collectVisible((HashLife) engine);
+		} else {
+			engine.visit(snapshotCollector);
+		}
+		long[] cells = new long[snapshotSize];
+		System.arraycopy(snapshotCells, 0, cells, 0, snapshotSize);
+		Arrays.sort(cells);
+		
+		byte[] states = null;
+		if (snapshotStates.size() > 0) {
+			// Cells that are not in the map are alive.
+			states = new byte[cells.length];
+			for (int i = 0; i < cells.length; i++) {
+				int state = snapshotStates.get(cells[i]);
+				states[i] = (byte) (state == 0 ? 1 : state);
+			}
+			snapshotStates.clear();
 		}
 		
-		return false;
+		HashLife.Node universe = engine instanceof HashLife 
+				? ((HashLife) engine).getRoot() : null;
+		return new Snapshot(version, generation, cells, states, universe);
 	}
-
+	
+	/**
+	 * Publishes a snapshot if the engine got ahead of the last published
+	 * one, or if the screen has moved away from the cells it covers. Main 
+	 * loop calls this when it's idle, so that readers eventually see the
+	 * latest generation even if they skipped a few.
+	 */
+	public void publishIfStale() {
+		if (snapshotStale || isWindowStale()) {
+			publish(true);
+		}
+	}
+	
+	/**
+	 * @return true if {@link HashLife} holds the cells and the visible 
+	 * window has changed since the last snapshot.
+	 */
+	private boolean isWindowStale() {
+		Video video = context.getVideo();
+		return engine instanceof HashLife && video != null
+				&& video.getViewport().getVersion() != windowVersion;
+	}
+	
+	/**
+	 * Passes the visible cells of given universe to 
+	 * {@link #snapshotCollector}.
+	 */
+	private void collectVisible(HashLife universe) {
+		Video video = context.getVideo();
+		if (video == null) {
+			universe.visit(snapshotCollector, -HEADLESS_WINDOW / 2, 
+					-HEADLESS_WINDOW / 2, HEADLESS_WINDOW, HEADLESS_WINDOW);
+			return;
+		}
+		// Version first, a window that moves meanwhile gets published again.
+		Viewport viewport = video.getViewport();
+		windowVersion = viewport.getVersion();
+		universe.visit(snapshotCollector, viewport.getFirstColumn(),
+				viewport.getFirstRow(), viewport.getColumns(), 
+				viewport.getRows());
+	}
+	
+	/**
+	 * Passes every cell of the latest published generation to given
+	 * visitor without creating any objects.
+	 */
+	public void visitCells(CellVisitor visitor) {
+		getSnapshot().visit(visitor);
+	}
+	
 	public List<Cell> getCells() {
-		// Return a copy of the cells we have. We don't want to leak our 
+		// Return a copy of the cells we have. We don't want to leak our
 		// internals in modifiable state.
-		return new ArrayList<Cell>(cells);
+		final List<Cell> cells = new ArrayList<Cell>();
+		visitCells(new CellVisitor() {
+			@Override
+			public void visit(int x, int y) {
+				cells.add(new Cell(x, y));
+			}
+		});
+		return cells;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,165 @@
+package com.varaneckas.conway;
+
+import java.util.Arrays;
+
+/**
+ * Set of cells packed into <code>long</code> values, see 
+ * {@link #pack(int, int)}. Uses open addressing with linear probing, so
+ * apart from growing it never allocates - no {@link Cell} objects, no
+ * boxing, no entry objects.
+ * 
+ * Slots can be iterated directly with {@link #capacity()} and 
+ * {@link #keyAt(int)}, empty slots hold {@link #EMPTY}. The table shrinks
+ * back on {@link #clear()} when it is mostly empty, so that iterating
+ * doesn't get stuck with the slots of a crowd that is long gone.
+ * 
+ * @author Tomas Varaneckas
+ */
+public class LongCellSet {
+	
+	/**
+	 * Marks an empty slot. Cell (Integer.MIN_VALUE, 0) packs to this value
+	 * and can't be stored.
+	 */
+	public static final long EMPTY = Long.MIN_VALUE;
+	
+	private long[] keys;
+	
+	private int size;
+	
+	/**
+	 * Size at which the table grows. Load factor is 0.5.
+	 */
+	private int threshold;
+	
+	/**
+	 * The table never shrinks below its initial capacity.
+	 */
+	private final int minCapacity;
+	
+	public LongCellSet(int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		minCapacity = capacity;
+		allocate(capacity);
+	}
+	
+	/**
+	 * Packs cell coordinates into a single <code>long</code>: x goes to the 
+	 * upper half, y goes to the lower half.
+	 */
+	public static long pack(int x, int y) {
+		return ((long) x << 32) | (y & 0xFFFFFFFFL);
+	}
+	
+	public static int unpackX(long cell) {
+		return (int) (cell >> 32);
+	}
+	
+	public static int unpackY(long cell) {
+		return (int) cell;
+	}
+	
+	/**
+	 * Spreads the bits of a packed cell, so that neighboring cells don't
+	 * end up in neighboring slots.
+	 */
+	static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xFF51AFD7ED558CCDL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+	
+	/**
+	 * @return true if the cell was not in the set yet.
+	 */
+	public boolean add(long key) {
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (keys[slot] != EMPTY) {
+			if (keys[slot] == key) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		if (++size > threshold) {
+			grow();
+		}
+		return true;
+	}
+	
+	public boolean contains(long key) {
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (keys[slot] != EMPTY) {
+			if (keys[slot] == key) {
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Removes all the cells. Keeps the table, so refilling it with a 
+	 * similar amount of cells does not allocate. If the cells took less
+	 * than 1/8 of it, the table is replaced with one that they would fill
+	 * to 1/4.
+	 */
+	public void clear() {
+		if (keys.length > minCapacity && size * 8 < keys.length) {
+			int capacity = minCapacity;
+			while (capacity < size * 4) {
+				capacity <<= 1;
+			}
+			allocate(capacity);
+			size = 0;
+		} else if (size > 0) {
+			Arrays.fill(keys, EMPTY);
+			size = 0;
+		}
+	}
+	
+	/**
+	 * @return Number of slots, for iterating with {@link #keyAt(int)}.
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+	
+	/**
+	 * @return Cell in given slot, or {@link #EMPTY}.
+	 */
+	public long keyAt(int slot) {
+		return keys[slot];
+	}
+	
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		threshold = capacity / 2;
+	}
+	
+	private void grow() {
+		long[] old = keys;
+		allocate(old.length * 2);
+		int mask = keys.length - 1;
+		for (long key : old) {
+			if (key != EMPTY) {
+				int slot = hash(key) & mask;
+				while (keys[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = key;
+			}
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package com.varaneckas.conway;
+
+import java.util.Arrays;
+
+/**
+ * Map from packed cells (see {@link LongCellSet#pack(int, int)}) to 
+ * <code>int</code> counters. Uses open addressing with linear probing, 
+ * so counting does not box or allocate anything.
+ * 
+ * Slots can be iterated directly with {@link #capacity()}, 
+ * {@link #keyAt(int)} and {@link #valueAt(int)}. Empty slots hold 
+ * {@link LongCellSet#EMPTY}. Like {@link LongCellSet}, the table shrinks
+ * back on {@link #clear()} when it is mostly empty.
+ * 
+ * @author Tomas Varaneckas
+ */
+public class LongCountMap {
+	
+	private static final long EMPTY = LongCellSet.EMPTY;
+	
+	private long[] keys;
+	private int[] values;
+	
+	private int size;
+	
+	/**
+	 * Size at which the table grows. Load factor is 0.5.
+	 */
+	private int threshold;
+	
+	/**
+	 * The table never shrinks below its initial capacity.
+	 */
+	private final int minCapacity;
+	
+	public LongCountMap(int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		minCapacity = capacity;
+		allocate(capacity);
+	}
+	
+	/**
+	 * Adds given amount to the counter of a cell. Missing counters start
+	 * from zero.
+	 */
+	public void add(long key, int amount) {
+		int mask = keys.length - 1;
+		int slot = LongCellSet.hash(key) & mask;
+		long k;
+		while ((k = keys[slot]) != EMPTY) {
+			if (k == key) {
+				values[slot] += amount;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = amount;
+		if (++size > threshold) {
+			grow();
+		}
+	}
+	
+	/**
+	 * @return Counter of given cell, zero if there is none.
+	 */
+	public int get(long key) {
+		int mask = keys.length - 1;
+		int slot = LongCellSet.hash(key) & mask;
+		long k;
+		while ((k = keys[slot]) != EMPTY) {
+			if (k == key) {
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return 0;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Removes all the counters. Keeps the table for reuse, unless the
+	 * counters took less than 1/8 of it, see {@link LongCellSet#clear()}.
+	 */
+	public void clear() {
+		if (keys.length > minCapacity && size * 8 < keys.length) {
+			int capacity = minCapacity;
+			while (capacity < size * 4) {
+				capacity <<= 1;
+			}
+			allocate(capacity);
+			size = 0;
+		} else if (size > 0) {
+			Arrays.fill(keys, EMPTY);
+			size = 0;
+		}
+	}
+	
+	/**
+	 * @return Number of slots, for iterating with {@link #keyAt(int)}.
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+	
+	/**
+	 * @return Cell in given slot, or {@link LongCellSet#EMPTY}.
+	 */
+	public long keyAt(int slot) {
+		return keys[slot];
+	}
+	
+	/**
+	 * @return Counter in given slot. Meaningless for empty slots.
+	 */
+	public int valueAt(int slot) {
+		return values[slot];
+	}
+	
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		threshold = capacity / 2;
+	}
+	
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(oldKeys.length * 2);
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			long key = oldKeys[i];
+			if (key != EMPTY) {
+				int slot = LongCellSet.hash(key) & mask;
+				while (keys[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = key;
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+}
@@ -5,6 +5,11 @@ import android.util.Log;
 /**
  * Main loop of the game. Controls the pulse.
  * 
+ * The loop is split in two threads that don't wait for each other:
+ * simulation advances the generations at a fixed rate, and rendering draws
+ * the latest finished generation at display rate. A slow frame does not
+ * slow the simulation down, and a slow generation does not drop frames.
+ * 
  * @author Tomas Varaneckas
  * @see #update()
  */
@@ -13,26 +18,108 @@ public class MainLoop implements Runnable {
 	private final GameContext context;
 	
 	/**
-	 * Our desired frame duration.
+	 * Default duration of a generation.
 	 */
 	public final static long MIN_TICK_TIME = 200;
 	
 	/**
-	 * Time when last update happened. Used for controlling the frame rate.
+	 * Our desired frame duration, about 60 frames per second.
+	 */
+	public final static long FRAME_TIME = 16;
+	
+	/**
+	 * Upper limit for {@link #setGenerationsPerSecond(int)}.
+	 */
+	public final static int MAX_GENERATIONS_PER_SECOND = 100000;
+	
+	/**
+	 * If simulation falls behind by more than this (in nanoseconds), the
+	 * missed generations are dropped instead of being caught up with.
+	 */
+	private final static long MAX_LAG = 250 * 1000000L;
+	
+	/**
+	 * Duration of a generation in nanoseconds.
+	 * @see #setGenerationsPerSecond(int)
+	 */
+	private volatile long tickNanos = MIN_TICK_TIME * 1000000L;
+
+	/**
+	 * Decides how many generations fit into a frame in warp mode.
+	 * @see #setWarp(int)
+	 */
+	private final WarpGovernor governor = new WarpGovernor(FRAME_TIME);
+	
+	/**
+	 * Time when last frame was drawn, in nanoseconds. Used for controlling
+	 * the frame rate.
 	 */
 	private long lastUpdate;
 	
 	/**
-	 * The main loop {@link Thread}.
+	 * The simulation {@link Thread}.
 	 */
 	private Thread mainLoop;
 	
+	/**
+	 * The rendering {@link Thread}.
+	 */
+	private Thread renderLoop;
+	
+	/**
+	 * Draws the frames, see {@link #render()}.
+	 */
+	private final Runnable renderer = new Runnable() {
+		@Override
+		public void run() {
+			render();
+		}
+	};
+	
 	public MainLoop(GameContext context) {
 		this.context = context;
 	}
 
 	/**
-	 * The main loop happens here.
+	 * Sets the simulation speed. Takes effect on the next generation.
+	 * 
+	 * @param generations Generations per second, from 1 to
+	 * {@link #MAX_GENERATIONS_PER_SECOND}.
+	 */
+	public void setGenerationsPerSecond(int generations) {
+		if (generations < 1 || generations > MAX_GENERATIONS_PER_SECOND) {
+			throw new IllegalArgumentException(
+					"Generations per second out of range: " + generations);
+		}
+		Utils.debug(this, "Setting speed to %d generations per second",
+				generations);
+		tickNanos = 1000000000L / generations;
+	}
+	
+	public int getGenerationsPerSecond() {
+		return (int) (1000000000L / tickNanos);
+	}
+	
+	/**
+	 * Switches warp mode. In warp mode generations are not run at a fixed
+	 * rate, but in batches once per frame, as many as the
+	 * {@link WarpGovernor} allows.
+	 *
+	 * @param generations Generations per frame, {@link WarpGovernor#OFF} or
+	 * {@link WarpGovernor#AS_MANY_AS_FIT}.
+	 */
+	public void setWarp(int generations) {
+		governor.setWarp(generations);
+	}
+
+	public WarpGovernor getGovernor() {
+		return governor;
+	}
+	
+	/**
+	 * The simulation loop happens here. It runs {@link #update()} on a fixed
+	 * timestep: if a generation takes longer than it should, the following
+	 * ones run back to back until the simulation catches up.
 	 * @see #start()
 	 * @see #update()
 	 */
@@ -40,37 +127,152 @@ public class MainLoop implements Runnable {
 	public void run() {
 		Utils.debug(this, "Starting game loop");
 		
+		long next = System.nanoTime();
+		
 		// The main loop will run until the game gets stopped.
 		while (context.getState() != State.STOPPED) {
 			
 			// Handle game pause. Just sleep and wait till we're in a different
 			// state.
 			while (context.getState() == State.PAUSED) {
+				// Let the readers catch up with the last generation.
+				context.getLogic().publishIfStale();
 				Utils.sleep(100);
+				next = System.nanoTime();
+			}
+			
+			if (governor.isEnabled()) {
+				warp();
+				next = System.nanoTime();
+				continue;
+			}
+
+			long now = System.nanoTime();
+			if (now < next) {
+				// We're ahead. Let the readers catch up with the last
+				// generation while waiting for the next one.
+				context.getLogic().publishIfStale();
+				Utils.sleepNanos(next - now);
+				continue;
 			}
 			
 			// Main update - see the method for details.
 			update();
+			
+			next += tickNanos;
+			if (now - next > MAX_LAG) {
+				// Way behind, don't try to catch up.
+				next = now;
+			}
 		}
 		
 		Utils.debug(this, "Stopping game loop");
 	}
 	
 	/**
-	 * Gives the spark to the main loop. 
+	 * Runs a frame worth of generations in warp mode and sleeps for the rest
+	 * of the frame, so that simulation stays within the budget of the
+	 * {@link WarpGovernor}.
+	 */
+	private void warp() {
+		long start = System.nanoTime();
+		long budget = governor.getBudgetNanos();
+		int generations = governor.getGenerations();
+		int done = 0;
+		long elapsed = 0;
+		while (done < generations) {
+			update();
+			done++;
+			elapsed = System.nanoTime() - start;
+			if (elapsed > budget) {
+				// The board got busier than the estimate, stop early.
+				break;
+			}
+		}
+		governor.record(elapsed, done);
+		context.getLogic().publishIfStale();
+
+		long rest = governor.getFrameNanos() - (System.nanoTime() - start);
+		if (rest > 0) {
+			Utils.sleepNanos(rest);
+		}
+	}
+	
+	/**
+	 * The rendering loop. Draws the latest finished generation at display
+	 * rate, no matter how fast the simulation goes.
+	 */
+	private void render() {
+		Utils.debug(this, "Starting render loop");
+		
+		while (context.getState() != State.STOPPED) {
+			
+			// Nothing changes on screen while paused.
+			while (context.getState() == State.PAUSED) {
+				Utils.sleep(100);
+			}
+			
+			try {
+				// Draw the latest cell matrix on our game view.
+				long start = System.nanoTime();
+				context.getVideo().update();
+				context.getMetrics().record(Metrics.Phase.RENDER, 
+						System.nanoTime() - start);
+				
+				// Limits frame rate on faster devices.
+				limitFPS();
+			
+			// Let's protect ourselves from a disaster when device draws the
+			// exception popup.
+			} catch (Exception e) {
+				Log.e(MainLoop.class.getSimpleName(),
+						"Unexpected exception in render loop", e);
+			}
+		}
+		
+		Utils.debug(this, "Stopping render loop");
+	}
+	
+	/**
+	 * Gives the spark to the main loop. If the loop is still alive, it is
+	 * resumed. If it has been stopped but its threads haven't noticed yet,
+	 * they are waited for before new ones start, so that there is never 
+	 * more than one simulation thread touching the engines.
 	 * @see #run()
 	 */
-	public void start() {
+	public synchronized void start() {
 		
-		if (mainLoop != null) {
-			// Don't start a second game loop - the game was most likely paused 
-			// or stopped, so just resume.
-			context.setState(State.RUNNING);
+		if (isAlive(mainLoop) || isAlive(renderLoop)) {
+			if (context.getState() != State.STOPPED) {
+				// Don't start a second game loop - the game was most likely
+				// paused, so just resume.
+				context.setState(State.RUNNING);
+				return;
+			}
+			Utils.debug(this, "Waiting for the stopped game loop threads");
+			join(mainLoop);
+			join(renderLoop);
 		}
 		
-		Utils.debug(this, "Starting game loop thread");
-		mainLoop = new Thread(this);
+		context.setState(State.RUNNING);
+		Utils.debug(this, "Starting game loop threads");
+		mainLoop = new Thread(this, "Simulation");
 		mainLoop.start();
+		renderLoop = new Thread(renderer, "Render");
+		renderLoop.start();
+	}
+	
+	private static boolean isAlive(Thread thread) {
+		return thread != null && thread.isAlive();
+	}
+	
+	private static void join(Thread thread) {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted while waiting for " 
+					+ thread.getName(), e);
+		}
 	}
 	
 	/**
@@ -102,11 +304,13 @@ public class MainLoop implements Runnable {
 	 * sound, so we have nothing here for that.
 	 * 
 	 * Video.
-	 * Finally, video update happens in {@link Video#update()}.
+	 * Video runs on its own thread, see {@link #render()}. It draws the
+	 * latest {@link Snapshot} that {@link Logic} has published, so it never
+	 * has to wait for the simulation, and simulation never waits for it.
 	 * 
-	 * After everything runs, {@link #limitFPS()} ensures that the game does not
-	 * run too fast. Although if you won't make any optimizations, your game 
-	 * update will not be faster than {@link #MIN_TICK_TIME}.
+	 * {@link #run()} calls this method once per generation, at the rate set
+	 * with {@link #setGenerationsPerSecond(int)}, and {@link #limitFPS()}
+	 * ensures that the frames are not drawn faster than the display needs.
 	 * 
 	 * I recommend reading this great article:
 	 * http://www.rbgrn.net/content/54-getting-started-android-game-development
@@ -114,13 +318,10 @@ public class MainLoop implements Runnable {
 	private void update() {
 		try {
 			// Process input and recalculate cells.
+			long start = System.nanoTime();
 			context.getLogic().tick();
-			
-			// Draw new cell matrix on our game view.
-			context.getVideo().update();
-			
-			// Limits game speed on faster devices.
-			limitFPS();
+			context.getMetrics().record(Metrics.Phase.TICK, 
+					System.nanoTime() - start);
 			
 		// Let's protect ourselves from a disaster when device draws the 
 		// exception popup.
@@ -131,18 +332,20 @@ public class MainLoop implements Runnable {
 	}
 
 	/**
-	 * Counts time that passed since last game update and sleeps for a while if
-	 * this time was shorter than target frame time.
+	 * Counts time that passed since last frame and sleeps for a while if
+	 * this time was shorter than target frame time. The sleep goes into
+	 * {@link Metrics}.
 	 */
 	private void limitFPS() {
-		long now = System.currentTimeMillis();
+		long now = System.nanoTime();
 		if (lastUpdate > 0) {
 			long delta = now - lastUpdate;
-			if (delta < MIN_TICK_TIME) {
-				Utils.sleep(MIN_TICK_TIME - delta);
+			if (delta < FRAME_TIME * 1000000L) {
+				Utils.sleepNanos(FRAME_TIME * 1000000L - delta);
 			}
 		}
-		lastUpdate = System.currentTimeMillis();
+		lastUpdate = System.nanoTime();
+		context.getMetrics().record(Metrics.Phase.SLEEP, lastUpdate - now);
 	}
 
 }
@@ -0,0 +1,170 @@
+package com.varaneckas.conway;
+
+/**
+ * Measurements of the running game: a {@link LatencyHistogram} for every
+ * {@link Phase} of the main loop, and counters of the board. Recording is
+ * cheap and doesn't allocate, so it is always on. {@link Video} shows it
+ * all on screen when asked to, see {@link Video#setOverlay(boolean)}, and
+ * {@link #dump()} gives it as text anywhere else.
+ * 
+ * Every phase is recorded from a single thread, the counters are written
+ * by the simulation thread. Everything can be read from any thread.
+ * 
+ * @author Tomas Varaneckas
+ * @see GameContext#getMetrics()
+ */
+public class Metrics {
+	
+	/**
+	 * Timed parts of the main loop.
+	 */
+	public enum Phase {
+		
+		/**
+		 * Touches put into the engine by {@link Logic#tick()}, only timed
+		 * when there are any.
+		 */
+		INPUT,
+		
+		/**
+		 * A whole {@link Logic#tick()}.
+		 */
+		TICK,
+		
+		/**
+		 * A frame drawn by {@link Video#update()}.
+		 */
+		RENDER,
+		
+		/**
+		 * Sleep of the render loop that keeps the frame rate down.
+		 */
+		SLEEP
+	}
+	
+	/**
+	 * Names of the phases in the text, made once.
+	 */
+	private static final String[] LABELS = new String[Phase.values().length];
+	
+	static {
+		for (Phase phase : Phase.values()) {
+			LABELS[phase.ordinal()] = phase.name().toLowerCase();
+		}
+	}
+	
+	private final LatencyHistogram[] histograms =
+			new LatencyHistogram[Phase.values().length];
+	
+	private volatile long generation;
+	
+	private volatile long population;
+	
+	private volatile long births;
+	
+	private volatile long deaths;
+	
+	public Metrics() {
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+	
+	/**
+	 * Adds a duration of given phase.
+	 */
+	public void record(Phase phase, long nanos) {
+		histograms[phase.ordinal()].record(nanos);
+	}
+	
+	public LatencyHistogram getHistogram(Phase phase) {
+		return histograms[phase.ordinal()];
+	}
+	
+	/**
+	 * Updates the counters after the board has changed.
+	 * 
+	 * @param generation Current generation.
+	 * @param population Living cells of the current generation.
+	 * @param births Cells born since the last update, if known.
+	 * @param deaths Cells died since the last update, if known.
+	 */
+	public void count(long generation, long population, long births,
+			long deaths) {
+		this.generation = generation;
+		this.population = population;
+		this.births += births;
+		this.deaths += deaths;
+	}
+	
+	public long getGeneration() {
+		return generation;
+	}
+	
+	public long getPopulation() {
+		return population;
+	}
+	
+	/**
+	 * @return Cells born since the game started, in steps of a
+	 * {@link CountingEngine}.
+	 */
+	public long getBirths() {
+		return births;
+	}
+	
+	/**
+	 * @return Cells died since the game started, in steps of a
+	 * {@link CountingEngine}.
+	 */
+	public long getDeaths() {
+		return deaths;
+	}
+	
+	/**
+	 * @return All the measurements as text, a line per counter and per
+	 * phase, times in milliseconds.
+	 */
+	public String dump() {
+		StringBuilder text = new StringBuilder();
+		text.append("generation ").append(generation).append('\n');
+		text.append("population ").append(population).append('\n');
+		text.append("births ").append(births).append('\n');
+		text.append("deaths ").append(deaths).append('\n');
+		for (Phase phase : Phase.values()) {
+			append(text, phase);
+			text.append('\n');
+		}
+		return text.toString();
+	}
+	
+	/**
+	 * Appends a line about given phase without allocating anything but the
+	 * room in the builder, for drawing it every frame.
+	 */
+	void append(StringBuilder text, Phase phase) {
+		LatencyHistogram histogram = getHistogram(phase);
+		text.append(LABELS[phase.ordinal()]).append(' ')
+				.append(histogram.getCount());
+		text.append(" p50 ");
+		appendMillis(text, histogram.getPercentile(0.5));
+		text.append(" p99 ");
+		appendMillis(text, histogram.getPercentile(0.99));
+		text.append(" max ");
+		appendMillis(text, histogram.getMax());
+		text.append(" ms");
+	}
+	
+	/**
+	 * Appends given duration in milliseconds, with two decimals.
+	 */
+	private static void appendMillis(StringBuilder text, long nanos) {
+		long hundredths = (nanos + 5000) / 10000;
+		text.append(hundredths / 100).append('.');
+		long rest = hundredths % 100;
+		if (rest < 10) {
+			text.append('0');
+		}
+		text.append(rest);
+	}
+}
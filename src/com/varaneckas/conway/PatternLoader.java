@@ -0,0 +1,653 @@
+package com.varaneckas.conway;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads patterns from files in the RLE format and in the macrocell format
+ * of Golly, straight into an {@link Engine}.
+ * 
+ * Files are streamed through NIO: large ones are memory mapped a window at
+ * a time, small ones are read through a single buffer. Bytes are decoded
+ * as they come, so no text lines, strings or {@link Cell} objects are made
+ * for the cells, and memory use does not depend on the size of the file.
+ * 
+ * RLE runs of living cells go to {@link DenseGrid#setRun(int, int, int)}
+ * when the target is a {@link DenseGrid}, a whole word at a time. For
+ * {@link HashLife}, a band of 8 rows is collected and then put into the
+ * tree as 8 x 8 leaves, so that the path to every cell is not rebuilt. The
+ * macrocell format is a HashLife quadtree already, so its nodes are built
+ * directly in {@link HashLife}, and only copied cell by cell when the
+ * target is another kind of engine.
+ * 
+ * Patterns are centered on 0,0. The rule from the file is not applied, it
+ * is up to the caller, see {@link #getRule()}. A {@link Target} can pick
+ * the engine once the rule and the size of the pattern are known, before
+ * any cells are decoded.
+ * 
+ * @author Tomas Varaneckas
+ * @see Logic#loadPattern(File)
+ */
+public class PatternLoader {
+	
+	/**
+	 * Files larger than this are memory mapped.
+	 */
+	private static final long MAP_THRESHOLD = 1 << 20;
+	
+	/**
+	 * Part of a file that is mapped at a time, so that even huge files take
+	 * a bounded amount of address space.
+	 */
+	private static final long MAP_WINDOW = 16 << 20;
+	
+	/**
+	 * Size of the buffer that small files are read through.
+	 */
+	private static final int READ_BUFFER = 64 * 1024;
+	
+	/* What the decoder expects next. */
+	private static final int UNKNOWN = 0;
+	private static final int RLE_HEADER = 1;
+	private static final int RLE_BODY = 2;
+	private static final int MACROCELL = 3;
+	private static final int DONE = 4;
+	
+	/**
+	 * Longest run of an RLE item, and farthest a pattern may reach from its
+	 * top left corner, so that the coordinates never wrap around.
+	 */
+	private static final int MAX_EXTENT = 1 << 30;
+	
+	/**
+	 * Picks the engine for a pattern once its header is read.
+	 */
+	public interface Target {
+		
+		/**
+		 * Called before any cells are decoded.
+		 * 
+		 * @param rule Rule given in the file, or null.
+		 * @param width Width from the RLE header, 0 if not known.
+		 * @param height Height from the RLE header, 0 if not known.
+		 * @param macrocell true for a macrocell file, which is a 
+		 * {@link HashLife} tree already.
+		 * @return Empty engine that gets the cells.
+		 */
+		Engine prepare(String rule, int width, int height, boolean macrocell);
+	
+	}
+	
+	/**
+	 * Picks {@link #engine} for every file, or null if it's always the same.
+	 */
+	private final Target target;
+	
+	/**
+	 * Engine that gets the cells, null until {@link #target} picks it.
+	 */
+	private Engine engine;
+	
+	/**
+	 * {@link #engine} if it's a {@link DenseGrid}, null otherwise.
+	 */
+	private DenseGrid dense;
+	
+	/**
+	 * {@link #engine} if it's a {@link StateGrid}, null otherwise.
+	 */
+	private StateGrid states;
+	
+	/**
+	 * {@link #engine} if it's a {@link HashLife}, null otherwise.
+	 */
+	private HashLife hashLife;
+	
+	/**
+	 * 8 x 8 blocks of the current band of 8 rows of an RLE pattern, for
+	 * {@link #hashLife}. Bit y * 8 + x of a block is cell x,y of it.
+	 */
+	private long[] band;
+	
+	/**
+	 * World coordinates of the top left corner of {@link #band}, multiples
+	 * of 8.
+	 */
+	private int bandLeft, bandTop;
+	
+	private int mode;
+	
+	/**
+	 * Current line of the RLE header or of a macrocell file. RLE body is
+	 * decoded byte by byte instead, as it may be a single huge line.
+	 */
+	private byte[] line = new byte[128];
+	private int lineLength;
+	
+	/**
+	 * World coordinates of the top left corner of an RLE pattern.
+	 */
+	private int originX, originY;
+	
+	/**
+	 * Position in an RLE pattern, relative to the origin.
+	 */
+	private int x, y;
+	
+	/**
+	 * Run count of the RLE item being decoded, 0 if there's none.
+	 */
+	private int count;
+	
+	/**
+	 * Where macrocell nodes are built.
+	 */
+	private HashLife universe;
+	
+	/**
+	 * Macrocell nodes in the order of the file, so that later nodes can
+	 * refer to them by number. Entry 0 is unused, number 0 means empty.
+	 */
+	private List<HashLife.Node> nodes;
+	
+	/**
+	 * Numbers of a macrocell node line.
+	 */
+	private final int[] numbers = new int[5];
+	
+	private String rule;
+	
+	private long cells;
+	
+	private long bytes;
+	
+	private long nanos;
+	
+	/**
+	 * @param engine Engine that gets the cells. It should be empty.
+	 */
+	public PatternLoader(Engine engine) {
+		target = null;
+		setEngine(engine);
+	}
+	
+	/**
+	 * @param target Picks the engine for every loaded file.
+	 */
+	public PatternLoader(Target target) {
+		this.target = target;
+	}
+	
+	private void setEngine(Engine engine) {
+		this.engine = engine;
+		dense = engine instanceof DenseGrid ? (DenseGrid) engine : null;
+		states = engine instanceof StateGrid ? (StateGrid) engine : null;
+		hashLife = engine instanceof HashLife ? (HashLife) engine : null;
+	}
+	
+	/**
+	 * Lets {@link #target} pick the engine, unless it's picked already.
+	 */
+	private void prepare(int width, int height, boolean macrocell) {
+		if (engine == null) {
+			setEngine(target.prepare(rule, width, height, macrocell));
+		}
+	}
+	
+	/**
+	 * Loads a pattern file. The format is recognized by the content.
+	 */
+	public void load(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			load(in.getChannel());
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Loads a pattern from the whole content of given channel. The
+	 * position of the channel is not used.
+	 */
+	public void load(FileChannel channel) throws IOException {
+		long start = System.nanoTime();
+		reset();
+		
+		long size = channel.size();
+		if (size > MAP_THRESHOLD) {
+			for (long position = 0; position < size && mode != DONE;
+					position += MAP_WINDOW) {
+				feed(channel.map(FileChannel.MapMode.READ_ONLY, position,
+						Math.min(MAP_WINDOW, size - position)));
+			}
+		} else {
+			ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER);
+			long position = 0;
+			int read;
+			while (mode != DONE
+					&& (read = channel.read(buffer, position)) > 0) {
+				position += read;
+				buffer.flip();
+				feed(buffer);
+				buffer.clear();
+			}
+		}
+		finish();
+		
+		bytes = size;
+		nanos = System.nanoTime() - start;
+		double seconds = Math.max(1, nanos) / 1e9;
+		Utils.debug(this, "Loaded %d cells from %d bytes in %d ms, "
+				+ "%.1f MB/s, %.0f cells/s", cells, bytes, nanos / 1000000,
+				bytes / seconds / (1 << 20), cells / seconds);
+	}
+	
+	private void reset() {
+		mode = UNKNOWN;
+		lineLength = 0;
+		originX = originY = 0;
+		x = y = count = 0;
+		universe = null;
+		nodes = null;
+		band = null;
+		rule = null;
+		cells = 0;
+		if (target != null) {
+			setEngine(null);
+		}
+	}
+	
+	/**
+	 * Decodes the remaining bytes of given buffer.
+	 */
+	private void feed(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining() && mode != DONE) {
+			byte b = buffer.get();
+			if (mode == RLE_BODY) {
+				decodeRle(b);
+			} else if (b == '\n') {
+				decodeLine();
+				lineLength = 0;
+			} else if (b != '\r') {
+				if (lineLength == line.length) {
+					byte[] longer = new byte[line.length * 2];
+					System.arraycopy(line, 0, longer, 0, lineLength);
+					line = longer;
+				}
+				line[lineLength++] = b;
+			}
+		}
+	}
+	
+	/**
+	 * Decodes a line that is not a part of RLE body.
+	 */
+	private void decodeLine() throws IOException {
+		if (mode == UNKNOWN) {
+			if (startsWith("[M2]")) {
+				mode = MACROCELL;
+				nodes = new ArrayList<HashLife.Node>();
+				nodes.add(null);
+				return;
+			}
+			mode = RLE_HEADER;
+		}
+		if (mode == MACROCELL) {
+			decodeMacrocell();
+			return;
+		}
+		
+		if (lineLength == 0 || line[0] == '#') {
+			return;
+		}
+		if (line[0] == 'x') {
+			decodeHeader(new String(line, 0, lineLength, "US-ASCII"));
+			mode = RLE_BODY;
+			return;
+		}
+		// Body without a header.
+		prepare(0, 0, false);
+		mode = RLE_BODY;
+		for (int i = 0; i < lineLength && mode == RLE_BODY; i++) {
+			decodeRle(line[i]);
+		}
+	}
+	
+	private boolean startsWith(String prefix) {
+		if (lineLength < prefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (line[i] != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Decodes the "x = 3, y = 3, rule = B3/S23" line of RLE.
+	 */
+	private void decodeHeader(String header) throws IOException {
+		int width = 0, height = 0;
+		for (String field : header.split(",")) {
+			int separator = field.indexOf('=');
+			if (separator < 0) {
+				throw new IOException("Invalid RLE header: " + header);
+			}
+			String key = field.substring(0, separator).trim();
+			String value = field.substring(separator + 1).trim();
+			try {
+				if (key.equals("x")) {
+					width = Integer.parseInt(value);
+				} else if (key.equals("y")) {
+					height = Integer.parseInt(value);
+				} else if (key.equals("rule")) {
+					rule = value;
+				}
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid RLE header: " + header);
+			}
+		}
+		if (width < 0 || height < 0) {
+			throw new IOException("Invalid RLE header: " + header);
+		}
+		prepare(width, height, false);
+		originX = -width / 2;
+		originY = -height / 2;
+		if (hashLife != null && width > 0) {
+			bandLeft = originX & ~7;
+			bandTop = originY & ~7;
+			band = new long[(originX - bandLeft + width + 7) >>> 3];
+		}
+	}
+	
+	/**
+	 * Decodes a single byte of RLE body: a digit of a run count, or an
+	 * item that the count applies to.
+	 */
+	private void decodeRle(byte b) throws IOException {
+		if (b >= '0' && b <= '9') {
+			int digit = b - '0';
+			if (count > (MAX_EXTENT - digit) / 10) {
+				throw new IOException("RLE run count is too large");
+			}
+			count = count * 10 + digit;
+			return;
+		}
+		if (b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+			return;
+		}
+		int run = count == 0 ? 1 : count;
+		count = 0;
+		if (x > MAX_EXTENT - run || y > MAX_EXTENT - run) {
+			throw new IOException("RLE pattern is too large");
+		}
+		if (b == 'b' || b == '.') {
+			x += run;
+		} else if (b == 'o') {
+			setRun(run, 1);
+		} else if (b >= 'A' && b <= 'X') {
+			setRun(run, b - 'A' + 1);
+		} else if (b == '$') {
+			y += run;
+			x = 0;
+		} else if (b == '!') {
+			mode = DONE;
+		} else {
+			throw new IOException("Unexpected character in RLE: " + (char) b);
+		}
+	}
+	
+	/**
+	 * Puts a run of cells in given state at the current position. Dying
+	 * states are dropped unless the target is a {@link StateGrid}.
+	 */
+	private void setRun(int run, int state) {
+		int left = originX + x;
+		int top = originY + y;
+		x += run;
+		if (state != 1) {
+			if (states != null) {
+				for (int i = 0; i < run; i++) {
+					states.setState(left + i, top, state);
+				}
+			}
+			return;
+		}
+		if (dense != null) {
+			dense.setRun(left, top, run);
+		} else if (band != null) {
+			setBandRun(left, top, run);
+		} else {
+			for (int i = 0; i < run; i++) {
+				engine.setCell(left + i, top);
+			}
+		}
+		cells += run;
+	}
+	
+	/**
+	 * Puts a run of living cells into {@link #band}, flushing the band
+	 * first if the run is below it. Cells outside of the width given in the
+	 * header go to {@link #hashLife} one by one.
+	 */
+	private void setBandRun(int left, int top, int run) {
+		if (top >= bandTop + 8) {
+			flushBand();
+			bandTop = top & ~7;
+		}
+		int shift = (top - bandTop) * 8;
+		for (int x = left; x < left + run; x++) {
+			int block = (x - bandLeft) >> 3;
+			if (block < 0 || block >= band.length || top < bandTop) {
+				hashLife.setCell(x, top);
+			} else {
+				band[block] |= 1L << (shift + (x & 7));
+			}
+		}
+	}
+	
+	/**
+	 * Puts the collected blocks of {@link #band} into {@link #hashLife} and
+	 * empties the band.
+	 */
+	private void flushBand() {
+		long[] band = this.band;
+		for (int block = 0; block < band.length; block++) {
+			if (band[block] != 0) {
+				hashLife.setLeaf(bandLeft + (block << 3), bandTop, band[block]);
+				band[block] = 0;
+			}
+		}
+	}
+	
+	/**
+	 * Decodes a line of a macrocell file: a comment, an 8 x 8 leaf such as
+	 * "$.*$..*$***$", or a node "level nw ne sw se" made of earlier ones.
+	 */
+	private void decodeMacrocell() throws IOException {
+		if (lineLength == 0) {
+			return;
+		}
+		byte first = line[0];
+		if (first == '#') {
+			if (lineLength > 2 && line[1] == 'R') {
+				rule = new String(line, 2, lineLength - 2, "US-ASCII").trim();
+			}
+			return;
+		}
+		if (universe == null) {
+			// The rule lines are over.
+			prepareMacrocell();
+		}
+		if (first == '.' || first == '*' || first == '$') {
+			nodes.add(universe.leaf(decodeLeaf()));
+			return;
+		}
+		if (first < '0' || first > '9') {
+			throw new IOException("Unexpected macrocell line: "
+					+ new String(line, 0, lineLength, "US-ASCII"));
+		}
+		decodeNumbers();
+		int level = numbers[0];
+		if (level < 4 || level > HashLife.MAX_LEVEL) {
+			throw new IOException("Unsupported macrocell level: " + level);
+		}
+		nodes.add(universe.branch(node(numbers[1], level - 1),
+				node(numbers[2], level - 1), node(numbers[3], level - 1),
+				node(numbers[4], level - 1)));
+	}
+	
+	/**
+	 * Picks the engine and the {@link #universe} that nodes are built in,
+	 * which is the engine itself when it's a {@link HashLife}.
+	 */
+	private void prepareMacrocell() {
+		prepare(0, 0, true);
+		universe = hashLife != null ? hashLife : new HashLife();
+	}
+	
+	/**
+	 * @return Bits of a leaf line, bit y * 8 + x for cell x,y.
+	 */
+	private long decodeLeaf() throws IOException {
+		long bits = 0;
+		int column = 0, row = 0;
+		for (int i = 0; i < lineLength; i++) {
+			byte b = line[i];
+			if (b == '$') {
+				column = 0;
+				row++;
+				continue;
+			}
+			if (column > 7 || row > 7 || (b != '.' && b != '*')) {
+				throw new IOException("Invalid macrocell leaf");
+			}
+			if (b == '*') {
+				bits |= 1L << (row * 8 + column);
+			}
+			column++;
+		}
+		return bits;
+	}
+	
+	/**
+	 * Parses the five numbers of a node line into {@link #numbers}.
+	 */
+	private void decodeNumbers() throws IOException {
+		int found = 0;
+		int i = 0;
+		while (i < lineLength) {
+			if (line[i] == ' ') {
+				i++;
+				continue;
+			}
+			if (found == numbers.length) {
+				throw new IOException("Invalid macrocell node");
+			}
+			int value = 0;
+			for (; i < lineLength && line[i] != ' '; i++) {
+				int digit = line[i] - '0';
+				if (digit < 0 || digit > 9
+						|| value > (Integer.MAX_VALUE - digit) / 10) {
+					throw new IOException("Invalid macrocell node");
+				}
+				value = value * 10 + digit;
+			}
+			numbers[found++] = value;
+		}
+		if (found != numbers.length) {
+			throw new IOException("Invalid macrocell node");
+		}
+	}
+	
+	/**
+	 * @return Earlier node of given number, checked to be of given level.
+	 */
+	private HashLife.Node node(int number, int level) throws IOException {
+		if (number == 0) {
+			return universe.emptyNode(level);
+		}
+		if (number >= nodes.size() || nodes.get(number).level != level) {
+			throw new IOException("Invalid macrocell node reference: "
+					+ number);
+		}
+		return nodes.get(number);
+	}
+	
+	/**
+	 * Decodes whatever is left after the last byte. The last macrocell node
+	 * is the whole pattern.
+	 */
+	private void finish() throws IOException {
+		if (lineLength > 0 && mode != RLE_BODY && mode != DONE) {
+			decodeLine();
+			lineLength = 0;
+		}
+		if (mode == MACROCELL && universe == null) {
+			prepareMacrocell();
+		}
+		prepare(0, 0, false);
+		if (band != null) {
+			flushBand();
+			band = null;
+		}
+		if (nodes == null || nodes.size() < 2) {
+			return;
+		}
+		HashLife.Node root = nodes.get(nodes.size() - 1);
+		nodes = null;
+		universe.setRoot(root);
+		cells = universe.getPopulation();
+		if (universe != engine) {
+			universe.visit(new CellVisitor() {
+				@Override
+				public void visit(int x, int y) {
+					engine.setCell(x, y);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * @return Engine that got the cells of the last file.
+	 */
+	public Engine getEngine() {
+		return engine;
+	}
+	
+	/**
+	 * @return Rule given in the file, or null if there was none.
+	 */
+	public String getRule() {
+		return rule;
+	}
+	
+	/**
+	 * @return Living cells loaded by the last {@link #load(FileChannel)}.
+	 */
+	public long getCells() {
+		return cells;
+	}
+	
+	/**
+	 * @return Size of the last loaded file.
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+	
+	/**
+	 * @return How long the last load took, in nanoseconds.
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+}
@@ -0,0 +1,168 @@
+package com.varaneckas.conway;
+
+/**
+ * Picture of a window of the board with one pixel per cell, kept in a 
+ * plain <code>int[]</code> of ARGB colors. {@link Video} copies it into a 
+ * bitmap and draws it scaled in a single call, instead of drawing a 
+ * rectangle for every cell.
+ * 
+ * Does not depend on Android, so the pixels can be checked on any JVM.
+ * 
+ * @author Tomas Varaneckas
+ * @see Viewport
+ */
+public class PixelBuffer {
+	
+	private int[] pixels = new int[0];
+	
+	/**
+	 * Cell coordinates of the top left pixel.
+	 */
+	private int left, top;
+	
+	private int width, height;
+	
+	/**
+	 * Colors used by {@link #cellPainter} and {@link #cellEraser}, indexed
+	 * by cell state.
+	 */
+	private int[] palette;
+	
+	private final StateVisitor cellPainter = new StateVisitor() {
+		@Override
+		public void visit(int x, int y) {
+			set(x, y, palette[1]);
+		}
+		
+		@Override
+		public void visit(int x, int y, int state) {
+			set(x, y, palette[state]);
+		}
+	};
+	
+	private final CellVisitor cellEraser = new CellVisitor() {
+		@Override
+		public void visit(int x, int y) {
+			set(x, y, palette[0]);
+		}
+	};
+	
+	/**
+	 * Moves the picture to another window of the board. The backing array 
+	 * is only replaced when it's too small. Contents of the picture are
+	 * undefined after a change, so it must be painted from scratch.
+	 * 
+	 * @param left Cell coordinates of the top left pixel.
+	 * @param top Cell coordinates of the top left pixel.
+	 * @param width Width of the window in cells.
+	 * @param height Height of the window in cells.
+	 * @return true if the window has changed.
+	 */
+	public boolean setWindow(int left, int top, int width, int height) {
+		if (width < 0 || height < 0) {
+			throw new IllegalArgumentException("Invalid size: " + width
+					+ " x " + height);
+		}
+		if (left == this.left && top == this.top && width == this.width 
+				&& height == this.height) {
+			return false;
+		}
+		if (pixels.length < width * height) {
+			pixels = new int[width * height];
+		}
+		this.left = left;
+		this.top = top;
+		this.width = width;
+		this.height = height;
+		return true;
+	}
+	
+	public int getLeft() {
+		return left;
+	}
+	
+	public int getTop() {
+		return top;
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getHeight() {
+		return height;
+	}
+	
+	/**
+	 * @return The backing array. Row y starts at y * {@link #getWidth()}.
+	 * It may be longer than the picture.
+	 */
+	public int[] getPixels() {
+		return pixels;
+	}
+	
+	/**
+	 * Paints the whole picture with given color.
+	 */
+	public void fill(int color) {
+		int[] pixels = this.pixels;
+		for (int i = width * height - 1; i >= 0; i--) {
+			pixels[i] = color;
+		}
+	}
+	
+	/**
+	 * Paints the pixel of the cell at given coordinates. Cells outside of
+	 * the window are ignored.
+	 */
+	public void set(int x, int y, int color) {
+		x -= left;
+		y -= top;
+		if (x >= 0 && y >= 0 && x < width && y < height) {
+			pixels[y * width + x] = color;
+		}
+	}
+	
+	/**
+	 * @return Color of the cell at given coordinates.
+	 */
+	public int get(int x, int y) {
+		x -= left;
+		y -= top;
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			throw new IndexOutOfBoundsException(x + "," + y);
+		}
+		return pixels[y * width + x];
+	}
+	
+	/**
+	 * Paints the picture from scratch.
+	 * 
+	 * @param snapshot Cells to paint.
+	 * @param palette Color of every cell state. Entry 0 is the background, 
+	 * entry 1 is for living cells and the rest are for dying ones. Must 
+	 * cover every state of the snapshot.
+	 */
+	public void paint(Snapshot snapshot, int[] palette) {
+		fill(palette[0]);
+		this.palette = palette;
+		snapshot.visit(cellPainter, left, top, width, height);
+	}
+	
+	/**
+	 * Repaints the cells of the window that changed since the previous 
+	 * snapshot, which must be the one this picture shows.
+	 * 
+	 * @param snapshot Cells to paint.
+	 * @param previous Cells the picture shows now.
+	 * @param palette Color of every cell state, see 
+	 * {@link #paint(Snapshot, int[])}.
+	 * @return Number of repainted cells.
+	 */
+	public int paintChanges(Snapshot snapshot, Snapshot previous, 
+			int[] palette) {
+		this.palette = palette;
+		return snapshot.visitChanges(previous, cellPainter, cellEraser, 
+				left, top, width, height);
+	}
+}
@@ -0,0 +1,207 @@
+package com.varaneckas.conway;
+
+/**
+ * Life-like rule: which neighbor counts give birth to a dead cell and which
+ * let a living cell survive. Parsed from a rulestring such as "B3/S23"
+ * (Conway's Game of Life), "B36/S23" (HighLife) or "B2/S" (Seeds), and
+ * compiled into an 18 entry transition table, so applying any rule costs
+ * one array lookup.
+ * 
+ * Rules that give birth with 0 neighbors (B0) are rejected: they would
+ * bring the whole infinite empty space to life, and all the engines rely on
+ * empty space staying empty.
+ * 
+ * Rules are immutable.
+ * 
+ * @author Tomas Varaneckas
+ * @see Logic#setRule(Rule)
+ */
+public final class Rule {
+	
+	/**
+	 * Conway's Game of Life, B3/S23.
+	 */
+	public static final Rule CONWAY = parse("B3/S23");
+	
+	/**
+	 * Bit n is set if a dead cell with n neighbors is born.
+	 */
+	private final int births;
+	
+	/**
+	 * Bit n is set if a living cell with n neighbors survives.
+	 */
+	private final int survivals;
+	
+	/**
+	 * Transition table. Entry alive * 9 + neighbors tells whether the cell
+	 * is alive in the next generation.
+	 */
+	private final boolean[] table = new boolean[18];
+	
+	/**
+	 * Neighbor counts that give birth, and the ones that let a cell
+	 * survive, for the bit-sliced engines.
+	 * @see #apply(long, long, long, long, long)
+	 */
+	private final int[] birthCounts;
+	private final int[] survivalCounts;
+	
+	private final boolean conway;
+	
+	private Rule(int births, int survivals) {
+		this.births = births;
+		this.survivals = survivals;
+		for (int n = 0; n <= 8; n++) {
+			table[n] = (births & (1 << n)) != 0;
+			table[9 + n] = (survivals & (1 << n)) != 0;
+		}
+		birthCounts = counts(births);
+		survivalCounts = counts(survivals);
+		conway = births == 1 << 3 && survivals == ((1 << 2) | (1 << 3));
+	}
+	
+	private static int[] counts(int mask) {
+		int[] counts = new int[Integer.bitCount(mask)];
+		int i = 0;
+		for (int n = 0; n <= 8; n++) {
+			if ((mask & (1 << n)) != 0) {
+				counts[i++] = n;
+			}
+		}
+		return counts;
+	}
+	
+	/**
+	 * Parses a rulestring. Both "B3/S23" and "S23/B3" forms are accepted,
+	 * in any case, as well as the old "23/3" survival/birth notation.
+	 * 
+	 * @param rule The rulestring.
+	 * @return Parsed rule.
+	 * @throws IllegalArgumentException if the rulestring is invalid or has
+	 * B0.
+	 */
+	public static Rule parse(String rule) {
+		if (rule == null) {
+			throw new IllegalArgumentException("Rule is null");
+		}
+		String[] parts = rule.trim().toUpperCase().split("/", -1);
+		if (parts.length != 2) {
+			throw new IllegalArgumentException("Invalid rule: " + rule);
+		}
+		String birth, survival;
+		if (parts[0].startsWith("B") && parts[1].startsWith("S")) {
+			birth = parts[0].substring(1);
+			survival = parts[1].substring(1);
+		} else if (parts[0].startsWith("S") && parts[1].startsWith("B")) {
+			survival = parts[0].substring(1);
+			birth = parts[1].substring(1);
+		} else {
+			survival = parts[0];
+			birth = parts[1];
+		}
+		int births = mask(birth, rule);
+		if ((births & 1) != 0) {
+			throw new IllegalArgumentException("Rules with B0 are not "
+					+ "supported: " + rule);
+		}
+		return new Rule(births, mask(survival, rule));
+	}
+	
+	private static int mask(String digits, String rule) {
+		int mask = 0;
+		for (int i = 0; i < digits.length(); i++) {
+			int n = digits.charAt(i) - '0';
+			if (n < 0 || n > 8) {
+				throw new IllegalArgumentException("Invalid rule: " + rule);
+			}
+			mask |= 1 << n;
+		}
+		return mask;
+	}
+	
+	/**
+	 * @return true if a cell is alive in the next generation.
+	 */
+	public boolean next(boolean alive, int neighbors) {
+		return table[alive ? 9 + neighbors : neighbors];
+	}
+	
+	/**
+	 * @return Transition table, entry alive * 9 + neighbors tells whether
+	 * the cell is alive in the next generation. Must not be modified.
+	 */
+	boolean[] getTable() {
+		return table;
+	}
+	
+	/**
+	 * Applies the rule to 64 cells at once. Neighbor counts are given as
+	 * bit-sliced binary numbers, one bit of every count per word.
+	 * 
+	 * @param ones Bit 0 of the neighbor counts.
+	 * @param twos Bit 1 of the neighbor counts.
+	 * @param fours Bit 2 of the neighbor counts.
+	 * @param eights Bit 3 of the neighbor counts.
+	 * @param alive The cells themselves.
+	 * @return Cells that are alive in the next generation.
+	 */
+	public long apply(long ones, long twos, long fours, long eights,
+			long alive) {
+		if (conway) {
+			// Rule 1 through 4: a cell lives with exactly 3 neighbors, or
+			// with exactly 2 if it was alive already.
+			return twos & ~fours & ~eights & (ones | alive);
+		}
+		long born = 0;
+		for (int n : birthCounts) {
+			born |= count(n, ones, twos, fours, eights);
+		}
+		long survived = 0;
+		for (int n : survivalCounts) {
+			survived |= count(n, ones, twos, fours, eights);
+		}
+		return (born & ~alive) | (survived & alive);
+	}
+	
+	/**
+	 * @return Cells that have exactly n neighbors.
+	 */
+	private static long count(int n, long ones, long twos, long fours,
+			long eights) {
+		return ((n & 1) != 0 ? ones : ~ones)
+				& ((n & 2) != 0 ? twos : ~twos)
+				& ((n & 4) != 0 ? fours : ~fours)
+				& ((n & 8) != 0 ? eights : ~eights);
+	}
+	
+	@Override
+	public int hashCode() {
+		return births * 31 + survivals;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Rule)) {
+			return false;
+		}
+		Rule other = (Rule) obj;
+		return births == other.births && survivals == other.survivals;
+	}
+	
+	/**
+	 * @return The rule in B/S notation, i.e. "B3/S23".
+	 */
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder("B");
+		for (int n : birthCounts) {
+			result.append(n);
+		}
+		result.append("/S");
+		for (int n : survivalCounts) {
+			result.append(n);
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,411 @@
+package com.varaneckas.conway;
+
+import java.util.Arrays;
+
+/**
+ * Immutable copy of a finished generation, published by {@link Logic} for
+ * readers on other threads - {@link Video}, statistics, export.
+ * 
+ * Snapshot never changes after it is created, so it can be read without
+ * locking or copying. Compare {@link #getVersion()} with the one from the
+ * previous read to find out whether anything has changed since.
+ * 
+ * Cells are packed into <code>long</code> values (see
+ * {@link LongCellSet#pack(int, int)}) and sorted, so columns go from left
+ * to right and cells of the same column are next to each other. That lets
+ * {@link #visit(CellVisitor, int, int, int, int)} find the cells of a 
+ * window with binary search instead of going through the whole board.
+ * 
+ * Under a {@link StateRule} with dying states, the snapshot holds the dying
+ * cells too, and tells their states to a {@link StateVisitor}.
+ * 
+ * @author Tomas Varaneckas
+ * @see Logic#getSnapshot()
+ */
+public final class Snapshot {
+	
+	/**
+	 * Snapshot of an empty board, published before the first tick.
+	 */
+	public static final Snapshot EMPTY = new Snapshot(0, 0, new long[0]);
+	
+	private final long version;
+	
+	private final long generation;
+	
+	private final long[] cells;
+	
+	/**
+	 * State of every cell, in the order of {@link #cells}. Null when all
+	 * of them are alive.
+	 */
+	private final byte[] states;
+	
+	/**
+	 * Bounding box of the cells, inclusive. Empty snapshot has it at 0.
+	 */
+	private final int left, top, right, bottom;
+	
+	/**
+	 * The whole board when it lives in {@link HashLife} and the cells only
+	 * cover the visible part of it, null otherwise.
+	 */
+	private final HashLife.Node universe;
+	
+	/**
+	 * @param version Sequence number of this snapshot.
+	 * @param generation Generation of the cells.
+	 * @param cells Packed cells, sorted. The array must not be modified
+	 * afterwards.
+	 */
+	Snapshot(long version, long generation, long[] cells) {
+		this(version, generation, cells, null);
+	}
+	
+	/**
+	 * @param states State of every cell, in the order of the cells, or null
+	 * if all of them are alive. The array must not be modified afterwards.
+	 */
+	Snapshot(long version, long generation, long[] cells, byte[] states) {
+		this(version, generation, cells, states, null);
+	}
+	
+	/**
+	 * @param universe Root of the {@link HashLife} that given cells are the
+	 * visible part of, or null if they are the whole board.
+	 */
+	Snapshot(long version, long generation, long[] cells, byte[] states,
+			HashLife.Node universe) {
+		this.version = version;
+		this.generation = generation;
+		this.cells = cells;
+		this.states = states;
+		this.universe = universe;
+		if (cells.length == 0) {
+			left = top = right = bottom = 0;
+		} else {
+			int top = Integer.MAX_VALUE, bottom = Integer.MIN_VALUE;
+			for (long cell : cells) {
+				int y = LongCellSet.unpackY(cell);
+				top = Math.min(top, y);
+				bottom = Math.max(bottom, y);
+			}
+			this.left = LongCellSet.unpackX(cells[0]);
+			this.right = LongCellSet.unpackX(cells[cells.length - 1]);
+			this.top = top;
+			this.bottom = bottom;
+		}
+	}
+	
+	/**
+	 * @return Snapshot of the same cells under given version and 
+	 * generation. Shares the arrays, so it costs nothing.
+	 */
+	Snapshot renumber(long version, long generation) {
+		return new Snapshot(version, generation, this);
+	}
+	
+	private Snapshot(long version, long generation, Snapshot cells) {
+		this.version = version;
+		this.generation = generation;
+		this.cells = cells.cells;
+		this.states = cells.states;
+		this.universe = cells.universe;
+		this.left = cells.left;
+		this.top = cells.top;
+		this.right = cells.right;
+		this.bottom = cells.bottom;
+	}
+	
+	/**
+	 * @return Root of the {@link HashLife} that holds the whole board, or
+	 * null if the cells of this snapshot are the whole board.
+	 */
+	HashLife.Node getUniverse() {
+		return universe;
+	}
+	
+	/**
+	 * @return Sequence number of this snapshot. Grows with every publication,
+	 * even when jumps or engine switches don't change the generation.
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * @return Number of the generation this snapshot was taken of.
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * @return Number of cells, including the dying ones.
+	 */
+	public int getPopulation() {
+		return cells.length;
+	}
+	
+	/* Bounding box of the living cells, inclusive. */
+	
+	public int getLeft() {
+		return left;
+	}
+	
+	public int getTop() {
+		return top;
+	}
+	
+	public int getRight() {
+		return right;
+	}
+	
+	public int getBottom() {
+		return bottom;
+	}
+	
+	/**
+	 * @return Area of the bounding box in cells, 0 for an empty snapshot.
+	 */
+	public long getArea() {
+		if (cells.length == 0) {
+			return 0;
+		}
+		return ((long) right - left + 1) * ((long) bottom - top + 1);
+	}
+	
+	/**
+	 * @return true if this snapshot was published after given one.
+	 */
+	public boolean isNewerThan(Snapshot other) {
+		return other == null || version > other.version;
+	}
+	
+	/**
+	 * @return true if the cell at given coordinates is alive or dying.
+	 */
+	public boolean contains(int x, int y) {
+		return Arrays.binarySearch(cells, LongCellSet.pack(x, y)) >= 0;
+	}
+	
+	/**
+	 * @return State of the cell at given coordinates, 0 if it's dead.
+	 */
+	public int getState(int x, int y) {
+		int i = Arrays.binarySearch(cells, LongCellSet.pack(x, y));
+		return i < 0 ? 0 : stateAt(i);
+	}
+	
+	private int stateAt(int i) {
+		return states == null ? 1 : states[i] & 0xFF;
+	}
+	
+	/**
+	 * Passes the cell at given index to the visitor, with its state if the
+	 * visitor is a {@link StateVisitor}.
+	 */
+	private void visitAt(CellVisitor visitor, StateVisitor stateVisitor,
+			int i, int x, int y) {
+		if (stateVisitor != null) {
+			stateVisitor.visit(x, y, stateAt(i));
+		} else {
+			visitor.visit(x, y);
+		}
+	}
+	
+	private static StateVisitor asStateVisitor(CellVisitor visitor) {
+		return visitor instanceof StateVisitor ? (StateVisitor) visitor : null;
+	}
+	
+	/**
+	 * Passes every cell to given visitor.
+	 */
+	public void visit(CellVisitor visitor) {
+		StateVisitor stateVisitor = asStateVisitor(visitor);
+		long[] cells = this.cells;
+		for (int i = 0; i < cells.length; i++) {
+			visitAt(visitor, stateVisitor, i, LongCellSet.unpackX(cells[i]),
+					LongCellSet.unpackY(cells[i]));
+		}
+	}
+	
+	/**
+	 * Passes cells inside of given window to the visitor. Only the
+	 * columns of the window are looked at, and each of them is entered with
+	 * binary search, so the cost follows the size of the window rather than
+	 * the size of the board.
+	 */
+	public void visit(CellVisitor visitor, int left, int top, int width,
+			int height) {
+		if (width <= 0 || height <= 0) {
+			return;
+		}
+		long[] cells = this.cells;
+		StateVisitor stateVisitor = asStateVisitor(visitor);
+		int bottom = (int) Math.min(Integer.MAX_VALUE, (long) top + height - 1);
+		int from = columnStart(cells, 0, cells.length, left);
+		int to = columnStart(cells, from, cells.length, 
+				(long) left + width);
+		while (from < to) {
+			int x = LongCellSet.unpackX(cells[from]);
+			int end = columnStart(cells, from, to, (long) x + 1);
+			if (top >= 0 || bottom < 0) {
+				visitRange(visitor, stateVisitor, from, end, x, top, bottom);
+			} else {
+				// Negative y goes after positive y in a column, see
+				// LongCellSet#pack(int, int).
+				visitRange(visitor, stateVisitor, from, end, x, 0, bottom);
+				visitRange(visitor, stateVisitor, from, end, x, top, -1);
+			}
+			from = end;
+		}
+	}
+	
+	/**
+	 * Visits cells of a single column from top to bottom (inclusive). Both
+	 * must have the same sign.
+	 */
+	private void visitRange(CellVisitor visitor, StateVisitor stateVisitor,
+			int from, int to, int x, int top, int bottom) {
+		long last = LongCellSet.pack(x, bottom);
+		for (int i = lowerBound(cells, from, to, LongCellSet.pack(x, top));
+				i < to && cells[i] <= last; i++) {
+			visitAt(visitor, stateVisitor, i, x, 
+					LongCellSet.unpackY(cells[i]));
+		}
+	}
+	
+	/**
+	 * @return Index of the first cell with x not less than given one.
+	 */
+	private static int columnStart(long[] cells, int from, int to, long x) {
+		if (x > Integer.MAX_VALUE) {
+			return to;
+		}
+		if (x < Integer.MIN_VALUE) {
+			return from;
+		}
+		return lowerBound(cells, from, to, x << 32);
+	}
+	
+	/**
+	 * @return Index of the first element not less than given key.
+	 */
+	private static int lowerBound(long[] cells, int from, int to, long key) {
+		while (from < to) {
+			int middle = (from + to) >>> 1;
+			if (cells[middle] < key) {
+				from = middle + 1;
+			} else {
+				to = middle;
+			}
+		}
+		return from;
+	}
+	
+	/**
+	 * Finds the cells that were born and died since given snapshot. Both
+	 * snapshots are sorted, so this is a single merge pass that does not
+	 * allocate anything.
+	 * 
+	 * @param previous Older snapshot, null counts as an empty board.
+	 * @param born Gets the cells that are only in this snapshot, and the
+	 * ones that have changed their state.
+	 * @param died Gets the cells that are only in the previous one.
+	 * @return Number of changed cells.
+	 */
+	public int visitChanges(Snapshot previous, CellVisitor born,
+			CellVisitor died) {
+		if (previous == null) {
+			previous = EMPTY;
+		}
+		long[] old = previous.cells;
+		long[] cells = this.cells;
+		StateVisitor stateVisitor = asStateVisitor(born);
+		boolean compareStates = states != null || previous.states != null;
+		int i = 0, j = 0, changes = 0;
+		while (i < cells.length || j < old.length) {
+			if (j == old.length 
+					|| (i < cells.length && cells[i] < old[j])) {
+				visitAt(born, stateVisitor, i, LongCellSet.unpackX(cells[i]), 
+						LongCellSet.unpackY(cells[i]));
+				i++;
+				changes++;
+			} else if (i == cells.length || old[j] < cells[i]) {
+				died.visit(LongCellSet.unpackX(old[j]), 
+						LongCellSet.unpackY(old[j]));
+				j++;
+				changes++;
+			} else {
+				if (compareStates && stateAt(i) != previous.stateAt(j)) {
+					visitAt(born, stateVisitor, i, 
+							LongCellSet.unpackX(cells[i]), 
+							LongCellSet.unpackY(cells[i]));
+					changes++;
+				}
+				i++;
+				j++;
+			}
+		}
+		return changes;
+	}
+	
+	/**
+	 * Same as {@link #visitChanges(Snapshot, CellVisitor, CellVisitor)},
+	 * but only looks at the cells inside of given window. Columns outside 
+	 * of the window are skipped with binary search.
+	 * 
+	 * @return Number of changed cells inside of the window.
+	 */
+	public int visitChanges(Snapshot previous, CellVisitor born,
+			CellVisitor died, int left, int top, int width, int height) {
+		if (width <= 0 || height <= 0) {
+			return 0;
+		}
+		if (previous == null) {
+			previous = EMPTY;
+		}
+		long[] old = previous.cells;
+		long[] cells = this.cells;
+		StateVisitor stateVisitor = asStateVisitor(born);
+		boolean compareStates = states != null || previous.states != null;
+		long bottom = (long) top + height - 1;
+		long right = (long) left + width;
+		int i = columnStart(cells, 0, cells.length, left);
+		int iEnd = columnStart(cells, i, cells.length, right);
+		int j = columnStart(old, 0, old.length, left);
+		int jEnd = columnStart(old, j, old.length, right);
+		int changes = 0;
+		while (i < iEnd || j < jEnd) {
+			long cell;
+			int index;
+			if (j == jEnd || (i < iEnd && cells[i] < old[j])) {
+				index = i;
+				cell = cells[i++];
+			} else if (i == iEnd || old[j] < cells[i]) {
+				index = -1;
+				cell = old[j++];
+			} else if (compareStates && stateAt(i) != previous.stateAt(j)) {
+				index = i;
+				cell = cells[i++];
+				j++;
+			} else {
+				i++;
+				j++;
+				continue;
+			}
+			int y = LongCellSet.unpackY(cell);
+			if (y >= top && y <= bottom) {
+				if (index < 0) {
+					died.visit(LongCellSet.unpackX(cell), y);
+				} else {
+					visitAt(born, stateVisitor, index, 
+							LongCellSet.unpackX(cell), y);
+				}
+				changes++;
+			}
+		}
+		return changes;
+	}
+}
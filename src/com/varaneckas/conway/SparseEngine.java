@@ -0,0 +1,176 @@
+package com.varaneckas.conway;
+
+/**
+ * Implementation of Conway's Game of Life for boards with scattered cells.
+ * Cost of a step grows with population rather than with board size.
+ * 
+ * Cells are packed into <code>long</code> values (see
+ * {@link LongCellSet#pack(int, int)}) and kept in a primitive hash set, so
+ * no {@link Cell} objects are created. Neighbors are counted in a single
+ * pass: every living cell adds 1 to each of its 8 neighbors in
+ * {@link #counts}. Next generation is then picked from the counts in a
+ * single sweep.
+ * 
+ * Both passes walk the slots of the tables, which are sized after the
+ * recent generations: when a crowd dies down, they shrink on the 
+ * following clears, see {@link LongCellSet#clear()}.
+ * 
+ * @author Tomas Varaneckas
+ */
+public class SparseEngine implements HashedEngine, CountingEngine {
+	
+	/**
+	 * Added to the count of a living cell itself, so that the sweep knows
+	 * which cells are alive without looking them up in {@link #cells}.
+	 */
+	private static final int SELF = 16;
+	
+	/**
+	 * Living cells.
+	 */
+	private LongCellSet cells = new LongCellSet(3000);
+	
+	/**
+	 * Buffer for the next generation, swapped with {@link #cells} after
+	 * every step.
+	 */
+	private LongCellSet next = new LongCellSet(3000);
+	
+	/**
+	 * Neighbor counts of living cells and their neighbors. Cleared, not
+	 * recreated, before every step.
+	 */
+	private final LongCountMap counts = new LongCountMap(3000 * 9);
+	
+	/**
+	 * Transition table of the rule, see {@link Rule#getTable()}.
+	 */
+	private boolean[] rule = Rule.CONWAY.getTable();
+	
+	/**
+	 * {@link Zobrist} hash of the living cells.
+	 */
+	private long hash;
+	
+	/**
+	 * Cells born and died in the last step.
+	 */
+	private long births, deaths;
+	
+	@Override
+	public void setCell(int x, int y) {
+		long cell = LongCellSet.pack(x, y);
+		if (cells.add(cell)) {
+			hash ^= Zobrist.cell(cell);
+		}
+	}
+	
+	@Override
+	public long getHash() {
+		return hash;
+	}
+	
+	@Override
+	public long getBirths() {
+		return births;
+	}
+	
+	@Override
+	public long getDeaths() {
+		return deaths;
+	}
+	
+	@Override
+	public void visit(CellVisitor visitor) {
+		LongCellSet cells = this.cells;
+		for (int i = 0; i < cells.capacity(); i++) {
+			long cell = cells.keyAt(i);
+			if (cell != LongCellSet.EMPTY) {
+				visitor.visit(LongCellSet.unpackX(cell),
+						LongCellSet.unpackY(cell));
+			}
+		}
+	}
+	
+	@Override
+	public long getPopulation() {
+		return cells.size();
+	}
+	
+	@Override
+	public void clear() {
+		cells.clear();
+		hash = 0;
+	}
+	
+	@Override
+	public void setRule(Rule rule) {
+		this.rule = rule.getTable();
+	}
+	
+	/**
+	 * The main logic that implements Conway's Game of Life, or whatever
+	 * {@link Rule} is set.
+	 */
+	@Override
+	public void step() {
+		LongCellSet cells = this.cells;
+		LongCountMap counts = this.counts;
+		counts.clear();
+		
+		// Scatter: every living cell adds itself to the counts of its
+		// neighbors.
+		for (int i = 0; i < cells.capacity(); i++) {
+			long cell = cells.keyAt(i);
+			if (cell == LongCellSet.EMPTY) {
+				continue;
+			}
+			int x = LongCellSet.unpackX(cell);
+			int y = LongCellSet.unpackY(cell);
+			counts.add(LongCellSet.pack(x - 1, y - 1), 1);
+			counts.add(LongCellSet.pack(x, y - 1), 1);
+			counts.add(LongCellSet.pack(x + 1, y - 1), 1);
+			counts.add(LongCellSet.pack(x - 1, y), 1);
+			counts.add(cell, SELF);
+			counts.add(LongCellSet.pack(x + 1, y), 1);
+			counts.add(LongCellSet.pack(x - 1, y + 1), 1);
+			counts.add(LongCellSet.pack(x, y + 1), 1);
+			counts.add(LongCellSet.pack(x + 1, y + 1), 1);
+		}
+		
+		// Sweep: apply the rules on every counted cell. Cells that are born
+		// or die go into the hash and get counted.
+		LongCellSet next = this.next;
+		boolean[] rule = this.rule;
+		long hash = this.hash;
+		long births = 0;
+		next.clear();
+		for (int i = 0; i < counts.capacity(); i++) {
+			long cell = counts.keyAt(i);
+			if (cell == LongCellSet.EMPTY) {
+				continue;
+			}
+			int count = counts.valueAt(i);
+			
+			// Count of a living cell is SELF + neighbors, which makes it
+			// 9 + neighbors in the rule table.
+			boolean alive = rule[count < SELF ? count : count - SELF + 9];
+			if (alive) {
+				next.add(cell);
+			}
+			if (alive != count >= SELF) {
+				hash ^= Zobrist.cell(cell);
+				if (alive) {
+					births++;
+				}
+			}
+		}
+		this.hash = hash;
+		this.births = births;
+		this.deaths = cells.size() + births - next.size();
+		
+		// Replace the generation
+		this.next = cells;
+		this.cells = next;
+	}
+}
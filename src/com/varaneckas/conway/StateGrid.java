@@ -0,0 +1,407 @@
+package com.varaneckas.conway;
+
+import java.util.Arrays;
+
+/**
+ * Board that keeps a whole byte of state per cell, for the rules that
+ * {@link DenseGrid} cannot run: Generations rules with dying states and
+ * Larger than Life rules with neighborhoods of up to 21 x 21 cells, see
+ * {@link StateRule}.
+ * 
+ * Counting such a neighborhood cell by cell would cost up to 441 reads per
+ * cell. Instead, every step first builds a summed-area table: entry x,y
+ * holds the number of living cells in the rectangle from the corner of the
+ * board to x,y. Living cells in any square are then four reads away, so a
+ * cell costs the same whatever the radius is.
+ * 
+ * The table only captures the current generation, so the cells are updated
+ * in place. Only the bounding box of the cells that are not dead, plus the
+ * radius around it, is looked at. The board grows like {@link DenseGrid}
+ * does, in steps of at least half the size, so that the neighborhood of
+ * every cell is always on it.
+ * 
+ * Rows only depend on the table, so they are split into bands that
+ * {@link Workers} calculate in parallel.
+ * 
+ * @author Tomas Varaneckas
+ * @see EngineType#STATES
+ */
+public class StateGrid implements Engine {
+	
+	/**
+	 * Size of a board that is created empty.
+	 */
+	private static final int INITIAL_SIZE = 64;
+	
+	/**
+	 * Smallest number of cells to add to a side when growing.
+	 */
+	private static final int MIN_GROWTH = 16;
+	
+	/**
+	 * World coordinates of the top left cell of the board.
+	 */
+	private int left, top;
+	
+	private int width;
+	private int height;
+	
+	/**
+	 * State of every cell, row by row. 0 is dead, 1 is alive and the
+	 * higher ones are dying.
+	 */
+	private byte[] cells;
+	
+	/**
+	 * Summed-area table of the living cells of the active area. Has an
+	 * extra row and column of zeros at the top and on the left, so entry
+	 * (y + 1) * (areaWidth + 1) + x + 1 holds the living cells from the
+	 * corner of the area to x,y inclusive.
+	 */
+	private int[] sums = new int[0];
+	
+	/**
+	 * Part of the board that the current step looks at, in board
+	 * coordinates.
+	 */
+	private int areaLeft, areaTop, areaWidth, areaHeight;
+	
+	/**
+	 * Bounding box of the cells that are not dead, in board coordinates,
+	 * inclusive. Empty when minX > maxX.
+	 */
+	private int minX, minY, maxX, maxY;
+	
+	/**
+	 * Cells in state 1.
+	 */
+	private long population;
+	
+	private StateRule rule = StateRule.of(Rule.CONWAY);
+	
+	/**
+	 * Threads to split the step between, or null to calculate everything on
+	 * the calling thread.
+	 */
+	private final Workers workers;
+	
+	/**
+	 * Calculates a band of rows, see {@link Workers}.
+	 */
+	private final Workers.Task band = new Workers.Task() {
+		@Override
+		public void run(int from, int to) {
+			evolve(from, to);
+		}
+	};
+	
+	public StateGrid(Workers workers) {
+		this.workers = workers;
+		width = INITIAL_SIZE;
+		height = INITIAL_SIZE;
+		cells = new byte[width * height];
+		resetBounds();
+	}
+	
+	public int getLeft() {
+		return left;
+	}
+	
+	public int getTop() {
+		return top;
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getHeight() {
+		return height;
+	}
+	
+	/**
+	 * @return Number of cells the board covers.
+	 */
+	public long getArea() {
+		return (long) width * height;
+	}
+	
+	@Override
+	public void setCell(int x, int y) {
+		setState(x, y, 1);
+	}
+	
+	/**
+	 * Puts the cell at given coordinates into given state. The board grows
+	 * if the cell is outside of it.
+	 * 
+	 * @param state 0 for dead, 1 for alive, higher for dying.
+	 */
+	public void setState(int x, int y, int state) {
+		long dx = (long) x - left;
+		long dy = (long) y - top;
+		if (dx < 0 || dy < 0 || dx >= width || dy >= height) {
+			int west = dx < 0 ? (int) -dx : 0;
+			int east = dx >= width ? (int) (dx - width + 1) : 0;
+			int north = dy < 0 ? (int) -dy : 0;
+			int south = dy >= height ? (int) (dy - height + 1) : 0;
+			grow(west, north, east, south);
+			dx = (long) x - left;
+			dy = (long) y - top;
+		}
+		int i = (int) dy * width + (int) dx;
+		if (cells[i] == 1) {
+			population--;
+		}
+		if (state == 1) {
+			population++;
+		}
+		cells[i] = (byte) state;
+		if (state != 0) {
+			minX = Math.min(minX, (int) dx);
+			maxX = Math.max(maxX, (int) dx);
+			minY = Math.min(minY, (int) dy);
+			maxY = Math.max(maxY, (int) dy);
+		}
+	}
+	
+	/**
+	 * @return State of the cell at given coordinates, 0 if it's dead.
+	 */
+	public int getState(int x, int y) {
+		long dx = (long) x - left;
+		long dy = (long) y - top;
+		if (dx < 0 || dy < 0 || dx >= width || dy >= height) {
+			return 0;
+		}
+		return cells[(int) dy * width + (int) dx] & 0xFF;
+	}
+	
+	/**
+	 * Runs given Life-like rule as a two-state rule of radius 1.
+	 */
+	@Override
+	public void setRule(Rule rule) {
+		this.rule = StateRule.of(rule);
+	}
+	
+	/**
+	 * Changes the rule that the next steps follow. Cells in states that
+	 * the new rule does not have die on the next step.
+	 */
+	public void setRule(StateRule rule) {
+		this.rule = rule;
+	}
+	
+	@Override
+	public void step() {
+		if (minX > maxX) {
+			return;
+		}
+		
+		// The neighborhood of every cell in the box must be on the board.
+		int radius = rule.getRadius();
+		int west = Math.max(0, radius - minX);
+		int north = Math.max(0, radius - minY);
+		int east = Math.max(0, maxX + radius - (width - 1));
+		int south = Math.max(0, maxY + radius - (height - 1));
+		if ((west | north | east | south) != 0) {
+			grow(west, north, east, south);
+		}
+		
+		areaLeft = minX - radius;
+		areaTop = minY - radius;
+		areaWidth = maxX - minX + 1 + 2 * radius;
+		areaHeight = maxY - minY + 1 + 2 * radius;
+		
+		buildSums();
+		if (workers == null) {
+			evolve(0, areaHeight);
+		} else {
+			workers.run(band, areaHeight);
+		}
+		updateBounds();
+	}
+	
+	/**
+	 * Fills {@link #sums} for the active area. Every entry is the one above
+	 * plus the living cells on its row so far.
+	 */
+	private void buildSums() {
+		final byte[] cells = this.cells;
+		final int stride = areaWidth + 1;
+		int size = stride * (areaHeight + 1);
+		if (sums.length < size) {
+			sums = new int[size];
+		}
+		final int[] sums = this.sums;
+		Arrays.fill(sums, 0, stride, 0);
+		
+		for (int y = 0; y < areaHeight; y++) {
+			int row = (areaTop + y) * width + areaLeft;
+			int out = (y + 1) * stride;
+			int above = y * stride;
+			int run = 0;
+			sums[out] = 0;
+			for (int x = 0; x < areaWidth; x++) {
+				if (cells[row + x] == 1) {
+					run++;
+				}
+				sums[out + x + 1] = sums[above + x + 1] + run;
+			}
+		}
+	}
+	
+	/**
+	 * Calculates the next state of area rows from (inclusive) to
+	 * (exclusive). Neighborhoods are read from {@link #sums} only, so the
+	 * cells can be overwritten right away, and bands can run in parallel.
+	 */
+	private void evolve(int from, int to) {
+		final byte[] cells = this.cells;
+		final int[] sums = this.sums;
+		final StateRule rule = this.rule;
+		final int radius = rule.getRadius();
+		final boolean middle = rule.isMiddleIncluded();
+		final int areaWidth = this.areaWidth;
+		final int stride = areaWidth + 1;
+		
+		for (int y = from; y < to; y++) {
+			int upper = Math.max(0, y - radius) * stride;
+			int lower = Math.min(areaHeight, y + radius + 1) * stride;
+			int row = (areaTop + y) * width + areaLeft;
+			for (int x = 0; x < areaWidth; x++) {
+				int x0 = Math.max(0, x - radius);
+				int x1 = Math.min(areaWidth, x + radius + 1);
+				int neighbors = sums[lower + x1] - sums[upper + x1]
+						- sums[lower + x0] + sums[upper + x0];
+				int state = cells[row + x] & 0xFF;
+				if (state == 0 && neighbors == 0) {
+					// Nothing is ever born out of nothing.
+					continue;
+				}
+				if (state == 1 && !middle) {
+					neighbors--;
+				}
+				cells[row + x] = (byte) rule.next(state, neighbors);
+			}
+		}
+	}
+	
+	/**
+	 * Finds the bounding box and the population of the active area after a
+	 * step.
+	 */
+	private void updateBounds() {
+		resetBounds();
+		final byte[] cells = this.cells;
+		long population = 0;
+		for (int y = areaTop; y < areaTop + areaHeight; y++) {
+			int row = y * width;
+			for (int x = areaLeft; x < areaLeft + areaWidth; x++) {
+				byte state = cells[row + x];
+				if (state != 0) {
+					if (state == 1) {
+						population++;
+					}
+					if (x < minX) {
+						minX = x;
+					}
+					if (x > maxX) {
+						maxX = x;
+					}
+					if (y < minY) {
+						minY = y;
+					}
+					maxY = y;
+				}
+			}
+		}
+		this.population = population;
+	}
+	
+	private void resetBounds() {
+		minX = minY = Integer.MAX_VALUE;
+		maxX = maxY = Integer.MIN_VALUE;
+	}
+	
+	/**
+	 * Adds space around the board. Every side that needs growing gets at
+	 * least half of the current size, so growing is rare.
+	 * 
+	 * @param west Columns to add on the left side, at least.
+	 * @param north Rows to add on the top side, at least.
+	 * @param east Columns to add on the right side, at least.
+	 * @param south Rows to add on the bottom side, at least.
+	 */
+	private void grow(int west, int north, int east, int south) {
+		int columnStep = Math.max(MIN_GROWTH, width / 2);
+		int rowStep = Math.max(MIN_GROWTH, height / 2);
+		west = west > 0 ? Math.max(west, columnStep) : 0;
+		east = east > 0 ? Math.max(east, columnStep) : 0;
+		north = north > 0 ? Math.max(north, rowStep) : 0;
+		south = south > 0 ? Math.max(south, rowStep) : 0;
+		
+		int newWidth = width + west + east;
+		int newHeight = height + north + south;
+		byte[] bigger = new byte[newWidth * newHeight];
+		for (int y = 0; y < height; y++) {
+			System.arraycopy(cells, y * width, bigger,
+					(y + north) * newWidth + west, width);
+		}
+		
+		Utils.debug(this, "Growing from %d x %d to %d x %d", width, height,
+				newWidth, newHeight);
+		
+		left -= west;
+		top -= north;
+		width = newWidth;
+		height = newHeight;
+		cells = bigger;
+		if (minX <= maxX) {
+			minX += west;
+			maxX += west;
+			minY += north;
+			maxY += north;
+		}
+	}
+	
+	/**
+	 * Counts the living cells. Dying ones are not included.
+	 */
+	@Override
+	public long getPopulation() {
+		return population;
+	}
+	
+	/**
+	 * Passes every living cell to given visitor. A {@link StateVisitor}
+	 * gets the dying cells too, together with their states.
+	 */
+	@Override
+	public void visit(CellVisitor visitor) {
+		StateVisitor states = visitor instanceof StateVisitor
+				? (StateVisitor) visitor : null;
+		for (int y = minY; y <= maxY; y++) {
+			int row = y * width;
+			for (int x = minX; x <= maxX; x++) {
+				int state = cells[row + x] & 0xFF;
+				if (state == 0) {
+					continue;
+				}
+				if (states != null) {
+					states.visit(left + x, top + y, state);
+				} else if (state == 1) {
+					visitor.visit(left + x, top + y);
+				}
+			}
+		}
+	}
+	
+	@Override
+	public void clear() {
+		Arrays.fill(cells, (byte) 0);
+		resetBounds();
+		population = 0;
+	}
+}
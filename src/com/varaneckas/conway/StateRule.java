@@ -0,0 +1,326 @@
+package com.varaneckas.conway;
+
+/**
+ * Rule with more than the two states and the 3 x 3 neighborhood of a
+ * Life-like {@link Rule}. Two families are supported:
+ * 
+ * "Generations" rules such as "B2/S/C3" (Brian's Brain), where a living
+ * cell that does not survive goes through a number of dying states before
+ * it is dead. Dying cells are not counted as neighbors and nothing can
+ * happen to them but further decay. The old "S/B/C" notation, i.e.
+ * "345/2/4" (Star Wars), is accepted too.
+ * 
+ * "Larger than Life" rules such as "R5,C0,M1,S34..58,B34..45,NM" (Bosco's
+ * Rule), where neighbors are counted in a square of given radius, and
+ * birth and survival are ranges of counts. R is the radius, C is the
+ * number of states (0 and 1 mean 2), M1 counts the cell itself as its own
+ * neighbor, and N must be M - only the square Moore neighborhood is
+ * supported.
+ * 
+ * Both are run by {@link StateGrid}, which counts a neighborhood of any
+ * size in constant time. Rules that give birth with 0 neighbors are
+ * rejected, just like {@link Rule} does.
+ * 
+ * Rules are immutable.
+ * 
+ * @author Tomas Varaneckas
+ * @see Logic#setRule(StateRule)
+ */
+public final class StateRule {
+	
+	/**
+	 * Largest supported neighborhood radius.
+	 */
+	public static final int MAX_RADIUS = 10;
+	
+	/**
+	 * Largest supported number of states, so that a state fits a byte.
+	 */
+	public static final int MAX_STATES = 256;
+	
+	private final int radius;
+	
+	private final int states;
+	
+	/**
+	 * True if the cell counts as its own neighbor.
+	 */
+	private final boolean middle;
+	
+	/**
+	 * Entry n tells whether a dead cell with n neighbors is born.
+	 */
+	private final boolean[] birth;
+	
+	/**
+	 * Entry n tells whether a living cell with n neighbors survives.
+	 */
+	private final boolean[] survival;
+	
+	/**
+	 * The rulestring in canonical form.
+	 */
+	private final String name;
+	
+	private StateRule(int radius, int states, boolean middle, boolean[] birth,
+			boolean[] survival, String name) {
+		this.radius = radius;
+		this.states = states;
+		this.middle = middle;
+		this.birth = birth;
+		this.survival = survival;
+		this.name = name;
+	}
+	
+	/**
+	 * @return Given Life-like rule as a two-state rule of radius 1.
+	 */
+	public static StateRule of(Rule rule) {
+		boolean[] table = rule.getTable();
+		boolean[] birth = new boolean[10];
+		boolean[] survival = new boolean[10];
+		for (int n = 0; n <= 8; n++) {
+			birth[n] = table[n];
+			survival[n] = table[9 + n];
+		}
+		return new StateRule(1, 2, false, birth, survival, rule.toString());
+	}
+	
+	/**
+	 * Parses a Generations or a Larger than Life rulestring, in any case.
+	 * 
+	 * @param rule The rulestring, i.e. "B2/S/C3" or
+	 * "R5,C0,M1,S34..58,B34..45,NM".
+	 * @return Parsed rule.
+	 * @throws IllegalArgumentException if the rulestring is invalid or
+	 * gives birth with 0 neighbors.
+	 */
+	public static StateRule parse(String rule) {
+		if (rule == null) {
+			throw new IllegalArgumentException("Rule is null");
+		}
+		String normalized = rule.trim().toUpperCase();
+		try {
+			if (normalized.startsWith("R")) {
+				return parseLargerThanLife(normalized, rule);
+			}
+			return parseGenerations(normalized, rule);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid rule: " + rule);
+		}
+	}
+	
+	private static StateRule parseGenerations(String normalized,
+			String rule) {
+		String[] parts = normalized.split("/", -1);
+		if (parts.length != 3) {
+			throw new IllegalArgumentException("Invalid rule: " + rule);
+		}
+		String birth = null, survival = null, count = null;
+		if (parts[0].startsWith("B") || parts[0].startsWith("S")
+				|| parts[0].startsWith("C")) {
+			for (String part : parts) {
+				char key = part.length() == 0 ? ' ' : part.charAt(0);
+				if (key == 'B' && birth == null) {
+					birth = part.substring(1);
+				} else if (key == 'S' && survival == null) {
+					survival = part.substring(1);
+				} else if (key == 'C' && count == null) {
+					count = part.substring(1);
+				} else {
+					throw new IllegalArgumentException("Invalid rule: "
+							+ rule);
+				}
+			}
+		} else {
+			survival = parts[0];
+			birth = parts[1];
+			count = parts[2];
+		}
+		boolean[] births = digits(birth, rule);
+		boolean[] survivals = digits(survival, rule);
+		int states = states(Integer.parseInt(count), rule);
+		if (births[0]) {
+			throw new IllegalArgumentException("Rules with B0 are not "
+					+ "supported: " + rule);
+		}
+		StringBuilder name = new StringBuilder("B");
+		append(name, births);
+		name.append("/S");
+		append(name, survivals);
+		name.append("/C").append(states);
+		return new StateRule(1, states, false, births, survivals,
+				name.toString());
+	}
+	
+	private static boolean[] digits(String digits, String rule) {
+		boolean[] counts = new boolean[10];
+		for (int i = 0; i < digits.length(); i++) {
+			int n = digits.charAt(i) - '0';
+			if (n < 0 || n > 8) {
+				throw new IllegalArgumentException("Invalid rule: " + rule);
+			}
+			counts[n] = true;
+		}
+		return counts;
+	}
+	
+	private static void append(StringBuilder name, boolean[] counts) {
+		for (int n = 0; n < counts.length; n++) {
+			if (counts[n]) {
+				name.append(n);
+			}
+		}
+	}
+	
+	private static StateRule parseLargerThanLife(String normalized,
+			String rule) {
+		int radius = -1, states = -1, middle = -1;
+		int[] birth = null, survival = null;
+		String neighborhood = null;
+		for (String part : normalized.split(",")) {
+			if (part.length() < 2) {
+				throw new IllegalArgumentException("Invalid rule: " + rule);
+			}
+			String value = part.substring(1);
+			switch (part.charAt(0)) {
+			case 'R':
+				radius = Integer.parseInt(value);
+				break;
+			case 'C':
+				states = Integer.parseInt(value);
+				break;
+			case 'M':
+				middle = Integer.parseInt(value);
+				break;
+			case 'S':
+				survival = range(value, rule);
+				break;
+			case 'B':
+				birth = range(value, rule);
+				break;
+			case 'N':
+				neighborhood = value;
+				break;
+			default:
+				throw new IllegalArgumentException("Invalid rule: " + rule);
+			}
+		}
+		if (radius < 1 || radius > MAX_RADIUS || states < 0 || middle < 0
+				|| middle > 1 || birth == null || survival == null) {
+			throw new IllegalArgumentException("Invalid rule: " + rule);
+		}
+		if (neighborhood != null && !neighborhood.equals("M")) {
+			throw new IllegalArgumentException("Only the Moore neighborhood "
+					+ "is supported: " + rule);
+		}
+		if (birth[0] == 0) {
+			throw new IllegalArgumentException("Rules with B0 are not "
+					+ "supported: " + rule);
+		}
+		states = states(Math.max(2, states), rule);
+		int size = 2 * radius + 1;
+		int cells = size * size;
+		String name = "R" + radius + ",C" + (states == 2 ? 0 : states)
+				+ ",M" + middle + ",S" + survival[0] + ".." + survival[1]
+				+ ",B" + birth[0] + ".." + birth[1] + ",NM";
+		return new StateRule(radius, states, middle == 1,
+				table(birth, cells), table(survival, cells), name);
+	}
+	
+	/**
+	 * Parses a range of counts in the "min..max" form.
+	 */
+	private static int[] range(String value, String rule) {
+		int separator = value.indexOf("..");
+		if (separator < 0) {
+			throw new IllegalArgumentException("Invalid rule: " + rule);
+		}
+		int min = Integer.parseInt(value.substring(0, separator));
+		int max = Integer.parseInt(value.substring(separator + 2));
+		if (min < 0 || max < min) {
+			throw new IllegalArgumentException("Invalid rule: " + rule);
+		}
+		return new int[] { min, max };
+	}
+	
+	/**
+	 * @return Table of counts from 0 to given number of cells, with the
+	 * ones in given range set.
+	 */
+	private static boolean[] table(int[] range, int cells) {
+		boolean[] table = new boolean[cells + 1];
+		for (int n = range[0]; n <= Math.min(range[1], cells); n++) {
+			table[n] = true;
+		}
+		return table;
+	}
+	
+	private static int states(int states, String rule) {
+		if (states < 2 || states > MAX_STATES) {
+			throw new IllegalArgumentException("Invalid number of states: "
+					+ rule);
+		}
+		return states;
+	}
+	
+	/**
+	 * @return Radius of the neighborhood, 1 for the 3 x 3 square.
+	 */
+	public int getRadius() {
+		return radius;
+	}
+	
+	/**
+	 * @return Number of states, including dead and alive.
+	 */
+	public int getStates() {
+		return states;
+	}
+	
+	/**
+	 * @return true if a cell counts as its own neighbor.
+	 */
+	public boolean isMiddleIncluded() {
+		return middle;
+	}
+	
+	/**
+	 * @param state Current state of the cell, 0 is dead, 1 is alive and the
+	 * others are dying.
+	 * @param neighbors Living cells in the neighborhood, including the cell
+	 * itself if {@link #isMiddleIncluded()}.
+	 * @return State of the cell in the next generation.
+	 */
+	public int next(int state, int neighbors) {
+		if (state == 0) {
+			return birth[neighbors] ? 1 : 0;
+		}
+		if (state == 1) {
+			if (survival[neighbors]) {
+				return 1;
+			}
+			return states > 2 ? 2 : 0;
+		}
+		return state + 1 < states ? state + 1 : 0;
+	}
+	
+	@Override
+	public int hashCode() {
+		return name.hashCode();
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof StateRule
+				&& name.equals(((StateRule) obj).name);
+	}
+	
+	/**
+	 * @return The rule in canonical notation, i.e. "B2/S/C3".
+	 */
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,20 @@
+package com.varaneckas.conway;
+
+/**
+ * {@link CellVisitor} that also wants to know the state of every cell, for
+ * rules with more than two states (see {@link StateRule}). State 1 is
+ * alive, the higher ones are dying.
+ * 
+ * Engines and snapshots check for this interface and pass the state when
+ * they know it. Visitors that are given a plain two-state board get state
+ * 1 for every cell.
+ * 
+ * @author Tomas Varaneckas
+ * @see StateGrid#visit(CellVisitor)
+ * @see Snapshot#visit(CellVisitor)
+ */
+public interface StateVisitor extends CellVisitor {
+	
+	void visit(int x, int y, int state);
+
+}
@@ -0,0 +1,547 @@
+package com.varaneckas.conway;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits the board into 64x64 {@link Tile}s and only recalculates the tiles
+ * that changed during the last generation, together with their neighbors.
+ * Still lifes left behind by a soup are never touched again, so the cost of
+ * a step follows the activity on the board instead of its population.
+ * 
+ * Every tile is a small bit-packed board: a row of 64 cells is a single
+ * <code>long</code>, and it is advanced with the same word-parallel adder
+ * as {@link DenseGrid}.
+ * 
+ * Tiles that have been empty for a while are dropped and kept for reuse,
+ * and they are looked up without boxing their coordinates, so activity
+ * moving around the board doesn't allocate once the spares are there.
+ * 
+ * @author Tomas Varaneckas
+ * @see #getActiveTileCount()
+ */
+public class TiledEngine implements HashedEngine, CountingEngine, 
+		BulkEngine {
+	
+	/**
+	 * Square of 64x64 cells.
+	 */
+	static final class Tile {
+		
+		/**
+		 * Tile coordinates, cell coordinates divided by 64.
+		 */
+		int tx, ty;
+		
+		long[] cells = new long[SIZE];
+		long[] next = new long[SIZE];
+		
+		/**
+		 * Neighboring tiles, indexed by {@link TiledEngine#N} and friends.
+		 * Null where there is no tile.
+		 */
+		final Tile[] neighbors = new Tile[8];
+		
+		/**
+		 * True if the tile changed in the last generation, which means that
+		 * it and its neighbors have to be recalculated.
+		 */
+		boolean changed;
+		
+		/**
+		 * True if the tile is scheduled for calculation in current step.
+		 */
+		boolean active;
+		
+		int population;
+		
+		/**
+		 * Generations the tile has been empty for.
+		 */
+		int emptyFor;
+		
+		Tile(int tx, int ty) {
+			this.tx = tx;
+			this.ty = ty;
+		}
+		
+		/**
+		 * Turns a dropped tile into an empty one at given coordinates.
+		 */
+		void reset(int tx, int ty) {
+			this.tx = tx;
+			this.ty = ty;
+			Arrays.fill(cells, 0);
+			Arrays.fill(next, 0);
+			Arrays.fill(neighbors, null);
+			changed = false;
+			active = false;
+			population = 0;
+			emptyFor = 0;
+		}
+	}
+	
+	/**
+	 * Tiles by their coordinates. Open addressing with linear probing, like
+	 * {@link LongCellSet}, so that lookups don't box the coordinates and
+	 * adding a tile doesn't create an entry object.
+	 */
+	static final class Directory {
+		
+		private Tile[] slots = new Tile[64];
+		
+		private int size;
+		
+		Tile get(int tx, int ty) {
+			int mask = slots.length - 1;
+			int slot = hash(tx, ty) & mask;
+			for (Tile tile; (tile = slots[slot]) != null; 
+					slot = (slot + 1) & mask) {
+				if (tile.tx == tx && tile.ty == ty) {
+					return tile;
+				}
+			}
+			return null;
+		}
+		
+		/**
+		 * Adds a tile that is not in the directory yet.
+		 */
+		void put(Tile tile) {
+			if (++size > slots.length / 2) {
+				Tile[] old = slots;
+				slots = new Tile[old.length * 2];
+				for (Tile moved : old) {
+					if (moved != null) {
+						insert(moved);
+					}
+				}
+			}
+			insert(tile);
+		}
+		
+		private void insert(Tile tile) {
+			int mask = slots.length - 1;
+			int slot = hash(tile.tx, tile.ty) & mask;
+			while (slots[slot] != null) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = tile;
+		}
+		
+		/**
+		 * Removes a tile that is in the directory.
+		 */
+		void remove(Tile tile) {
+			int mask = slots.length - 1;
+			int gap = hash(tile.tx, tile.ty) & mask;
+			while (slots[gap] != tile) {
+				gap = (gap + 1) & mask;
+			}
+			// Tiles after the gap that could live in it move back, so that 
+			// lookups don't stop at the gap before reaching them.
+			for (int slot = (gap + 1) & mask; slots[slot] != null; 
+					slot = (slot + 1) & mask) {
+				Tile next = slots[slot];
+				int home = hash(next.tx, next.ty) & mask;
+				if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+					slots[gap] = next;
+					gap = slot;
+				}
+			}
+			slots[gap] = null;
+			size--;
+		}
+		
+		void clear() {
+			Arrays.fill(slots, null);
+			size = 0;
+		}
+		
+		private static int hash(int tx, int ty) {
+			return LongCellSet.hash(LongCellSet.pack(tx, ty));
+		}
+	}
+	
+	static final int SIZE = 64;
+	
+	/**
+	 * Empty tiles are kept for this many generations before they are 
+	 * dropped, so that cells moving along tile edges don't keep creating
+	 * and dropping the same tiles.
+	 */
+	private static final int EMPTY_TILE_TTL = 256;
+	
+	/**
+	 * Dropped tiles kept for reuse, at most.
+	 */
+	private static final int MAX_SPARE_TILES = 64;
+	
+	/* Neighbor directions. Opposite direction is always 7 - direction. */
+	static final int NW = 0, N = 1, NE = 2, W = 3, E = 4, SW = 5, S = 6,
+			SE = 7;
+	
+	private static final int[] DX = { -1, 0, 1, -1, 1, -1, 0, 1 };
+	private static final int[] DY = { -1, -1, -1, 0, 0, 1, 1, 1 };
+	
+	/**
+	 * All the tiles, by tile coordinates. Only used to link new tiles to 
+	 * their neighbors, the step itself follows the links.
+	 */
+	private final Directory directory = new Directory();
+	
+	/**
+	 * All the tiles, for iteration.
+	 */
+	private final List<Tile> tiles = new ArrayList<Tile>();
+	
+	/**
+	 * Tiles that are calculated in current step. Reused between steps.
+	 */
+	private final List<Tile> active = new ArrayList<Tile>();
+	
+	/**
+	 * Dropped tiles, reused before new ones are created.
+	 */
+	private final List<Tile> spare = new ArrayList<Tile>(MAX_SPARE_TILES);
+	
+	private long population;
+	
+	/**
+	 * {@link Zobrist} hash of the living cells, a tile row at a time. Same
+	 * as the hash of {@link DenseGrid} with the same cells.
+	 */
+	private long hash;
+	
+	/**
+	 * Cells born and died in the last step.
+	 */
+	private long births, deaths;
+	
+	private Rule rule = Rule.CONWAY;
+	
+	private int activeTileCount;
+	
+	/**
+	 * Scratch rows of the tile being calculated, with one extra row above
+	 * and below taken from the neighbors.
+	 */
+	private final long[] mid = new long[SIZE + 2];
+	private final long[] west = new long[SIZE + 2];
+	private final long[] east = new long[SIZE + 2];
+	
+	/**
+	 * @return Number of tiles calculated in the last step. Stable areas of
+	 * the board don't count.
+	 */
+	public int getActiveTileCount() {
+		return activeTileCount;
+	}
+	
+	/**
+	 * @return Number of tiles in memory.
+	 */
+	public int getTileCount() {
+		return tiles.size();
+	}
+	
+	@Override
+	public void setCell(int x, int y) {
+		set(x >> 6, y, 1L << (x & 63));
+	}
+	
+	/**
+	 * Brings cells of a row to life with a word write into one or two 
+	 * tiles.
+	 */
+	@Override
+	public void setCells(int x, int y, long bits) {
+		int shift = x & 63;
+		if (bits << shift != 0) {
+			set(x >> 6, y, bits << shift);
+		}
+		if (shift != 0 && bits >>> (64 - shift) != 0) {
+			set((x >> 6) + 1, y, bits >>> (64 - shift));
+		}
+	}
+	
+	/**
+	 * Brings given cells of a tile row to life, updating the hash and the
+	 * population.
+	 * 
+	 * @param tx X coordinate of the tile.
+	 * @param y Y coordinate of the row in the world.
+	 * @param bits Cells of the row, the leftmost one in the lowest bit.
+	 */
+	private void set(int tx, int y, long bits) {
+		Tile tile = tile(tx, y >> 6, true);
+		int row = y & 63;
+		long word = tile.cells[row];
+		long filled = word | bits;
+		if (filled != word) {
+			tile.cells[row] = filled;
+			hash ^= Zobrist.word(tx, y, word) ^ Zobrist.word(tx, y, filled);
+			int born = Long.bitCount(filled) - Long.bitCount(word);
+			tile.population += born;
+			tile.changed = true;
+			population += born;
+		}
+	}
+	
+	@Override
+	public void visit(CellVisitor visitor) {
+		for (int i = 0; i < tiles.size(); i++) {
+			Tile tile = tiles.get(i);
+			if (tile.population == 0) {
+				continue;
+			}
+			int left = tile.tx << 6;
+			int top = tile.ty << 6;
+			for (int row = 0; row < SIZE; row++) {
+				long word = tile.cells[row];
+				while (word != 0) {
+					visitor.visit(left + Long.numberOfTrailingZeros(word),
+							top + row);
+					word &= word - 1;
+				}
+			}
+		}
+	}
+	
+	@Override
+	public long getPopulation() {
+		return population;
+	}
+	
+	@Override
+	public void clear() {
+		directory.clear();
+		tiles.clear();
+		active.clear();
+		population = 0;
+		hash = 0;
+	}
+	
+	@Override
+	public void setRule(Rule rule) {
+		this.rule = rule;
+	}
+	
+	@Override
+	public long getHash() {
+		return hash;
+	}
+	
+	@Override
+	public long getBirths() {
+		return births;
+	}
+	
+	@Override
+	public long getDeaths() {
+		return deaths;
+	}
+	
+	@Override
+	public void step() {
+		collectActiveTiles();
+		
+		// Calculate all the active tiles first, their neighbors must still
+		// hold the current generation.
+		for (int i = 0; i < active.size(); i++) {
+			evolve(active.get(i));
+		}
+		
+		// Then replace the generation, hashing and counting the rows that
+		// changed.
+		long births = 0, deaths = 0;
+		for (int i = 0; i < active.size(); i++) {
+			Tile tile = active.get(i);
+			long[] old = tile.cells;
+			long[] fresh = tile.next;
+			boolean changed = false;
+			int count = 0;
+			for (int row = 0; row < SIZE; row++) {
+				if (old[row] != fresh[row]) {
+					int y = (tile.ty << 6) + row;
+					hash ^= Zobrist.word(tile.tx, y, old[row]) 
+							^ Zobrist.word(tile.tx, y, fresh[row]);
+					births += Long.bitCount(fresh[row] & ~old[row]);
+					deaths += Long.bitCount(old[row] & ~fresh[row]);
+					changed = true;
+				}
+				count += Long.bitCount(fresh[row]);
+			}
+			tile.cells = fresh;
+			tile.next = old;
+			tile.changed = changed;
+			tile.active = false;
+			population += count - tile.population;
+			tile.population = count;
+		}
+		this.births = births;
+		this.deaths = deaths;
+		
+		removeDeadTiles();
+	}
+	
+	/**
+	 * Schedules changed tiles and their neighbors for calculation. Creates
+	 * neighbor tiles where cells touch the edge of a changed tile, so that
+	 * the cells can grow into them.
+	 */
+	private void collectActiveTiles() {
+		active.clear();
+		int count = tiles.size();
+		for (int i = 0; i < count; i++) {
+			Tile tile = tiles.get(i);
+			if (!tile.changed) {
+				continue;
+			}
+			activate(tile);
+			long[] cells = tile.cells;
+			long westEdge = 0, eastEdge = 0;
+			for (int row = 0; row < SIZE; row++) {
+				westEdge |= cells[row] & 1L;
+				eastEdge |= cells[row] >>> 63;
+			}
+			boolean north = cells[0] != 0;
+			boolean south = cells[SIZE - 1] != 0;
+			boolean west = westEdge != 0;
+			boolean east = eastEdge != 0;
+			
+			activate(neighbor(tile, N, north));
+			activate(neighbor(tile, S, south));
+			activate(neighbor(tile, W, west));
+			activate(neighbor(tile, E, east));
+			activate(neighbor(tile, NW, (cells[0] & 1L) != 0));
+			activate(neighbor(tile, NE, (cells[0] >>> 63) != 0));
+			activate(neighbor(tile, SW, (cells[SIZE - 1] & 1L) != 0));
+			activate(neighbor(tile, SE, (cells[SIZE - 1] >>> 63) != 0));
+		}
+		activeTileCount = active.size();
+	}
+	
+	private void activate(Tile tile) {
+		if (tile != null && !tile.active) {
+			tile.active = true;
+			active.add(tile);
+		}
+	}
+	
+	/**
+	 * @return Neighbor of the tile in given direction. It is created if
+	 * missing and create is true, otherwise null is returned.
+	 */
+	private Tile neighbor(Tile tile, int direction, boolean create) {
+		Tile neighbor = tile.neighbors[direction];
+		if (neighbor == null && create) {
+			neighbor = tile(tile.tx + DX[direction], tile.ty + DY[direction],
+					true);
+		}
+		return neighbor;
+	}
+	
+	/**
+	 * Finds a tile by its coordinates, optionally creating it and linking it
+	 * to its neighbors.
+	 */
+	private Tile tile(int tx, int ty, boolean create) {
+		Tile tile = directory.get(tx, ty);
+		if (tile == null && create) {
+			if (spare.isEmpty()) {
+				tile = new Tile(tx, ty);
+			} else {
+				tile = spare.remove(spare.size() - 1);
+				tile.reset(tx, ty);
+			}
+			directory.put(tile);
+			tiles.add(tile);
+			for (int d = 0; d < 8; d++) {
+				Tile neighbor = tile(tx + DX[d], ty + DY[d], false);
+				if (neighbor != null) {
+					tile.neighbors[d] = neighbor;
+					neighbor.neighbors[7 - d] = tile;
+				}
+			}
+		}
+		return tile;
+	}
+	
+	/**
+	 * Drops the tiles that have been empty and stable for a while, unlinking
+	 * them from their neighbors and keeping them as spares.
+	 */
+	private void removeDeadTiles() {
+		int kept = 0;
+		for (int i = 0; i < tiles.size(); i++) {
+			Tile tile = tiles.get(i);
+			tile.emptyFor = tile.population == 0 ? tile.emptyFor + 1 : 0;
+			if (tile.emptyFor > EMPTY_TILE_TTL && !tile.changed) {
+				directory.remove(tile);
+				for (int d = 0; d < 8; d++) {
+					Tile neighbor = tile.neighbors[d];
+					if (neighbor != null) {
+						neighbor.neighbors[7 - d] = null;
+					}
+				}
+				if (spare.size() < MAX_SPARE_TILES) {
+					spare.add(tile);
+				}
+			} else {
+				tiles.set(kept++, tile);
+			}
+		}
+		while (tiles.size() > kept) {
+			tiles.remove(tiles.size() - 1);
+		}
+	}
+	
+	/**
+	 * Calculates the next generation of a single tile into
+	 * {@link Tile#next}.
+	 */
+	private void evolve(Tile tile) {
+		Tile[] n = tile.neighbors;
+		long[] cells = tile.cells;
+		long[] westCells = cells(n[W]);
+		long[] eastCells = cells(n[E]);
+		
+		// Row above the tile
+		mid[0] = lastRow(n[N]);
+		west[0] = lastRow(n[NW]);
+		east[0] = lastRow(n[NE]);
+		
+		for (int row = 0; row < SIZE; row++) {
+			mid[row + 1] = cells[row];
+			west[row + 1] = westCells == null ? 0 : westCells[row];
+			east[row + 1] = eastCells == null ? 0 : eastCells[row];
+		}
+		
+		// Row below the tile
+		mid[SIZE + 1] = firstRow(n[S]);
+		west[SIZE + 1] = firstRow(n[SW]);
+		east[SIZE + 1] = firstRow(n[SE]);
+		
+		long[] out = tile.next;
+		for (int row = 0; row < SIZE; row++) {
+			out[row] = DenseGrid.evolve(rule,
+					west[row], mid[row], east[row],
+					west[row + 1], mid[row + 1], east[row + 1],
+					west[row + 2], mid[row + 2], east[row + 2]);
+		}
+	}
+	
+	private static long[] cells(Tile tile) {
+		return tile == null ? null : tile.cells;
+	}
+	
+	private static long lastRow(Tile tile) {
+		return tile == null ? 0 : tile.cells[SIZE - 1];
+	}
+	
+	private static long firstRow(Tile tile) {
+		return tile == null ? 0 : tile.cells[0];
+	}
+}
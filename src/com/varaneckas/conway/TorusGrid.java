@@ -0,0 +1,231 @@
+package com.varaneckas.conway;
+
+import java.util.Arrays;
+
+/**
+ * Bit-packed board of a fixed size with wrapped edges: cells that leave on
+ * one side come back on the opposite one, so gliders loop forever.
+ * 
+ * The edges are handled before the step instead of inside of it. Every row
+ * has a ghost cell on both ends that holds a copy of the cell on the
+ * opposite end, and there are ghost rows above and below that hold copies
+ * of the bottom and top rows. Every row is also padded with an empty word
+ * on both ends. The step itself then runs the same word-parallel adder as
+ * {@link DenseGrid} over the inner words without a single bounds check.
+ * 
+ * Cell x of a row lives at bit x + 1 of the row, counting from the start of
+ * its second word. Bit 0 of that word is the west ghost cell.
+ * 
+ * @author Tomas Varaneckas
+ * @see Logic#setTorus(int, int)
+ */
+public class TorusGrid implements Engine {
+	
+	private final int width;
+	private final int height;
+	
+	/**
+	 * Number of <code>long</code> words in a single row, including the
+	 * padding words.
+	 */
+	private final int words;
+	
+	/**
+	 * Bits of every word that hold real cells, not ghosts or padding.
+	 */
+	private final long[] cellMask;
+	
+	/**
+	 * Current generation. Row y of the board is row y + 1 here, rows 0 and
+	 * height + 1 are the ghost rows.
+	 */
+	private long[] current;
+	
+	/**
+	 * Buffer for the next generation, swapped with {@link #current} after
+	 * every step.
+	 */
+	private long[] next;
+	
+	private Rule rule = Rule.CONWAY;
+	
+	/**
+	 * Threads to split the step between, or null to calculate everything on
+	 * the calling thread.
+	 */
+	private final Workers workers;
+	
+	/**
+	 * Calculates a band of rows, see {@link Workers}.
+	 */
+	private final Workers.Task band = new Workers.Task() {
+		@Override
+		public void run(int from, int to) {
+			evolve(from + 1, to + 1);
+		}
+	};
+	
+	public TorusGrid(int width, int height) {
+		this(width, height, null);
+	}
+	
+	public TorusGrid(int width, int height, Workers workers) {
+		if (width < 1 || height < 1) {
+			throw new IllegalArgumentException("Invalid torus size: "
+					+ width + " x " + height);
+		}
+		this.width = width;
+		this.height = height;
+		this.workers = workers;
+		words = 2 + ((width + 2 + 63) >>> 6);
+		current = new long[words * (height + 2)];
+		next = new long[words * (height + 2)];
+		cellMask = new long[words];
+		for (int x = 0; x < width; x++) {
+			int bit = 64 + x + 1;
+			cellMask[bit >>> 6] |= 1L << (bit & 63);
+		}
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getHeight() {
+		return height;
+	}
+	
+	/**
+	 * Brings the cell at given coordinates to life. Coordinates outside of
+	 * the board are wrapped around.
+	 */
+	@Override
+	public void setCell(int x, int y) {
+		x = wrap(x, width);
+		y = wrap(y, height);
+		int bit = 64 + x + 1;
+		current[(y + 1) * words + (bit >>> 6)] |= 1L << (bit & 63);
+	}
+	
+	/**
+	 * @return true if cell at given coordinates is alive. Coordinates
+	 * outside of the board are wrapped around.
+	 */
+	public boolean get(int x, int y) {
+		x = wrap(x, width);
+		y = wrap(y, height);
+		int bit = 64 + x + 1;
+		return (current[(y + 1) * words + (bit >>> 6)]
+				& (1L << (bit & 63))) != 0;
+	}
+	
+	private static int wrap(int value, int size) {
+		value %= size;
+		return value < 0 ? value + size : value;
+	}
+	
+	@Override
+	public void setRule(Rule rule) {
+		this.rule = rule;
+	}
+	
+	@Override
+	public void step() {
+		fillGhosts();
+		
+		if (workers == null) {
+			evolve(1, height + 1);
+		} else {
+			workers.run(band, height);
+		}
+		
+		long[] old = current;
+		current = next;
+		next = old;
+	}
+	
+	/**
+	 * Copies the cells on the edges into the ghost cells on the opposite
+	 * side.
+	 */
+	private void fillGhosts() {
+		final long[] cur = current;
+		final int words = this.words;
+		
+		// Ghost columns first, so that the ghost rows get the corners.
+		int east = 64 + width + 1;
+		int eastWord = east >>> 6;
+		long eastBit = 1L << (east & 63);
+		int last = 64 + width;
+		int lastWord = last >>> 6;
+		int lastShift = last & 63;
+		for (int row = words; row <= height * words; row += words) {
+			long first = (cur[row + 1] >>> 1) & 1L;
+			long lastCell = (cur[row + lastWord] >>> lastShift) & 1L;
+			cur[row + 1] = (cur[row + 1] & ~1L) | lastCell;
+			cur[row + eastWord] = (cur[row + eastWord] & ~eastBit)
+					| (first << (east & 63));
+		}
+		
+		// Ghost rows
+		System.arraycopy(cur, height * words, cur, 0, words);
+		System.arraycopy(cur, words, cur, (height + 1) * words, words);
+	}
+	
+	/**
+	 * Calculates the next generation of rows from (inclusive) to (exclusive),
+	 * counting the ghost row. Padding words make sure that every word has
+	 * neighbors on both sides.
+	 */
+	private void evolve(int from, int to) {
+		final long[] cur = current;
+		final long[] out = next;
+		final long[] mask = cellMask;
+		final int words = this.words;
+		final Rule rule = this.rule;
+		
+		for (int y = from; y < to; y++) {
+			int row = y * words;
+			int above = row - words;
+			int below = row + words;
+			for (int k = 1; k < words - 1; k++) {
+				long alive = DenseGrid.evolve(rule,
+						cur[above + k - 1], cur[above + k], cur[above + k + 1],
+						cur[row + k - 1], cur[row + k], cur[row + k + 1],
+						cur[below + k - 1], cur[below + k], cur[below + k + 1]);
+				out[row + k] = alive & mask[k];
+			}
+		}
+	}
+	
+	@Override
+	public long getPopulation() {
+		long population = 0;
+		for (int y = 1; y <= height; y++) {
+			for (int k = 1; k < words - 1; k++) {
+				population += Long.bitCount(current[y * words + k]
+						& cellMask[k]);
+			}
+		}
+		return population;
+	}
+	
+	@Override
+	public void visit(CellVisitor visitor) {
+		for (int y = 1; y <= height; y++) {
+			for (int k = 1; k < words - 1; k++) {
+				long word = current[y * words + k] & cellMask[k];
+				while (word != 0) {
+					int bit = Long.numberOfTrailingZeros(word);
+					visitor.visit((k << 6) + bit - 64 - 1, y - 1);
+					word &= word - 1;
+				}
+			}
+		}
+	}
+	
+	@Override
+	public void clear() {
+		Arrays.fill(current, 0);
+	}
+}
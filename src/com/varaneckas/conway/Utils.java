@@ -1,6 +1,6 @@
 package com.varaneckas.conway;
 
-import android.util.Log;
+import java.lang.reflect.Method;
 
 /**
  * Collection of static convenience methods to reduce the amount of code in our
@@ -10,10 +10,26 @@ import android.util.Log;
  */
 final public class Utils {
 	
+	/**
+	 * <code>android.util.Log.i(String, String)</code>, or null when not
+	 * running on Android. Looked up by reflection, so that the engines can
+	 * run without Android, i.e. in <code>bench/</code>.
+	 */
+	private static final Method LOG = findLog();
+	
 	private Utils() {
 		// It's an utility class, so the constructor is private
 	}
 	
+	private static Method findLog() {
+		try {
+			return Class.forName("android.util.Log").getMethod("i", 
+					String.class, String.class);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
 	/**
 	 * Sleeps for given milliseconds. Throws {@link RuntimeException} instead 
 	 * of {@link InterruptedException}.
@@ -29,14 +45,39 @@ final public class Utils {
 	}
 
 	/**
-	 * Logs a debug message using Android logging facility.
+	 * Sleeps for given nanoseconds. Throws {@link RuntimeException} instead 
+	 * of {@link InterruptedException}.
+	 * 
+	 * @param nanos Nanoseconds to sleep.
+	 */
+	public static void sleepNanos(long nanos) {
+		try {
+			Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Sleep interrupted", e);
+		}
+	}
+
+	/**
+	 * Logs a debug message using Android logging facility, or prints it to
+	 * the standard output when running without Android.
 	 * 
 	 * @param source Source of the message. Provide "this".
 	 * @param message Message (will go to String.format).
 	 * @param args Args for String.format.
 	 */
 	public static void debug(Object source, String message, Object ... args) {
-		Log.i(source.getClass().getSimpleName(), String.format(message, args));
+		String tag = source.getClass().getSimpleName();
+		String text = String.format(message, args);
+		if (LOG == null) {
+			System.out.println(tag + ": " + text);
+			return;
+		}
+		try {
+			LOG.invoke(null, tag, text);
+		} catch (Exception e) {
+			System.out.println(tag + ": " + text);
+		}
 	}
 
 }
@@ -1,8 +1,6 @@
 package com.varaneckas.conway;
 
-import java.util.ArrayList;
-import java.util.Collection;
-
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -13,6 +11,20 @@ import android.view.SurfaceHolder;
 /**
  * Responsible for rendering the game state which {@link Logic} holds.
  * 
+ * The world is unbounded, {@link Viewport} decides which part of it is on
+ * the screen. Only the cells inside of it are ever looked at, so the cost of
+ * drawing does not depend on how large the world is.
+ * 
+ * Cells are kept drawn on a {@link PixelBuffer} with one pixel per cell,
+ * which survives between frames. Every frame only repaints the cells that
+ * were born or died since the previous one, so the cost of a frame follows
+ * the changes on the board rather than its population. The pixels then go
+ * to the screen with a single scaled bitmap draw. The buffer is repainted 
+ * completely only when the surface gets resized or recreated.
+ * 
+ * Rules with dying states (see {@link StateRule}) get a color per state:
+ * dying cells fade from red towards the background as they decay.
+ * 
  * @author Tomas Varaneckas
  */
 public class Video {
@@ -24,11 +36,6 @@ public class Video {
 	 */
 	private final Paint bgPaint;
 	
-	/**
-	 * Defines active cell color.
-	 */
-	private final Paint cellPaint;
-	
 	/**
 	 * Defines color of cells that were drawn with finger but not yet flushed
 	 * into game logic.
@@ -44,95 +51,357 @@ public class Video {
 	/**
 	 * Screen dimensions in pixels.
 	 */
-	private int width, height;
+	private volatile int width, height;
 	
 	/**
-	 * Scale that tells how many screen pixels will represent one game pixel.
+	 * Scale that tells how many screen pixels will represent one game pixel,
+	 * until the user zooms.
+	 * @see Viewport#zoom(float, float, float)
 	 */
 	public static final float SCALE = 15f;
 	
+	/**
+	 * The part of the world that is visible.
+	 */
+	private final Viewport viewport = new Viewport();
+	
+	/**
+	 * {@link Viewport#getVersion()} that {@link #pixels} show.
+	 */
+	private long viewportVersion = -1;
+	
+	/**
+	 * Viewport state for the frame that is being drawn. Copied once per 
+	 * frame, so that the picture stays consistent while the user moves the
+	 * camera.
+	 */
+	private float frameLeft, frameTop, frameScale;
+	
+	/**
+	 * Reused for every cell, so that drawing does not create garbage.
+	 */
+	private final Rect cellRect = new Rect();
+	
+	/**
+	 * Canvas of the frame that {@link #inputPainter} draws on.
+	 */
+	private Canvas inputCanvas;
+	
+	/**
+	 * Draws the unprocessed touches of {@link Input} straight from its 
+	 * ring.
+	 */
+	private final CellVisitor inputPainter = new CellVisitor() {
+		@Override
+		public void visit(int x, int y) {
+			drawCell(inputCanvas, x, y, prePaint);
+		}
+	};
+	
+	/**
+	 * Background color, in the form {@link PixelBuffer} takes it.
+	 */
+	private static final int BACKGROUND = Color.WHITE;
+	
+	/**
+	 * Active cell color, in the form {@link PixelBuffer} takes it.
+	 */
+	private static final int ALIVE = Color.BLACK;
+	
+	/**
+	 * Color of the first dying state. The later ones fade towards
+	 * {@link #BACKGROUND}.
+	 */
+	private static final int DYING = 0xFFCC3300;
+	
+	/**
+	 * Color of every cell state, in the form {@link PixelBuffer} takes it.
+	 * Covers every possible state, not only the ones of the current rule.
+	 */
+	private int[] palette;
+	
+	/**
+	 * Number of states {@link #palette} was made for.
+	 */
+	private int paletteStates;
+	
+	/**
+	 * Cells drawn so far, one pixel per cell. Kept between frames.
+	 */
+	private final PixelBuffer pixels = new PixelBuffer();
+	
+	/**
+	 * {@link #pixels} on their way to the screen.
+	 */
+	private Bitmap bitmap;
+	
+	/**
+	 * Part of the screen that {@link #bitmap} gets scaled to.
+	 */
+	private final Rect bitmapRect = new Rect();
+	
+	/**
+	 * Draws {@link #bitmap} without smoothing, so that cells stay sharp.
+	 */
+	private final Paint bitmapPaint;
+	
+	/**
+	 * Snapshot that {@link #pixels} show.
+	 */
+	private Snapshot drawn;
+	
+	/**
+	 * True when {@link #pixels} have to be repainted from scratch.
+	 */
+	private volatile boolean repaint = true;
+	
+	/**
+	 * True to draw {@link Metrics} over the cells.
+	 */
+	private volatile boolean overlay;
+	
+	/**
+	 * Size of the text of the overlay, in pixels.
+	 */
+	private static final float OVERLAY_TEXT_SIZE = 16f;
+	
+	/**
+	 * Phases shown in the overlay, copied once.
+	 */
+	private static final Metrics.Phase[] PHASES = Metrics.Phase.values();
+	
+	/**
+	 * Text and background of the overlay.
+	 */
+	private final Paint overlayPaint;
+	private final Paint overlayBackground;
+	
+	/**
+	 * Reused for every line of the overlay, so that drawing it does not 
+	 * create garbage.
+	 */
+	private final StringBuilder overlayLine = new StringBuilder();
+	
 	/**
 	 * Constructor that initializes internal {@link Paint} objects.
 	 * @see #bgPaint
-	 * @see #cellPaint
+	 * @see #bitmapPaint
 	 * @see #prePaint
+	 * @see #overlayPaint
 	 */
 	public Video(GameContext context) {
 		this.context = context;
 		
 		bgPaint = new Paint();
-		bgPaint.setColor(Color.WHITE);
+		bgPaint.setColor(BACKGROUND);
 		
-		cellPaint = new Paint();
-		cellPaint.setColor(Color.BLACK);
+		bitmapPaint = new Paint();
+		bitmapPaint.setFilterBitmap(false);
 		
 		prePaint = new Paint();
 		prePaint.setColor(Color.GREEN);
+		
+		overlayPaint = new Paint();
+		overlayPaint.setColor(Color.WHITE);
+		overlayPaint.setAntiAlias(true);
+		overlayPaint.setTextSize(OVERLAY_TEXT_SIZE);
+		
+		overlayBackground = new Paint();
+		overlayBackground.setColor(0xA0000000);
 	}
 	
 
 	/**
 	 * Updates all the video:
-	 * 1. Clears background and fills it with {@link #bgPaint}.
-	 * 2. Draws {@link Cell} objects that come from {@link Logic}.
+	 * 1. Brings the pixels up to date with {@link Logic}.
+	 * 2. Draws the pixels scaled to the screen.
 	 * 3. Draws unprocessed cells that come from {@link Input}.
-	 * @see #prepareBackground(Canvas)
-	 * @see #drawCells(Canvas)
+	 * 4. Draws {@link Metrics}, if the overlay is on.
+	 * @see #drawCells()
 	 * @see #drawUnprocessedInput(Canvas)
+	 * @see #drawOverlay(Canvas)
 	 */
 	public void update() {
+		if (!drawCells()) {
+			return;
+		}
 		Canvas canvas = surfaceHolder.lockCanvas();
 		if (canvas != null) {
 			prepareBackground(canvas);
-			drawCells(canvas);
+			canvas.drawBitmap(bitmap, null, bitmapRect, bitmapPaint);
 			drawUnprocessedInput(canvas);
+			if (overlay) {
+				drawOverlay(canvas);
+			}
 			surfaceHolder.unlockCanvasAndPost(canvas);
 		}
 	}
 	
+	/**
+	 * Makes the next frame repaint all the cells. Needed when the surface
+	 * is recreated.
+	 */
+	public void invalidate() {
+		repaint = true;
+	}
+	
 	/**
 	 * Fills given canvas with background color. 
 	 */
 	private void prepareBackground(Canvas canvas) {
-		canvas.drawRect(new Rect(0, 0, width, height), bgPaint);
+		canvas.drawRect(0, 0, width, height, bgPaint);
+	}
+
+	/**
+	 * Draws the visible cells of the current generation that {@link Logic}
+	 * provides onto {@link #pixels} and copies them to {@link #bitmap}. Only
+	 * the changes since the previous frame are drawn, unless the viewport
+	 * has moved or a full repaint is needed.
+	 * 
+	 * @return false if there is nothing to draw on yet.
+	 */
+	private boolean drawCells() {
+		Viewport viewport = this.viewport;
+		int columns, rows, firstColumn, firstRow;
+		long version;
+		synchronized (viewport) {
+			version = viewport.getVersion();
+			frameLeft = viewport.getLeft();
+			frameTop = viewport.getTop();
+			frameScale = viewport.getScale();
+			firstColumn = viewport.getFirstColumn();
+			firstRow = viewport.getFirstRow();
+			columns = viewport.getColumns();
+			rows = viewport.getRows();
+		}
+		if (columns <= 0 || rows <= 0) {
+			return false;
+		}
+		Logic logic = context.getLogic();
+		Snapshot snapshot = logic.getSnapshot();
+		
+		int states = logic.getStates();
+		if (states != paletteStates) {
+			palette = createPalette(states);
+			paletteStates = states;
+			repaint = true;
+		}
+		
+		if (bitmap == null || bitmap.getWidth() != columns 
+				|| bitmap.getHeight() != rows) {
+			if (bitmap != null) {
+				bitmap.recycle();
+			}
+			bitmap = Bitmap.createBitmap(columns, rows, 
+					Bitmap.Config.ARGB_8888);
+			repaint = true;
+		}
+		if (pixels.setWindow(firstColumn, firstRow, columns, rows)
+				|| version != viewportVersion) {
+			viewportVersion = version;
+			bitmapRect.set(
+					Math.round((firstColumn - frameLeft) * frameScale),
+					Math.round((firstRow - frameTop) * frameScale),
+					Math.round((firstColumn + columns - frameLeft) * frameScale),
+					Math.round((firstRow + rows - frameTop) * frameScale));
+			repaint = true;
+		}
+		
+		if (repaint) {
+			repaint = false;
+			pixels.paint(snapshot, palette);
+		} else if (snapshot == drawn 
+				|| pixels.paintChanges(snapshot, drawn, palette) == 0) {
+			// The bitmap is up to date.
+			drawn = snapshot;
+			return true;
+		}
+		drawn = snapshot;
+		bitmap.setPixels(pixels.getPixels(), 0, columns, 0, 0, columns, 
+				rows);
+		return true;
 	}
 
 	/**
-	 * Draws the current generation of cells that {@link Logic} provides. 
+	 * @return Colors for a rule with given number of states: background,
+	 * living cells, and dying ones fading from {@link #DYING} towards the 
+	 * background.
 	 */
-	private void drawCells(Canvas canvas) {
-		drawCells(canvas, context.getLogic().getCells(), cellPaint);
+	private static int[] createPalette(int states) {
+		int[] palette = new int[StateRule.MAX_STATES];
+		palette[0] = BACKGROUND;
+		palette[1] = ALIVE;
+		float steps = Math.max(1, states - 2);
+		for (int state = 2; state < palette.length; state++) {
+			float fade = 0.8f * Math.min(1f, (state - 2) / steps);
+			palette[state] = blend(DYING, BACKGROUND, fade);
+		}
+		return palette;
+	}
+	
+	/**
+	 * @return Color that is given part of the way from one color to another.
+	 */
+	private static int blend(int from, int to, float part) {
+		int result = 0xFF000000;
+		for (int shift = 0; shift < 24; shift += 8) {
+			int a = (from >>> shift) & 0xFF;
+			int b = (to >>> shift) & 0xFF;
+			result |= Math.round(a + (b - a) * part) << shift;
+		}
+		return result;
 	}
 
 	/**
 	 * Draws virtual cells to visualize unprocessed user input.
 	 */
 	private void drawUnprocessedInput(Canvas canvas) {
-		Collection<Cell> preview = new ArrayList<Cell>();
-		for (Touch touch : context.getInput().getUnprocessed()) {
-			preview.add(new Cell(touch.x, touch.y));
-		}
-		drawCells(canvas, preview, prePaint);
+		inputCanvas = canvas;
+		context.getInput().visitUnprocessed(inputPainter);
+		inputCanvas = null;
 	}
 
 	/**
-	 * Draws a collection of cells using given paint and canvas.
-	 * Cells are represented as a rectangle.
-	 * @see #SCALE
-	 * @param canvas Canvas to draw on.
-	 * @param cells Cells that should be drawn.
-	 * @param paint Paint that defines cell color.
-	 */
-	private void drawCells(Canvas canvas, Collection<Cell> cells, Paint paint) {
-		for (Cell cell : cells) {
-			canvas.drawRect(new Rect(
-					Math.round(cell.getX() * SCALE), 
-					Math.round(cell.getY() * SCALE), 
-					Math.round(cell.getX() * SCALE + SCALE), 
-					Math.round(cell.getY() * SCALE + SCALE)), 
-					paint);
+	 * Draws the counters and the timings of {@link Metrics} on a dark band
+	 * at the top of the screen, a line at a time.
+	 */
+	private void drawOverlay(Canvas canvas) {
+		Metrics metrics = context.getMetrics();
+		float line = OVERLAY_TEXT_SIZE * 1.25f;
+		canvas.drawRect(0, 0, width, line * (PHASES.length + 1.5f), 
+				overlayBackground);
+		
+		StringBuilder text = overlayLine;
+		text.setLength(0);
+		text.append("gen ").append(metrics.getGeneration())
+				.append(" pop ").append(metrics.getPopulation())
+				.append(" +").append(metrics.getBirths())
+				.append(" -").append(metrics.getDeaths());
+		float y = line;
+		canvas.drawText(text, 0, text.length(), OVERLAY_TEXT_SIZE / 2, y, 
+				overlayPaint);
+		for (Metrics.Phase phase : PHASES) {
+			text.setLength(0);
+			metrics.append(text, phase);
+			y += line;
+			canvas.drawText(text, 0, text.length(), OVERLAY_TEXT_SIZE / 2, y, 
+					overlayPaint);
 		}
 	}
+	
+	/**
+	 * Draws a single cell as a rectangle, where the viewport of the current
+	 * frame shows it.
+	 * @see Viewport
+	 */
+	private void drawCell(Canvas canvas, int x, int y, Paint paint) {
+		cellRect.set(
+				Math.round((x - frameLeft) * frameScale), 
+				Math.round((y - frameTop) * frameScale), 
+				Math.round((x + 1 - frameLeft) * frameScale), 
+				Math.round((y + 1 - frameTop) * frameScale));
+		canvas.drawRect(cellRect, paint);
+	}
 
 	/**
 	 * Changes video size. Will be called externally from our {@link GameView}.
@@ -141,22 +410,27 @@ public class Video {
 		Utils.debug(this, "Setting video size: %d x %d", width, height);
 		this.width = width;
 		this.height = height;
+		viewport.setSize(width, height);
+		repaint = true;
 	}
 	
 	/**
-	 * Gets the width of our game matrix using scaled game pixels.
-	 * @see #SCALE
+	 * Shows or hides {@link Metrics} on top of the cells.
 	 */
-	public int getMatrixWidth() {
-		return Math.round(width / SCALE);
+	public void setOverlay(boolean overlay) {
+		Utils.debug(this, "Setting overlay %s", overlay ? "on" : "off");
+		this.overlay = overlay;
+	}
+	
+	public boolean isOverlay() {
+		return overlay;
 	}
 	
 	/**
-	 * Gets the height of our game matrix using scaled game pixels.
-	 * @see #SCALE
+	 * @return The camera that decides which part of the world is visible.
 	 */
-	public int getMatrixHeight() {
-		return Math.round(height / SCALE);
+	public Viewport getViewport() {
+		return viewport;
 	}
 	
 	/**
@@ -0,0 +1,153 @@
+package com.varaneckas.conway;
+
+/**
+ * Camera that looks at a part of the unbounded world. Knows where the top
+ * left corner of the screen is in cell coordinates and how many screen
+ * pixels a cell takes. {@link GameView} moves it with pan and pinch
+ * gestures, {@link Video} draws what it sees.
+ * 
+ * Moving the camera has no effect on the simulation, only on what gets
+ * drawn.
+ * 
+ * Changed on the UI thread and read on the render thread, so all the state
+ * is guarded by this.
+ * 
+ * @author Tomas Varaneckas
+ * @see Video#getViewport()
+ */
+public class Viewport {
+	
+	/**
+	 * Smallest number of pixels per cell.
+	 */
+	public static final float MIN_SCALE = 1f;
+	
+	/**
+	 * Largest number of pixels per cell.
+	 */
+	public static final float MAX_SCALE = 64f;
+	
+	/**
+	 * Cell coordinates of the top left corner of the screen.
+	 */
+	private float left, top;
+	
+	/**
+	 * Screen pixels per cell.
+	 */
+	private float scale = Video.SCALE;
+	
+	/**
+	 * Screen dimensions in pixels.
+	 */
+	private int width, height;
+	
+	/**
+	 * Incremented on every change, so that {@link Video} knows when to
+	 * repaint.
+	 */
+	private long version;
+	
+	public synchronized void setSize(int width, int height) {
+		this.width = width;
+		this.height = height;
+		version++;
+	}
+	
+	/**
+	 * Moves the camera together with the finger.
+	 * 
+	 * @param dx Horizontal movement in pixels.
+	 * @param dy Vertical movement in pixels.
+	 */
+	public synchronized void pan(float dx, float dy) {
+		left -= dx / scale;
+		top -= dy / scale;
+		version++;
+	}
+	
+	/**
+	 * Zooms in or out, keeping the cell under the focus point in place.
+	 * 
+	 * @param factor Change of the scale, above 1 zooms in.
+	 * @param focusX Focus point on the screen, in pixels.
+	 * @param focusY Focus point on the screen, in pixels.
+	 */
+	public synchronized void zoom(float factor, float focusX, float focusY) {
+		float scale = Math.max(MIN_SCALE,
+				Math.min(MAX_SCALE, this.scale * factor));
+		left += focusX / this.scale - focusX / scale;
+		top += focusY / this.scale - focusY / scale;
+		this.scale = scale;
+		version++;
+	}
+	
+	/**
+	 * @return Cell X coordinate under given screen X coordinate.
+	 */
+	public synchronized float toCellX(float screenX) {
+		return left + screenX / scale;
+	}
+	
+	/**
+	 * @return Cell Y coordinate under given screen Y coordinate.
+	 */
+	public synchronized float toCellY(float screenY) {
+		return top + screenY / scale;
+	}
+	
+	/**
+	 * @return Cell coordinates of the top left corner of the screen.
+	 */
+	public synchronized float getLeft() {
+		return left;
+	}
+	
+	public synchronized float getTop() {
+		return top;
+	}
+	
+	public synchronized float getScale() {
+		return scale;
+	}
+	
+	public synchronized int getWidth() {
+		return width;
+	}
+	
+	public synchronized int getHeight() {
+		return height;
+	}
+	
+	public synchronized long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * @return Leftmost column that is at least partly visible.
+	 */
+	public synchronized int getFirstColumn() {
+		return (int) Math.floor(left);
+	}
+	
+	/**
+	 * @return Topmost row that is at least partly visible.
+	 */
+	public synchronized int getFirstRow() {
+		return (int) Math.floor(top);
+	}
+	
+	/**
+	 * @return Number of columns that are at least partly visible.
+	 */
+	public synchronized int getColumns() {
+		return (int) Math.ceil(left + width / scale) - getFirstColumn();
+	}
+	
+	/**
+	 * @return Number of rows that are at least partly visible.
+	 */
+	public synchronized int getRows() {
+		return (int) Math.ceil(top + height / scale) - getFirstRow();
+	}
+}
@@ -0,0 +1,166 @@
+package com.varaneckas.conway;
+
+/**
+ * Decides how many generations {@link MainLoop} can run per frame in warp
+ * mode. Measures the cost of {@link Logic#tick()} and keeps the time spent
+ * on simulation inside a share of the frame, so that rendering and the rest
+ * of the device get their turn even when the board is busy.
+ * 
+ * The share goes down when the device is {@link #setConstrained(boolean)
+ * constrained}, i.e. low on battery or running hot.
+ * 
+ * @author Tomas Varaneckas
+ * @see MainLoop#setWarp(int)
+ */
+public class WarpGovernor {
+	
+	/**
+	 * Warp is off, generations run at a fixed rate.
+	 * @see MainLoop#setGenerationsPerSecond(int)
+	 */
+	public static final int OFF = 0;
+	
+	/**
+	 * Run as many generations per frame as fit into the budget.
+	 */
+	public static final int AS_MANY_AS_FIT = -1;
+	
+	/**
+	 * Share of a frame that simulation may take normally.
+	 */
+	private static final double NORMAL_SHARE = 0.75;
+	
+	/**
+	 * Share of a frame that simulation may take on a constrained device.
+	 */
+	private static final double CONSTRAINED_SHARE = 0.3;
+	
+	/**
+	 * Weight of the latest measurement in {@link #tickCost}.
+	 */
+	private static final double ALPHA = 0.25;
+	
+	/**
+	 * Frame duration in nanoseconds.
+	 */
+	private final long frameNanos;
+	
+	/**
+	 * Requested generations per frame, {@link #OFF} or
+	 * {@link #AS_MANY_AS_FIT}.
+	 */
+	private volatile int warp = OFF;
+	
+	private volatile boolean constrained;
+	
+	/**
+	 * Moving average of a single tick, in nanoseconds. 0 until measured.
+	 */
+	private volatile double tickCost;
+	
+	/**
+	 * Generations actually run in the last frame.
+	 */
+	private volatile int lastGenerations;
+	
+	/**
+	 * @param frameMillis Frame duration in milliseconds.
+	 */
+	public WarpGovernor(long frameMillis) {
+		this.frameNanos = frameMillis * 1000000L;
+	}
+	
+	/**
+	 * @param warp Generations per frame, {@link #OFF} or
+	 * {@link #AS_MANY_AS_FIT}. Fixed amounts are still cut down when they
+	 * don't fit into the budget.
+	 */
+	public void setWarp(int warp) {
+		if (warp < AS_MANY_AS_FIT) {
+			throw new IllegalArgumentException("Invalid warp: " + warp);
+		}
+		Utils.debug(this, "Setting warp to %d", warp);
+		this.warp = warp;
+	}
+	
+	public int getWarp() {
+		return warp;
+	}
+	
+	public boolean isEnabled() {
+		return warp != OFF;
+	}
+	
+	/**
+	 * Tells the governor that the device is low on battery or overheating,
+	 * so simulation should leave it more room.
+	 */
+	public void setConstrained(boolean constrained) {
+		if (this.constrained != constrained) {
+			Utils.debug(this, "Device constrained: %b", constrained);
+			this.constrained = constrained;
+		}
+	}
+	
+	public boolean isConstrained() {
+		return constrained;
+	}
+	
+	public long getFrameNanos() {
+		return frameNanos;
+	}
+	
+	/**
+	 * @return Time in nanoseconds that simulation may take in a frame.
+	 */
+	public long getBudgetNanos() {
+		return (long) (frameNanos
+				* (constrained ? CONSTRAINED_SHARE : NORMAL_SHARE));
+	}
+	
+	/**
+	 * @return Generations to run in the next frame, at least 1.
+	 */
+	public int getGenerations() {
+		int warp = this.warp;
+		double cost = tickCost;
+		int fit;
+		if (cost <= 0) {
+			// Not measured yet, start carefully.
+			fit = 1;
+		} else {
+			fit = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+					getBudgetNanos() / cost));
+		}
+		return warp == AS_MANY_AS_FIT ? fit : Math.max(1, Math.min(warp, fit));
+	}
+	
+	/**
+	 * Records the time that the last frame's generations took.
+	 * 
+	 * @param nanos Total time of the generations.
+	 * @param generations Number of generations run.
+	 */
+	public void record(long nanos, int generations) {
+		lastGenerations = generations;
+		if (generations == 0) {
+			return;
+		}
+		double cost = (double) nanos / generations;
+		tickCost = tickCost <= 0 ? cost : tickCost + ALPHA * (cost - tickCost);
+	}
+	
+	/**
+	 * @return Average tick cost in nanoseconds.
+	 */
+	public double getTickCost() {
+		return tickCost;
+	}
+	
+	/**
+	 * @return Generations run in the last frame.
+	 */
+	public int getLastGenerations() {
+		return lastGenerations;
+	}
+}
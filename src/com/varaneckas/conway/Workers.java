@@ -0,0 +1,210 @@
+package com.varaneckas.conway;
+
+/**
+ * Pool of threads for splitting a step across processor cores. Work is 
+ * split into horizontal bands of rows, each band goes to a separate thread
+ * and the caller waits until all of them are done.
+ * 
+ * Bands only write their own rows of the next generation and read the 
+ * current one, so they need no locking.
+ * 
+ * The threads live as long as the pool and are woken up for every
+ * {@link #run(Task, int)}, so once they are started, splitting the work
+ * does not allocate anything.
+ * 
+ * @author Tomas Varaneckas
+ */
+public class Workers {
+	
+	/**
+	 * Work that can be split into bands.
+	 */
+	public interface Task {
+		
+		/**
+		 * Processes rows from (inclusive) to (exclusive).
+		 */
+		void run(int from, int to);
+	
+	}
+	
+	/**
+	 * Bands thinner than this are not worth a thread.
+	 */
+	private static final int MIN_BAND_ROWS = 32;
+	
+	/**
+	 * Number of threads, including the calling one.
+	 */
+	private volatile int count;
+	
+	/**
+	 * Threads that run all bands but the first one, which runs on the
+	 * calling thread.
+	 */
+	private Thread[] threads = new Thread[0];
+	
+	/**
+	 * Incremented when {@link #threads} get replaced, so that the old ones
+	 * know they have to quit.
+	 */
+	private int epoch;
+	
+	/* Current job, guarded by this. */
+	private Task task;
+	private int rows;
+	private int bands;
+	private int round;
+	private int pending;
+	private Throwable failure;
+	
+	public Workers() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	public Workers(int count) {
+		setCount(count);
+	}
+	
+	/**
+	 * Changes the number of threads. 1 makes everything run on the calling
+	 * thread. Becomes effective on the next {@link #run(Task, int)}.
+	 */
+	public void setCount(int count) {
+		if (count < 1) {
+			throw new IllegalArgumentException("Need at least 1 worker");
+		}
+		Utils.debug(this, "Setting worker count to %d", count);
+		this.count = count;
+	}
+	
+	public int getCount() {
+		return count;
+	}
+	
+	/**
+	 * Splits given rows into bands and runs the task on them in parallel.
+	 * Returns when all the bands are done.
+	 * 
+	 * @param task Task to run.
+	 * @param rows Number of rows to split.
+	 */
+	public void run(Task task, int rows) {
+		// Read once, the bands must not outnumber the threads started for
+		// them if the count changes meanwhile.
+		int count = this.count;
+		int bands = Math.min(count, rows / MIN_BAND_ROWS);
+		if (bands <= 1) {
+			task.run(0, rows);
+			return;
+		}
+		
+		synchronized (this) {
+			if (threads.length != count - 1) {
+				startThreads(count - 1);
+			}
+			this.task = task;
+			this.rows = rows;
+			this.bands = bands;
+			this.pending = bands - 1;
+			this.failure = null;
+			round++;
+			notifyAll();
+		}
+		
+		// The calling thread does its share too.
+		task.run(0, rows / bands);
+		
+		Throwable failure;
+		synchronized (this) {
+			while (pending > 0) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(
+							"Interrupted while waiting for workers", e);
+				}
+			}
+			this.task = null;
+			failure = this.failure;
+		}
+		if (failure != null) {
+			throw new RuntimeException("Worker failed", failure);
+		}
+	}
+	
+	/**
+	 * Stops the threads. They are started again when needed.
+	 */
+	public synchronized void shutdown() {
+		startThreads(0);
+	}
+	
+	/**
+	 * Replaces the threads with given amount of new ones.
+	 */
+	private void startThreads(int amount) {
+		final int threadEpoch = ++epoch;
+		final int startRound = round;
+		notifyAll();
+		threads = new Thread[amount];
+		for (int i = 0; i < amount; i++) {
+			final int band = i + 1;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work(band, threadEpoch, startRound);
+				}
+			}, "Worker " + band);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+	}
+	
+	/**
+	 * Main loop of a worker thread. Waits for a new round and runs the
+	 * band it is responsible for.
+	 */
+	private void work(int band, int threadEpoch, int seen) {
+		while (true) {
+			Task task;
+			int from, to;
+			synchronized (this) {
+				while (round == seen && epoch == threadEpoch) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (epoch != threadEpoch) {
+					return;
+				}
+				seen = round;
+				if (band >= bands) {
+					// Not needed for this round.
+					continue;
+				}
+				task = this.task;
+				from = (int) ((long) rows * band / bands);
+				to = (int) ((long) rows * (band + 1) / bands);
+			}
+			
+			Throwable error = null;
+			try {
+				task.run(from, to);
+			} catch (Throwable e) {
+				error = e;
+			}
+			
+			synchronized (this) {
+				if (error != null) {
+					failure = error;
+				}
+				if (--pending == 0) {
+					notifyAll();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.varaneckas.conway;
+
+/**
+ * Zobrist keys of cells, for hashing whole boards. The hash of a board is
+ * the XOR of the keys of its living cells, so an engine can keep it up to
+ * date by XOR-ing in the cells that are born or die, without ever looking
+ * at the rest of the board. See {@link HashedEngine}.
+ * 
+ * The world is unbounded, so instead of a table of random numbers the keys
+ * come from a 64 bit mixing function of the coordinates, which is just as
+ * random for this purpose.
+ * 
+ * Bit-packed engines hash a row of 64 cells at a time, see
+ * {@link #word(int, int, long)}. Board hashes are only comparable between
+ * engines that hash the same way.
+ * 
+ * @author Tomas Varaneckas
+ * @see CycleDetector
+ */
+public final class Zobrist {
+	
+	private Zobrist() {
+		// It's an utility class, so the constructor is private
+	}
+	
+	/**
+	 * @return Key of a living cell at given coordinates.
+	 */
+	public static long cell(int x, int y) {
+		return cell(LongCellSet.pack(x, y));
+	}
+	
+	/**
+	 * @return Key of a living cell, packed with
+	 * {@link LongCellSet#pack(int, int)}.
+	 */
+	public static long cell(long cell) {
+		return mix(cell + 0x9E3779B97F4A7C15L);
+	}
+	
+	/**
+	 * @return Key of a cell in given state, same as
+	 * {@link #cell(int, int)} for state 1.
+	 */
+	public static long cell(int x, int y, int state) {
+		long key = cell(x, y);
+		return state == 1 ? key : mix(key + state);
+	}
+	
+	/**
+	 * Key of a row of 64 cells, with the cells from x = column * 64 in the
+	 * lowest bit to x = column * 64 + 63 in the highest one. An empty row
+	 * has key 0, so only the rows that hold cells count.
+	 * 
+	 * @param column X coordinate of the row divided by 64.
+	 * @param y Y coordinate of the row.
+	 * @param bits Living cells of the row.
+	 */
+	public static long word(int column, int y, long bits) {
+		return bits == 0 ? 0 : mix(cell(column, y) ^ bits);
+	}
+	
+	/**
+	 * Finalizer of SplitMix64, every bit of the input affects every bit of
+	 * the output.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,148 @@
+package com.varaneckas.conway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Counts the bytes that {@link Logic#tick()} allocates once the board has
+ * settled, with the allocation counter of the JVM. Needs a HotSpot-like
+ * JVM, the tests are skipped elsewhere.
+ * 
+ * {@link HashLife} is left out on purpose: its node cache grows with every
+ * new pattern it sees.
+ * 
+ * @author Tomas Varaneckas
+ */
+public class AllocationTest {
+	
+	private static final int WARMUP_TICKS = 2000;
+	
+	private static final int MEASURED_TICKS = 1000;
+	
+	private static final int ROUNDS = 3;
+	
+	private com.sun.management.ThreadMXBean threads;
+	
+	private GameContext context;
+	
+	@Before
+	public void setUp() {
+		assumeTrue(ManagementFactory.getThreadMXBean()
+				instanceof com.sun.management.ThreadMXBean);
+		threads = (com.sun.management.ThreadMXBean)
+				ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		context = GameContext.createHeadless();
+		// Cycles are hashed, but not captured, which allocates snapshots.
+		context.getLogic().setCycleAction(CycleAction.PAUSE);
+	}
+	
+	@Test
+	public void sparseTicksDoNotAllocate() {
+		context.getLogic().setEngineType(EngineType.SPARSE);
+		gliders(0, 0, 8);
+		assertEquals(0, measure());
+	}
+	
+	@Test
+	public void denseTicksDoNotAllocate() {
+		context.getLogic().setEngineType(EngineType.DENSE);
+		// Gliders would grow the grid, oscillators don't.
+		blinkers(0, 0, 64);
+		assertEquals(0, measure());
+	}
+	
+	/**
+	 * Gliders leave tiles behind and need new ones on their way, so this
+	 * covers dropping and reviving of tiles.
+	 */
+	@Test
+	public void tiledTicksDoNotAllocate() {
+		context.getLogic().setEngineType(EngineType.TILED);
+		gliders(0, 0, 8);
+		assertEquals(0, measure());
+	}
+	
+	/**
+	 * {@link TorusGrid} keeps no hash of its own, so this covers hashing
+	 * cell by cell too.
+	 */
+	@Test
+	public void torusTicksDoNotAllocate() {
+		context.getLogic().setTorus(256, 256);
+		gliders(0, 0, 8);
+		assertEquals(0, measure());
+	}
+	
+	/**
+	 * The JVM itself allocates now and then while it compiles and loads
+	 * classes, on the thread that runs the code. That can hit any round,
+	 * garbage made by the ticks hits every one of them.
+	 * 
+	 * @return Bytes allocated by the quietest round of measured ticks.
+	 */
+	private long measure() {
+		Logic logic = context.getLogic();
+		for (int i = 0; i < WARMUP_TICKS; i++) {
+			logic.tick();
+		}
+		long thread = Thread.currentThread().getId();
+		long least = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			long before = threads.getThreadAllocatedBytes(thread);
+			for (int i = 0; i < MEASURED_TICKS; i++) {
+				logic.tick();
+			}
+			least = Math.min(least, 
+					threads.getThreadAllocatedBytes(thread) - before);
+		}
+		return least;
+	}
+	
+	/**
+	 * Puts count x count gliders flying south east, 16 cells apart.
+	 */
+	private void gliders(int left, int top, int count) {
+		for (int i = 0; i < count; i++) {
+			for (int j = 0; j < count; j++) {
+				int x = left + i * 16;
+				int y = top + j * 16;
+				touch(x + 1, y);
+				touch(x + 2, y + 1);
+				touch(x, y + 2);
+				touch(x + 1, y + 2);
+				touch(x + 2, y + 2);
+			}
+		}
+	}
+	
+	/**
+	 * Puts count x count blinkers, 4 cells apart.
+	 */
+	private void blinkers(int left, int top, int count) {
+		for (int i = 0; i < count; i++) {
+			for (int j = 0; j < count; j++) {
+				int x = left + i * 4;
+				int y = top + j * 4;
+				touch(x, y);
+				touch(x + 1, y);
+				touch(x + 2, y);
+			}
+		}
+	}
+	
+	/**
+	 * Brings a cell to life on the next tick, as a stroke of its own.
+	 */
+	private void touch(int x, int y) {
+		Input input = context.getInput();
+		input.addTouch(x, y);
+		input.flush();
+	}
+}
@@ -0,0 +1,211 @@
+package com.varaneckas.conway;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Saves boards with {@link BoardFile} and reads them back, in both cell
+ * encodings.
+ * 
+ * @author Tomas Varaneckas
+ */
+public class BoardFileTest {
+	
+	/**
+	 * Offset of the encoding byte, after the magic number and the version.
+	 */
+	private static final int ENCODING = 5;
+	
+	@Test
+	public void denseBoardRoundTripsAsBitset() throws IOException {
+		long[] cells = block(-70, -4, 130, 10);
+		File file = save(new Snapshot(1, 1234, cells), "B36/S23", 0, 0);
+		assertEquals(0, encoding(file));
+		
+		BoardFile board = BoardFile.read(file);
+		assertEquals(1234, board.getGeneration());
+		assertEquals("B36/S23", board.getRule());
+		assertEquals(0, board.getTorusWidth());
+		assertEquals(cells.length, board.getCells());
+		GameContext context = GameContext.createHeadless();
+		EngineType[] types = { EngineType.SPARSE, EngineType.DENSE,
+				EngineType.HASHLIFE };
+		for (EngineType type : types) {
+			Engine engine = type.create(context);
+			board.restore(engine);
+			assertArrayEquals(type.name(), cells, cells(engine));
+		}
+	}
+	
+	@Test
+	public void sparseBoardRoundTripsAsDeltas() throws IOException {
+		long[] cells = sorted(
+				0, 0,
+				1, 0,
+				1000, -5,
+				-70000, 3,
+				5, 900000,
+				5, 900001,
+				-2, -1000000);
+		File file = save(new Snapshot(1, 77, cells), "B3/S23", 64, 32);
+		assertEquals(1, encoding(file));
+		
+		BoardFile board = BoardFile.read(file);
+		assertEquals(77, board.getGeneration());
+		assertEquals(64, board.getTorusWidth());
+		assertEquals(32, board.getTorusHeight());
+		SparseEngine engine = new SparseEngine();
+		board.restore(engine);
+		assertArrayEquals(cells, cells(engine));
+	}
+	
+	@Test
+	public void dyingCellsKeepTheirStates() throws IOException {
+		long[] cells = sorted(0, 0, 1, 0, 2, 0, 0, 5);
+		byte[] states = new byte[cells.length];
+		for (int i = 0; i < cells.length; i++) {
+			states[i] = (byte) (LongCellSet.unpackX(cells[i]) == 1 ? 2 : 1);
+		}
+		File file = save(new Snapshot(1, 0, cells, states), "B2/S/C3",
+				0, 0);
+		
+		BoardFile board = BoardFile.read(file);
+		StateGrid grid = new StateGrid(new Workers());
+		board.restore(grid);
+		assertEquals(1, grid.getState(0, 0));
+		assertEquals(2, grid.getState(1, 0));
+		assertEquals(1, grid.getState(2, 0));
+		assertEquals(1, grid.getState(0, 5));
+		assertEquals(3, grid.getPopulation());
+		
+		// Two-state engines take dying cells as living ones.
+		SparseEngine engine = new SparseEngine();
+		board.restore(engine);
+		assertArrayEquals(cells, cells(engine));
+	}
+	
+	@Test
+	public void emptyBoardRoundTrips() throws IOException {
+		File file = save(Snapshot.EMPTY, "B3/S23", 0, 0);
+		BoardFile board = BoardFile.read(file);
+		assertEquals(0, board.getCells());
+		SparseEngine engine = new SparseEngine();
+		board.restore(engine);
+		assertEquals(0, engine.getPopulation());
+	}
+	
+	@Test
+	public void damagedFileIsRejected() throws IOException {
+		File file = save(new Snapshot(1, 1, block(0, 0, 20, 20)), "B3/S23",
+				0, 0);
+		RandomAccessFile content = new RandomAccessFile(file, "rw");
+		try {
+			content.seek(content.length() / 2);
+			int b = content.read();
+			content.seek(content.length() / 2);
+			content.write(b ^ 0x10);
+		} finally {
+			content.close();
+		}
+		try {
+			BoardFile.read(file);
+			fail("Read a damaged file");
+		} catch (IOException e) {
+			// Expected.
+		}
+	}
+	
+	@Test
+	public void truncatedFileIsRejected() throws IOException {
+		File file = save(new Snapshot(1, 1, block(0, 0, 20, 20)), "B3/S23",
+				0, 0);
+		RandomAccessFile content = new RandomAccessFile(file, "rw");
+		try {
+			content.setLength(content.length() - 10);
+		} finally {
+			content.close();
+		}
+		try {
+			BoardFile.read(file);
+			fail("Read a truncated file");
+		} catch (IOException e) {
+			// Expected.
+		}
+	}
+	
+	private static File save(Snapshot snapshot, String rule, int torusWidth,
+			int torusHeight) throws IOException {
+		File file = File.createTempFile("board", ".bin");
+		file.deleteOnExit();
+		BoardFile.save(file, snapshot, rule, torusWidth, torusHeight);
+		return file;
+	}
+	
+	private static int encoding(File file) throws IOException {
+		RandomAccessFile content = new RandomAccessFile(file, "r");
+		try {
+			content.seek(ENCODING);
+			return content.read();
+		} finally {
+			content.close();
+		}
+	}
+	
+	/**
+	 * @return Cells of a rectangle with a few holes in it, packed and
+	 * sorted.
+	 */
+	private static long[] block(int left, int top, int width, int height) {
+		long[] cells = new long[width * height];
+		int count = 0;
+		for (int y = top; y < top + height; y++) {
+			for (int x = left; x < left + width; x++) {
+				if ((x * 7 + y * 3) % 11 != 0) {
+					cells[count++] = LongCellSet.pack(x, y);
+				}
+			}
+		}
+		cells = Arrays.copyOf(cells, count);
+		Arrays.sort(cells);
+		return cells;
+	}
+	
+	/**
+	 * @return Living cells of the engine, packed and sorted.
+	 */
+	private static long[] cells(Engine engine) {
+		final long[] cells = new long[(int) engine.getPopulation()];
+		engine.visit(new CellVisitor() {
+			
+			private int count;
+			
+			@Override
+			public void visit(int x, int y) {
+				cells[count++] = LongCellSet.pack(x, y);
+			}
+		});
+		Arrays.sort(cells);
+		return cells;
+	}
+	
+	/**
+	 * @return Cells packed and sorted the way {@link Snapshot} keeps them.
+	 */
+	private static long[] sorted(int ... coordinates) {
+		long[] cells = new long[coordinates.length / 2];
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = LongCellSet.pack(coordinates[i * 2],
+					coordinates[i * 2 + 1]);
+		}
+		Arrays.sort(cells);
+		return cells;
+	}
+}
@@ -0,0 +1,102 @@
+package com.varaneckas.conway;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Stamps brushes into the engines, with and without the word writes of
+ * {@link BulkEngine}.
+ * 
+ * @author Tomas Varaneckas
+ */
+public class BrushTest {
+	
+	@Test
+	public void stampIsCenteredOnTheTouch() {
+		SparseEngine engine = new SparseEngine();
+		Brush.GLIDER.stamp(engine, 10, 20, new Random(1));
+		assertArrayEquals(cells(10, 19, 11, 20, 9, 21, 10, 21, 11, 21),
+				cells(engine));
+	}
+	
+	@Test
+	public void wordWritesMatchSingleCells() {
+		GameContext context = GameContext.createHeadless();
+		// Across word boundaries of the grids, on both sides of 0.
+		int[] columns = { 0, 47, 63, -30, -64, 1000 };
+		EngineType[] types = { EngineType.DENSE, EngineType.TILED };
+		for (EngineType type : types) {
+			for (int x : columns) {
+				Engine bulk = type.create(context);
+				SparseEngine single = new SparseEngine();
+				Brush.GOSPER_GUN.stamp(bulk, x, 3, new Random(1));
+				Brush.GOSPER_GUN.stamp(single, x, 3, new Random(1));
+				assertArrayEquals(type.name() + " at " + x, cells(single),
+						cells(bulk));
+				assertEquals(36, bulk.getPopulation());
+			}
+		}
+	}
+	
+	@Test
+	public void randomBrushStaysInItsDisc() {
+		Brush brush = Brush.random(4);
+		assertEquals(9, brush.getWidth());
+		assertEquals(4, brush.getSpacing());
+		SparseEngine engine = new SparseEngine();
+		brush.stamp(engine, 0, 0, new Random(1));
+		long[] cells = cells(engine);
+		assertTrue(cells.length > 0 && cells.length < 9 * 9);
+		for (long cell : cells) {
+			int x = LongCellSet.unpackX(cell);
+			int y = LongCellSet.unpackY(cell);
+			assertTrue(x * x + y * y <= 4 * 4);
+		}
+	}
+	
+	@Test
+	public void spacingKeepsPatternsApart() {
+		assertEquals(1, Brush.DOT.getSpacing());
+		assertEquals(5, Brush.GLIDER.getSpacing());
+		assertEquals(7, Brush.LWSS.getSpacing());
+		assertEquals(38, Brush.GOSPER_GUN.getSpacing());
+	}
+	
+	/**
+	 * @return Living cells of the engine, packed and sorted.
+	 */
+	private static long[] cells(Engine engine) {
+		final long[] cells = new long[(int) engine.getPopulation()];
+		engine.visit(new CellVisitor() {
+			
+			private int count;
+			
+			@Override
+			public void visit(int x, int y) {
+				cells[count++] = LongCellSet.pack(x, y);
+			}
+		});
+		Arrays.sort(cells);
+		return cells;
+	}
+	
+	/**
+	 * @return Cells packed and sorted the way {@link #cells(Engine)}
+	 * returns them.
+	 */
+	private static long[] cells(int ... coordinates) {
+		long[] cells = new long[coordinates.length / 2];
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = LongCellSet.pack(coordinates[i * 2],
+					coordinates[i * 2 + 1]);
+		}
+		Arrays.sort(cells);
+		return cells;
+	}
+}
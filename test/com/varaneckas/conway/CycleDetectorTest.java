@@ -0,0 +1,148 @@
+package com.varaneckas.conway;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Runs {@link CycleDetector} on a real oscillator, and on made up hashes
+ * that collide for boards which are not the same.
+ * 
+ * @author Tomas Varaneckas
+ */
+public class CycleDetectorTest {
+	
+	@Test
+	public void blinkerIsFoundAndReplayed() {
+		SparseEngine engine = new SparseEngine();
+		engine.setCell(-1, 0);
+		engine.setCell(0, 0);
+		engine.setCell(1, 0);
+		CycleDetector cycles = new CycleDetector();
+		assertFalse(cycles.record(0, engine.getHash()));
+		engine.step();
+		assertFalse(cycles.record(1, engine.getHash()));
+		engine.step();
+		assertTrue(cycles.record(2, engine.getHash()));
+		assertEquals(2, cycles.getPeriod());
+		assertEquals(0, cycles.getStart());
+		assertTrue(cycles.isCapturing());
+		
+		// Both phases are captured, then the first one must come back.
+		assertFalse(cycles.capture(snapshot(engine, 2), 3));
+		engine.step();
+		long[] vertical = cells(engine);
+		assertFalse(cycles.capture(snapshot(engine, 3), 3));
+		engine.step();
+		assertTrue(cycles.capture(snapshot(engine, 4), 3));
+		assertTrue(cycles.isReplaying());
+		assertFalse(cycles.isCapturing());
+		
+		assertArrayEquals(vertical, cells(cycles.getPhase(1001)));
+		assertArrayEquals(cells(-1, 0, 0, 0, 1, 0),
+				cells(cycles.getPhase(1000)));
+		assertEquals(3, cycles.getPopulation(1001));
+	}
+	
+	@Test
+	public void stillLifeHasPeriodOne() {
+		SparseEngine engine = new SparseEngine();
+		engine.setCell(0, 0);
+		engine.setCell(1, 0);
+		engine.setCell(0, 1);
+		engine.setCell(1, 1);
+		CycleDetector cycles = new CycleDetector();
+		assertFalse(cycles.record(0, engine.getHash()));
+		engine.step();
+		assertTrue(cycles.record(1, engine.getHash()));
+		assertEquals(1, cycles.getPeriod());
+	}
+	
+	@Test
+	public void hashCollisionIsRejected() {
+		CycleDetector cycles = new CycleDetector();
+		cycles.record(10, 42);
+		cycles.record(11, 7);
+		// Same hash, but a different board.
+		assertTrue(cycles.record(12, 42));
+		assertEquals(2, cycles.getPeriod());
+		
+		assertFalse(cycles.capture(snapshot(12, 0, 0), 1));
+		assertFalse(cycles.capture(snapshot(13, 5, 5), 1));
+		// The board of generation 12 does not come back.
+		assertFalse(cycles.capture(snapshot(14, 0, 1), 1));
+		
+		assertFalse(cycles.isReplaying());
+		assertFalse(cycles.isCapturing());
+		assertEquals(0, cycles.getPeriod());
+		assertEquals(-1, cycles.getStart());
+		assertEquals(-1, cycles.getPopulation(15));
+	}
+	
+	@Test
+	public void resetForgetsTheHashes() {
+		CycleDetector cycles = new CycleDetector();
+		cycles.record(0, 42);
+		cycles.reset();
+		assertFalse(cycles.record(1, 42));
+		assertEquals(0, cycles.getPeriod());
+	}
+	
+	private static Snapshot snapshot(SparseEngine engine, long generation) {
+		return new Snapshot(generation, generation, cells(engine));
+	}
+	
+	private static Snapshot snapshot(long generation, int ... coordinates) {
+		return new Snapshot(generation, generation, cells(coordinates));
+	}
+	
+	/**
+	 * @return Living cells of the engine, packed and sorted.
+	 */
+	private static long[] cells(Engine engine) {
+		final long[] cells = new long[(int) engine.getPopulation()];
+		engine.visit(new CellVisitor() {
+			
+			private int count;
+			
+			@Override
+			public void visit(int x, int y) {
+				cells[count++] = LongCellSet.pack(x, y);
+			}
+		});
+		Arrays.sort(cells);
+		return cells;
+	}
+	
+	private static long[] cells(Snapshot snapshot) {
+		final long[] cells = new long[snapshot.getPopulation()];
+		snapshot.visit(new CellVisitor() {
+			
+			private int count;
+			
+			@Override
+			public void visit(int x, int y) {
+				cells[count++] = LongCellSet.pack(x, y);
+			}
+		});
+		return cells;
+	}
+	
+	/**
+	 * @return Cells packed and sorted the way {@link Snapshot} keeps them.
+	 */
+	private static long[] cells(int ... coordinates) {
+		long[] cells = new long[coordinates.length / 2];
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = LongCellSet.pack(coordinates[i * 2],
+					coordinates[i * 2 + 1]);
+		}
+		Arrays.sort(cells);
+		return cells;
+	}
+}
@@ -0,0 +1,157 @@
+package com.varaneckas.conway;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Records generations of real patterns into {@link History} and rewinds
+ * them, with and without a keyframe on the way.
+ * 
+ * @author Tomas Varaneckas
+ */
+public class HistoryTest {
+	
+	private static final int GENERATIONS = 150;
+	
+	@Test
+	public void rewindRebuildsEarlierGenerations() {
+		SparseEngine engine = new SparseEngine();
+		// R-pentomino, keeps changing for a long time.
+		engine.setCell(1, 0);
+		engine.setCell(2, 0);
+		engine.setCell(0, 1);
+		engine.setCell(1, 1);
+		engine.setCell(1, 2);
+		checkRewinds(engine);
+	}
+	
+	@Test
+	public void rewindRestoresDyingStates() {
+		StateGrid grid = new StateGrid(new Workers());
+		grid.setRule(StateRule.parse("B2/S/C3"));
+		grid.setCell(0, 0);
+		grid.setCell(1, 0);
+		grid.setCell(0, 1);
+		grid.setCell(5, 5);
+		grid.setCell(6, 6);
+		checkRewinds(grid);
+	}
+	
+	@Test
+	public void limitEvictsTheOldestGenerations() {
+		SparseEngine engine = new SparseEngine();
+		engine.setCell(0, 0);
+		engine.setCell(1, 0);
+		engine.setCell(2, 0);
+		History history = new History();
+		history.setLimit(1000);
+		for (int generation = 0; generation < GENERATIONS; generation++) {
+			history.record(snapshot(engine, generation));
+			engine.step();
+		}
+		assertTrue(history.getBytes() <= 1000);
+		long oldest = history.getOldestGeneration();
+		assertTrue(oldest > 0);
+		// Generations before the oldest one are not known.
+		Snapshot snapshot = history.rewind(0);
+		assertEquals(oldest, snapshot.getGeneration());
+		// The blinker has a period of 2.
+		assertEquals(oldest % 2 == 0 ? 3 : 1, snapshot.getRight()
+				- snapshot.getLeft() + 1);
+	}
+	
+	/**
+	 * Records {@link #GENERATIONS} generations of given engine, then
+	 * rewinds to a few of them, newest first as a rewind forgets the
+	 * generations after its target.
+	 */
+	private static void checkRewinds(Engine engine) {
+		History history = new History();
+		history.setLimit(Long.MAX_VALUE);
+		Snapshot[] recorded = new Snapshot[GENERATIONS];
+		for (int generation = 0; generation < GENERATIONS; generation++) {
+			recorded[generation] = snapshot(engine, generation);
+			history.record(recorded[generation]);
+			engine.step();
+		}
+		assertEquals(0, history.getOldestGeneration());
+		
+		// Replayed from the latest generation, there's no keyframe after.
+		checkRewind(history, recorded, 140);
+		// Replayed from the keyframe at 128.
+		checkRewind(history, recorded, 100);
+		// The keyframe itself.
+		checkRewind(history, recorded, 64);
+		// Replayed from the keyframe at 64.
+		checkRewind(history, recorded, 3);
+	}
+	
+	private static void checkRewind(History history, Snapshot[] recorded,
+			int generation) {
+		Snapshot snapshot = history.rewind(generation);
+		assertEquals(generation, snapshot.getGeneration());
+		assertArrayEquals("generation " + generation,
+				states(recorded[generation]), states(snapshot));
+	}
+	
+	/**
+	 * @return Snapshot of the cells of given engine, dying ones included.
+	 */
+	private static Snapshot snapshot(Engine engine, long generation) {
+		final long[][] cells = { new long[16] };
+		final int[] count = new int[1];
+		engine.visit(new StateVisitor() {
+			@Override
+			public void visit(int x, int y) {
+				visit(x, y, 1);
+			}
+			
+			@Override
+			public void visit(int x, int y, int state) {
+				if (count[0] == cells[0].length) {
+					cells[0] = Arrays.copyOf(cells[0], count[0] * 2);
+				}
+				cells[0][count[0]++] = LongCellSet.pack(x, y);
+			}
+		});
+		long[] sorted = Arrays.copyOf(cells[0], count[0]);
+		Arrays.sort(sorted);
+		if (!(engine instanceof StateGrid)) {
+			return new Snapshot(generation, generation, sorted);
+		}
+		StateGrid grid = (StateGrid) engine;
+		byte[] states = new byte[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			states[i] = (byte) grid.getState(LongCellSet.unpackX(sorted[i]),
+					LongCellSet.unpackY(sorted[i]));
+		}
+		return new Snapshot(generation, generation, sorted, states);
+	}
+	
+	/**
+	 * @return Every cell of the snapshot with its state in the low byte.
+	 */
+	private static long[] states(Snapshot snapshot) {
+		final long[] states = new long[snapshot.getPopulation()];
+		snapshot.visit(new StateVisitor() {
+			
+			private int count;
+			
+			@Override
+			public void visit(int x, int y) {
+				visit(x, y, 1);
+			}
+			
+			@Override
+			public void visit(int x, int y, int state) {
+				states[count++] = LongCellSet.pack(x, y) << 8 | state;
+			}
+		});
+		return states;
+	}
+}
@@ -0,0 +1,192 @@
+package com.varaneckas.conway;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Feeds touches into the ring of {@link Input} and checks what the game
+ * logic gets out of it.
+ * 
+ * @author Tomas Varaneckas
+ */
+public class InputTest {
+	
+	/**
+	 * Touches the ring holds.
+	 */
+	private static final int CAPACITY = 1 << 14;
+	
+	@Test
+	public void flushHandsTheStrokeOver() {
+		Input input = new Input();
+		input.addTouch(0.4f, 1.6f);
+		// Resting on the same cell adds nothing.
+		input.addTouch(0.2f, 2.1f);
+		assertFalse(input.hasProcessed());
+		assertArrayEquals(cells(0, 2), unprocessed(input));
+		
+		input.flush();
+		assertTrue(input.hasProcessed());
+		assertArrayEquals(cells(), unprocessed(input));
+		assertArrayEquals(cells(0, 2), drain(input));
+		assertFalse(input.hasProcessed());
+		assertArrayEquals(cells(), drain(input));
+	}
+	
+	@Test
+	public void strokeStartsOverAfterFlush() {
+		Input input = new Input();
+		input.addTouch(0, 0);
+		input.flush();
+		// Not joined with the previous stroke.
+		input.addTouch(10, 0);
+		assertArrayEquals(cells(10, 0), unprocessed(input));
+		input.flush();
+		assertArrayEquals(cells(0, 0, 10, 0), drain(input));
+	}
+	
+	@Test
+	public void discardDropsOnlyTheStroke() {
+		Input input = new Input();
+		input.addTouch(0, 0);
+		input.flush();
+		input.addTouch(5, 5);
+		input.addTouch(6, 5);
+		assertArrayEquals(cells(5, 5, 6, 5), unprocessed(input));
+		
+		input.discard();
+		assertArrayEquals(cells(), unprocessed(input));
+		assertArrayEquals(cells(0, 0), drain(input));
+		// Nothing of the discarded stroke is flushed later.
+		input.flush();
+		assertFalse(input.hasProcessed());
+	}
+	
+	@Test
+	public void fullRingDropsTouchesUntilDrained() {
+		Input input = new Input();
+		input.addTouch(0, 0);
+		// The line has more cells than the ring holds.
+		input.addTouch(CAPACITY + 100, 0);
+		long[] touches = unprocessed(input);
+		assertEquals(CAPACITY, touches.length);
+		assertEquals(LongCellSet.pack(CAPACITY - 1, 0),
+				touches[CAPACITY - 1]);
+		input.addTouch(-5, -5);
+		assertEquals(CAPACITY, unprocessed(input).length);
+		
+		input.flush();
+		assertEquals(CAPACITY, drain(input).length);
+		// Drained slots are used again.
+		input.addTouch(-5, -5);
+		assertArrayEquals(cells(-5, -5), unprocessed(input));
+	}
+	
+	@Test
+	public void touchesAreJoinedByLines() {
+		Input input = new Input();
+		input.addTouch(0, 0);
+		input.addTouch(5, 2);
+		assertArrayEquals(cells(0, 0, 1, 0, 2, 1, 3, 1, 4, 2, 5, 2),
+				unprocessed(input));
+	}
+	
+	@Test
+	public void linesHaveNoGapsInAnyDirection() {
+		int[][] targets = { { 7, -3 }, { -2, -9 }, { -11, 4 }, { 0, 6 },
+				{ -5, 0 }, { 8, 8 } };
+		for (int[] target : targets) {
+			Input input = new Input();
+			input.addTouch(0, 0);
+			input.addTouch(target[0], target[1]);
+			long[] line = unprocessed(input);
+			assertEquals(Math.max(Math.abs(target[0]), Math.abs(target[1]))
+					+ 1, line.length);
+			for (int i = 1; i < line.length; i++) {
+				int dx = LongCellSet.unpackX(line[i])
+						- LongCellSet.unpackX(line[i - 1]);
+				int dy = LongCellSet.unpackY(line[i])
+						- LongCellSet.unpackY(line[i - 1]);
+				assertTrue(Math.abs(dx) <= 1 && Math.abs(dy) <= 1);
+			}
+			assertEquals(LongCellSet.pack(target[0], target[1]),
+					line[line.length - 1]);
+		}
+	}
+	
+	@Test
+	public void brushSpacingSeparatesStamps() {
+		Input input = new Input();
+		input.setBrush(Brush.GLIDER);
+		assertEquals(5, Brush.GLIDER.getSpacing());
+		input.addTouch(0, 0);
+		input.addTouch(12, 0);
+		assertArrayEquals(cells(0, 0, 5, 0, 10, 0), unprocessed(input));
+		// Too close to the last stamp, which is where the next line starts.
+		input.addTouch(14, 0);
+		assertArrayEquals(cells(0, 0, 5, 0, 10, 0), unprocessed(input));
+		input.addTouch(14, 6);
+		assertArrayEquals(cells(0, 0, 5, 0, 10, 0, 13, 5),
+				unprocessed(input));
+	}
+	
+	/**
+	 * @return Unprocessed touches, in the order they came in.
+	 */
+	private static long[] unprocessed(Input input) {
+		Touches touches = new Touches();
+		input.visitUnprocessed(touches);
+		return touches.get();
+	}
+	
+	/**
+	 * @return Drained touches, in the order they came in.
+	 */
+	private static long[] drain(Input input) {
+		Touches touches = new Touches();
+		assertEquals(input.drain(touches), touches.get().length);
+		return touches.get();
+	}
+	
+	/**
+	 * Collects visited cells, packed.
+	 */
+	private static final class Touches implements CellVisitor {
+		
+		private long[] cells = new long[16];
+		
+		private int count;
+		
+		@Override
+		public void visit(int x, int y) {
+			if (count == cells.length) {
+				long[] more = new long[count * 2];
+				System.arraycopy(cells, 0, more, 0, count);
+				cells = more;
+			}
+			cells[count++] = LongCellSet.pack(x, y);
+		}
+		
+		long[] get() {
+			long[] result = new long[count];
+			System.arraycopy(cells, 0, result, 0, count);
+			return result;
+		}
+	}
+	
+	/**
+	 * @return Cells packed, in given order.
+	 */
+	private static long[] cells(int ... coordinates) {
+		long[] cells = new long[coordinates.length / 2];
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = LongCellSet.pack(coordinates[i * 2],
+					coordinates[i * 2 + 1]);
+		}
+		return cells;
+	}
+}
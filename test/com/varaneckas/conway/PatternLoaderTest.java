@@ -0,0 +1,210 @@
+package com.varaneckas.conway;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Loads small RLE and macrocell files into the engines and checks where
+ * their cells end up.
+ * 
+ * @author Tomas Varaneckas
+ */
+public class PatternLoaderTest {
+	
+	private static final String GLIDER_RLE = "#N Glider\n"
+			+ "x = 3, y = 3, rule = B3/S23\n"
+			+ "bo$2bo$3o!\n";
+	
+	/**
+	 * Glider in the south east corner of a 32 x 32 universe.
+	 */
+	private static final String GLIDER_MACROCELL = "[M2] (golly 2.0)\n"
+			+ "#R B3/S23\n"
+			+ "$$$$$.*$..*$***$\n"
+			+ "4 0 0 0 1\n"
+			+ "5 0 0 0 2\n";
+	
+	/**
+	 * A living cell of Brian's Brain between two dying ones, and one below.
+	 */
+	private static final String DYING_RLE = "x = 3, y = 2, rule = B2/S/C3\n"
+			+ "BAB$.A!\n";
+	
+	@Test
+	public void rlePatternIsCenteredOnEveryEngine() throws IOException {
+		GameContext context = GameContext.createHeadless();
+		EngineType[] types = { EngineType.SPARSE, EngineType.DENSE,
+				EngineType.TILED, EngineType.HASHLIFE, EngineType.STATES };
+		for (EngineType type : types) {
+			Engine engine = type.create(context);
+			PatternLoader loader = new PatternLoader(engine);
+			loader.load(file(GLIDER_RLE));
+			assertArrayEquals(type.name(),
+					cells(0, -1, 1, 0, -1, 1, 0, 1, 1, 1), cells(engine));
+			assertEquals("B3/S23", loader.getRule());
+			assertEquals(5, loader.getCells());
+		}
+	}
+	
+	@Test
+	public void rleRunsSpanLinesAndRows() throws IOException {
+		SparseEngine engine = new SparseEngine();
+		new PatternLoader(engine).load(file("x = 4, y = 4\n"
+				+ "4o$\n2$3b\no!\n"));
+		assertArrayEquals(cells(-2, -2, -1, -2, 0, -2, 1, -2, 1, 1),
+				cells(engine));
+	}
+	
+	@Test
+	public void rleDyingStatesGoToStateGrid() throws IOException {
+		StateGrid grid = new StateGrid(new Workers());
+		PatternLoader loader = new PatternLoader(grid);
+		loader.load(file(DYING_RLE));
+		assertEquals("B2/S/C3", loader.getRule());
+		assertEquals(2, grid.getState(-1, -1));
+		assertEquals(1, grid.getState(0, -1));
+		assertEquals(2, grid.getState(1, -1));
+		assertEquals(1, grid.getState(0, 0));
+		assertEquals(2, grid.getPopulation());
+	}
+	
+	@Test
+	public void rleDyingStatesAreDroppedElsewhere() throws IOException {
+		SparseEngine engine = new SparseEngine();
+		new PatternLoader(engine).load(file(DYING_RLE));
+		assertArrayEquals(cells(0, -1, 0, 0), cells(engine));
+	}
+	
+	@Test
+	public void macrocellPatternKeepsItsPlace() throws IOException {
+		long[] glider = cells(9, 13, 10, 14, 8, 15, 9, 15, 10, 15);
+		HashLife hashLife = new HashLife();
+		PatternLoader loader = new PatternLoader(hashLife);
+		loader.load(file(GLIDER_MACROCELL));
+		assertArrayEquals(glider, cells(hashLife));
+		assertEquals("B3/S23", loader.getRule());
+		assertEquals(5, loader.getCells());
+		
+		// Other engines get the cells copied from a universe of their own.
+		SparseEngine sparse = new SparseEngine();
+		new PatternLoader(sparse).load(file(GLIDER_MACROCELL));
+		assertArrayEquals(glider, cells(sparse));
+	}
+	
+	@Test
+	public void targetPicksTheEngineBeforeTheCells() throws IOException {
+		final Object[] asked = new Object[4];
+		PatternLoader loader = new PatternLoader(new PatternLoader.Target() {
+			@Override
+			public Engine prepare(String rule, int width, int height,
+					boolean macrocell) {
+				asked[0] = rule;
+				asked[1] = width;
+				asked[2] = height;
+				asked[3] = macrocell;
+				return new StateGrid(new Workers());
+			}
+		});
+		loader.load(file(DYING_RLE));
+		assertArrayEquals(new Object[] { "B2/S/C3", 3, 2, false }, asked);
+		StateGrid grid = (StateGrid) loader.getEngine();
+		assertEquals(2, grid.getState(-1, -1));
+		
+		Arrays.fill(asked, null);
+		loader.load(file(GLIDER_MACROCELL));
+		assertEquals("B3/S23", asked[0]);
+		assertTrue((Boolean) asked[3]);
+		assertFalse(grid == loader.getEngine());
+	}
+	
+	@Test
+	public void fileWithoutRuleHasNone() throws IOException {
+		PatternLoader loader = new PatternLoader(new SparseEngine());
+		loader.load(file("3o!\n"));
+		assertNull(loader.getRule());
+		assertEquals(3, loader.getCells());
+	}
+	
+	@Test(expected = IOException.class)
+	public void rleRejectsHugeRunCounts() throws IOException {
+		new PatternLoader(new SparseEngine()).load(file("x = 1, y = 1\n"
+				+ "99999999999o!\n"));
+	}
+	
+	@Test(expected = IOException.class)
+	public void rleRejectsUnknownItems() throws IOException {
+		new PatternLoader(new SparseEngine()).load(file("x = 2, y = 1\n"
+				+ "o#o!\n"));
+	}
+	
+	@Test(expected = IOException.class)
+	public void macrocellRejectsLevelsHashLifeCannotHold() throws IOException {
+		new PatternLoader(new HashLife()).load(file("[M2]\n"
+				+ "$$$$$$*$\n"
+				+ "63 1 0 0 0\n"));
+	}
+	
+	@Test(expected = IOException.class)
+	public void macrocellRejectsNodesOfTheWrongLevel() throws IOException {
+		new PatternLoader(new HashLife()).load(file("[M2]\n"
+				+ "$$$$$$*$\n"
+				+ "5 1 0 0 0\n"));
+	}
+	
+	/**
+	 * @return Temporary file with given content, deleted on exit.
+	 */
+	private static File file(String content) throws IOException {
+		File file = File.createTempFile("pattern", ".txt");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("US-ASCII"));
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+	
+	/**
+	 * @return Living cells of the engine, packed and sorted.
+	 */
+	private static long[] cells(Engine engine) {
+		final long[] cells = new long[(int) engine.getPopulation()];
+		engine.visit(new CellVisitor() {
+			
+			private int count;
+			
+			@Override
+			public void visit(int x, int y) {
+				cells[count++] = LongCellSet.pack(x, y);
+			}
+		});
+		Arrays.sort(cells);
+		return cells;
+	}
+	
+	/**
+	 * @return Cells packed and sorted the way {@link #cells(Engine)}
+	 * returns them.
+	 */
+	private static long[] cells(int ... coordinates) {
+		long[] cells = new long[coordinates.length / 2];
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = LongCellSet.pack(coordinates[i * 2],
+					coordinates[i * 2 + 1]);
+		}
+		Arrays.sort(cells);
+		return cells;
+	}
+}
@@ -0,0 +1,151 @@
+package com.varaneckas.conway;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Checks the pixels of {@link PixelBuffer} against pictures drawn by hand.
+ * 
+ * @author Tomas Varaneckas
+ */
+public class PixelBufferTest {
+	
+	private static final int B = 0xFF000000;
+	
+	private static final int L = 0xFF00FF00;
+	
+	private static final int D = 0xFF008000;
+	
+	private static final int[] PALETTE = { B, L, D };
+	
+	@Test
+	public void paintDrawsTheCellsOfTheWindow() {
+		PixelBuffer buffer = new PixelBuffer();
+		buffer.setWindow(-2, -1, 4, 3);
+		buffer.paint(snapshot(1,
+				-2, -1,
+				1, -1,
+				0, 0,
+				-1, 1,
+				// Outside of the window.
+				2, 0,
+				-3, 1,
+				0, 2),
+				PALETTE);
+		assertArrayEquals(new int[] {
+				L, B, B, L,
+				B, B, L, B,
+				B, L, B, B }, pixels(buffer));
+	}
+	
+	@Test
+	public void paintColorsDyingCellsByState() {
+		long[] cells = cells(0, 0, 1, 0, 2, 0);
+		byte[] states = { 1, 2, 1 };
+		PixelBuffer buffer = new PixelBuffer();
+		buffer.setWindow(0, 0, 3, 1);
+		buffer.paint(new Snapshot(1, 0, cells, states), PALETTE);
+		assertArrayEquals(new int[] { L, D, L }, pixels(buffer));
+	}
+	
+	@Test
+	public void paintClearsWhatWasDrawnBefore() {
+		PixelBuffer buffer = new PixelBuffer();
+		buffer.setWindow(0, 0, 2, 2);
+		buffer.paint(snapshot(1, 0, 0, 1, 1), PALETTE);
+		buffer.paint(snapshot(2, 1, 0), PALETTE);
+		assertArrayEquals(new int[] {
+				B, L,
+				B, B }, pixels(buffer));
+	}
+	
+	@Test
+	public void paintChangesRepaintsOnlyChangedCells() {
+		Snapshot previous = snapshot(1,
+				0, 0,
+				1, 0,
+				2, 0,
+				// Outside of the window.
+				5, 5);
+		// Blinker turned, and the cell outside of the window died.
+		Snapshot next = snapshot(2,
+				1, -1,
+				1, 0,
+				1, 1);
+		PixelBuffer buffer = new PixelBuffer();
+		buffer.setWindow(0, -1, 3, 3);
+		buffer.paint(previous, PALETTE);
+		
+		int changed = buffer.paintChanges(next, previous, PALETTE);
+		
+		assertEquals(4, changed);
+		assertArrayEquals(new int[] {
+				B, L, B,
+				B, L, B,
+				B, L, B }, pixels(buffer));
+	}
+	
+	@Test
+	public void paintChangesEndsUpLikePaint() {
+		Snapshot previous = snapshot(1,
+				-4, -4, -3, -2, 0, 0, 3, 1, 7, 7, 2, -3);
+		Snapshot next = snapshot(2,
+				-4, -4, -2, -2, 0, 1, 3, 1, 6, 7, -1, 3);
+		PixelBuffer changes = new PixelBuffer();
+		changes.setWindow(-3, -3, 8, 7);
+		changes.paint(previous, PALETTE);
+		changes.paintChanges(next, previous, PALETTE);
+		
+		PixelBuffer whole = new PixelBuffer();
+		whole.setWindow(-3, -3, 8, 7);
+		whole.paint(next, PALETTE);
+		
+		assertArrayEquals(pixels(whole), pixels(changes));
+	}
+	
+	@Test
+	public void setWindowKeepsTheArrayWhenItFits() {
+		PixelBuffer buffer = new PixelBuffer();
+		assertTrue(buffer.setWindow(0, 0, 4, 4));
+		int[] pixels = buffer.getPixels();
+		assertFalse(buffer.setWindow(0, 0, 4, 4));
+		assertTrue(buffer.setWindow(1, 1, 2, 3));
+		assertTrue(pixels == buffer.getPixels());
+		assertTrue(buffer.setWindow(1, 1, 5, 5));
+		assertFalse(pixels == buffer.getPixels());
+	}
+	
+	/**
+	 * @return Pixels of the picture, without the unused end of the array.
+	 */
+	private static int[] pixels(PixelBuffer buffer) {
+		return Arrays.copyOf(buffer.getPixels(),
+				buffer.getWidth() * buffer.getHeight());
+	}
+	
+	/**
+	 * @param coordinates X and Y of every living cell.
+	 */
+	private static Snapshot snapshot(long version, int ... coordinates) {
+		return new Snapshot(version, version, cells(coordinates));
+	}
+	
+	/**
+	 * @return Cells packed and sorted the way {@link Snapshot} keeps them.
+	 */
+	private static long[] cells(int ... coordinates) {
+		long[] cells = new long[coordinates.length / 2];
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = LongCellSet.pack(coordinates[i * 2],
+					coordinates[i * 2 + 1]);
+		}
+		Arrays.sort(cells);
+		return cells;
+	}
+}
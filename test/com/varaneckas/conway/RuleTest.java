@@ -0,0 +1,134 @@
+package com.varaneckas.conway;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Checks parsing of rulestrings, and that the engines follow a rule other
+ * than Conway's.
+ * 
+ * @author Tomas Varaneckas
+ */
+public class RuleTest {
+	
+	@Test
+	public void parseReadsBirthsAndSurvivals() {
+		Rule highLife = Rule.parse("B36/S23");
+		for (int n = 0; n <= 8; n++) {
+			assertEquals("birth with " + n, n == 3 || n == 6,
+					highLife.next(false, n));
+			assertEquals("survival with " + n, n == 2 || n == 3,
+					highLife.next(true, n));
+		}
+		assertEquals("B36/S23", highLife.toString());
+	}
+	
+	@Test
+	public void parseAcceptsSurvivalsFirstInAnyCase() {
+		assertEquals(Rule.CONWAY, Rule.parse("S23/B3"));
+		assertEquals(Rule.CONWAY, Rule.parse(" b3/s23 "));
+		assertEquals(Rule.CONWAY, Rule.parse("s23/b3"));
+	}
+	
+	@Test
+	public void parseAcceptsLegacyNotation() {
+		assertEquals(Rule.CONWAY, Rule.parse("23/3"));
+		assertEquals(Rule.parse("B36/S23"), Rule.parse("23/36"));
+		assertEquals(Rule.parse("B2/S"), Rule.parse("/2"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void parseRejectsBirthWithNoNeighbors() {
+		Rule.parse("B03/S23");
+	}
+	
+	@Test
+	public void parseRejectsInvalidRules() {
+		String[] invalid = { "", "B3S23", "B3/S23/", "B9/S23", "B3/S2x",
+				"Life" };
+		for (String rule : invalid) {
+			try {
+				Rule.parse(rule);
+				fail("Parsed " + rule);
+			} catch (IllegalArgumentException e) {
+				// Expected.
+			}
+		}
+	}
+	
+	@Test
+	public void applyMatchesNext() {
+		Rule[] rules = { Rule.CONWAY, Rule.parse("B36/S23"),
+				Rule.parse("B2/S"), Rule.parse("B1357/S02468") };
+		for (Rule rule : rules) {
+			for (int n = 0; n <= 8; n++) {
+				// Every bit of the slices holds the same count.
+				long ones = (n & 1) != 0 ? -1L : 0;
+				long twos = (n & 2) != 0 ? -1L : 0;
+				long fours = (n & 4) != 0 ? -1L : 0;
+				long eights = (n & 8) != 0 ? -1L : 0;
+				// Even bits are alive, odd ones are dead.
+				long alive = 0x5555555555555555L;
+				long next = rule.apply(ones, twos, fours, eights, alive);
+				assertEquals(rule + " alive with " + n, rule.next(true, n),
+						(next & 1) != 0);
+				assertEquals(rule + " dead with " + n, rule.next(false, n),
+						(next & 2) != 0);
+			}
+		}
+	}
+	
+	@Test
+	public void enginesStepSeeds() {
+		GameContext context = GameContext.createHeadless();
+		EngineType[] types = { EngineType.SPARSE, EngineType.DENSE,
+				EngineType.TILED, EngineType.HASHLIFE };
+		for (EngineType type : types) {
+			Engine engine = type.create(context);
+			engine.setRule(Rule.parse("B2/S"));
+			engine.setCell(0, 0);
+			engine.setCell(1, 0);
+			engine.step();
+			// Both cells die, the ones with exactly two neighbors are born.
+			assertArrayEquals(type.name(), cells(0, -1, 1, -1, 0, 1, 1, 1),
+					cells(engine));
+		}
+	}
+	
+	/**
+	 * @return Living cells of the engine, packed and sorted.
+	 */
+	private static long[] cells(Engine engine) {
+		final long[] cells = new long[(int) engine.getPopulation()];
+		engine.visit(new CellVisitor() {
+			
+			private int count;
+			
+			@Override
+			public void visit(int x, int y) {
+				cells[count++] = LongCellSet.pack(x, y);
+			}
+		});
+		Arrays.sort(cells);
+		return cells;
+	}
+	
+	/**
+	 * @return Cells packed and sorted the way {@link #cells(Engine)}
+	 * returns them.
+	 */
+	private static long[] cells(int ... coordinates) {
+		long[] cells = new long[coordinates.length / 2];
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = LongCellSet.pack(coordinates[i * 2],
+					coordinates[i * 2 + 1]);
+		}
+		Arrays.sort(cells);
+		return cells;
+	}
+}
@@ -0,0 +1,144 @@
+package com.varaneckas.conway;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Steps {@link StateGrid} with Generations and Larger than Life rules, and
+ * checks it against cells worked out by hand or counted one by one.
+ * 
+ * @author Tomas Varaneckas
+ */
+public class StateGridTest {
+	
+	@Test
+	public void generationsCellsDecayThroughDyingStates() {
+		StateGrid grid = new StateGrid(new Workers());
+		grid.setRule(StateRule.parse("B2/S/C3"));
+		grid.setCell(0, 0);
+		grid.setCell(1, 0);
+		
+		grid.step();
+		// Nothing survives in Brian's Brain, the pair starts dying and
+		// gives birth above and below.
+		assertStates(grid, -2, -2, new int[][] {
+				{ 0, 0, 0, 0, 0, 0 },
+				{ 0, 0, 1, 1, 0, 0 },
+				{ 0, 0, 2, 2, 0, 0 },
+				{ 0, 0, 1, 1, 0, 0 },
+				{ 0, 0, 0, 0, 0, 0 } });
+		assertEquals(4, grid.getPopulation());
+		
+		grid.step();
+		// Dying cells are not neighbors, so the sides see two cells each.
+		assertStates(grid, -2, -2, new int[][] {
+				{ 0, 0, 1, 1, 0, 0 },
+				{ 0, 0, 2, 2, 0, 0 },
+				{ 0, 1, 0, 0, 1, 0 },
+				{ 0, 0, 2, 2, 0, 0 },
+				{ 0, 0, 1, 1, 0, 0 } });
+		assertEquals(6, grid.getPopulation());
+	}
+	
+	@Test
+	public void generationsMatchesCellByCellCount() {
+		checkAgainstCount(StateRule.parse("345/2/4"), 20);
+	}
+	
+	@Test
+	public void largerThanLifeCountsTheWholeRadius() {
+		StateGrid grid = new StateGrid(new Workers());
+		grid.setRule(StateRule.parse("R2,C0,M0,S1..1,B3..3,NM"));
+		grid.setCell(-2, -2);
+		grid.setCell(2, -2);
+		grid.setCell(0, 2);
+		
+		grid.step();
+		// 0,0 has all three cells in its 5 x 5 square, but none in 3 x 3.
+		// The cells are too far from each other to survive.
+		assertEquals(1, grid.getState(0, 0));
+		assertEquals(1, grid.getPopulation());
+	}
+	
+	@Test
+	public void largerThanLifeMatchesCellByCellCount() {
+		// Bosco's Rule.
+		checkAgainstCount(StateRule.parse("R5,C0,M1,S34..58,B34..45,NM"), 10);
+		checkAgainstCount(StateRule.parse("R2,C4,M0,S3..8,B4..6,NM"), 10);
+	}
+	
+	/**
+	 * Steps a random soup on a {@link StateGrid} and on a plain array that
+	 * counts every neighbor, and compares them after every step.
+	 */
+	private static void checkAgainstCount(StateRule rule, int steps) {
+		int size = 40;
+		// Leave room for the soup to grow.
+		int margin = steps * rule.getRadius();
+		int side = size + 2 * margin;
+		int[][] cells = new int[side][side];
+		StateGrid grid = new StateGrid(new Workers());
+		grid.setRule(rule);
+		Random random = new Random(size);
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				if (random.nextInt(3) == 0) {
+					cells[margin + y][margin + x] = 1;
+					grid.setCell(x, y);
+				}
+			}
+		}
+		
+		for (int i = 0; i < steps; i++) {
+			cells = step(cells, rule);
+			grid.step();
+			assertStates(grid, -margin, -margin, cells);
+		}
+	}
+	
+	private static int[][] step(int[][] cells, StateRule rule) {
+		int side = cells.length;
+		int radius = rule.getRadius();
+		int[][] next = new int[side][side];
+		for (int y = 0; y < side; y++) {
+			for (int x = 0; x < side; x++) {
+				int neighbors = 0;
+				for (int dy = -radius; dy <= radius; dy++) {
+					for (int dx = -radius; dx <= radius; dx++) {
+						if ((dx != 0 || dy != 0 || rule.isMiddleIncluded())
+								&& state(cells, x + dx, y + dy) == 1) {
+							neighbors++;
+						}
+					}
+				}
+				next[y][x] = rule.next(cells[y][x], neighbors);
+			}
+		}
+		return next;
+	}
+	
+	private static int state(int[][] cells, int x, int y) {
+		if (y < 0 || y >= cells.length || x < 0 || x >= cells[y].length) {
+			return 0;
+		}
+		return cells[y][x];
+	}
+	
+	/**
+	 * @param left World coordinates of the first entry of the rows.
+	 * @param top World coordinates of the first row.
+	 * @param rows Expected states, row by row.
+	 */
+	private static void assertStates(StateGrid grid, int left, int top,
+			int[][] rows) {
+		for (int y = 0; y < rows.length; y++) {
+			for (int x = 0; x < rows[y].length; x++) {
+				assertEquals("state at " + (left + x) + "," + (top + y),
+						rows[y][x], grid.getState(left + x, top + y));
+			}
+		}
+	}
+}